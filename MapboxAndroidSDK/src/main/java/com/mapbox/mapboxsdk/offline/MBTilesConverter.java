@@ -0,0 +1,509 @@
+package com.mapbox.mapboxsdk.offline;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+import com.mapbox.mapboxsdk.constants.MapboxConstants;
+import com.mapbox.mapboxsdk.exceptions.OfflineDatabaseException;
+import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
+import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesFileArchive;
+import com.mapbox.mapboxsdk.util.MapboxUtils;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.Hashtable;
+import java.util.UUID;
+
+/**
+ * Converts between {@link OfflineMapDatabase} and the MBTiles format read by
+ * {@link MBTilesFileArchive}, so that a region downloaded once can be handed out as a file and
+ * imported elsewhere without downloading it again.
+ * <p/>
+ * MBTiles numbers tile rows from the south (TMS) while offline databases use the XYZ rows of
+ * the tile URLs, so rows are flipped both ways. Only the map tiles are converted, the metadata
+ * and markers of a region have no place in MBTiles.
+ * <p/>
+ * Both directions copy the tiles in large transactions and create indexes after the copy, so
+ * they aren't updated for every row. Both block and must not be called on the main thread.
+ */
+public final class MBTilesConverter implements MapboxConstants {
+
+    private static final String TAG = "MBTilesConverter";
+
+    // Rows of the offline database copied per transaction by an export
+    private static final int EXPORT_BATCH_SIZE = 5000;
+    // Tiles read per query by an import. A page that overflows a cursor window is refilled by
+    // running its query again, which only steps through that page as the query seeks to it
+    private static final int IMPORT_PAGE_SIZE = 256;
+    // Tiles committed per transaction by an import
+    private static final int IMPORT_BATCH_SIZE = 1024;
+
+    private static final String SOURCE = "source";
+
+    private static final String COL_ZOOM_LEVEL = "zoom_level";
+    private static final String COL_TILE_COLUMN = "tile_column";
+    private static final String COL_TILE_ROW = "tile_row";
+    private static final String COL_NAME = "name";
+
+    // The position of a tile from its id, see OfflineDatabaseHandler.tileIdForTile()
+    private static final long ZOOM_UNIT = TileId.pack(0, 1, 0, 0);
+    private static final long COORD_UNIT = TileId.pack(0, 0, 1, 0);
+    private static final String TILE_Z = "(r." + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " / " + ZOOM_UNIT + ")";
+    private static final String TILE_X = "((r." + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " / " + COORD_UNIT + ") % " + COORD_UNIT + ")";
+    private static final String TILE_Y = "(r." + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " % " + COORD_UNIT + ")";
+
+    private static final String CREATE_TILES = "CREATE TABLE " + MBTilesFileArchive.TABLE_TILES + " (" + COL_ZOOM_LEVEL + " INTEGER, "
+            + COL_TILE_COLUMN + " INTEGER, " + COL_TILE_ROW + " INTEGER, " + MBTilesFileArchive.COL_TILES_TILE_DATA + " BLOB);";
+    private static final String CREATE_METADATA = "CREATE TABLE " + MBTilesFileArchive.TABLE_METADATA + " (" + COL_NAME + " TEXT, "
+            + MBTilesFileArchive.COL_VALUE + " TEXT);";
+    private static final String CREATE_TILE_INDEX = "CREATE UNIQUE INDEX tile_index ON " + MBTilesFileArchive.TABLE_TILES + " ("
+            + COL_ZOOM_LEVEL + ", " + COL_TILE_COLUMN + ", " + COL_TILE_ROW + ");";
+    private static final String CREATE_METADATA_INDEX = "CREATE UNIQUE INDEX name ON " + MBTilesFileArchive.TABLE_METADATA + " (" + COL_NAME + ");";
+    private static final String INSERT_METADATA = "INSERT OR REPLACE INTO " + MBTilesFileArchive.TABLE_METADATA + " (" + COL_NAME + ", "
+            + MBTilesFileArchive.COL_VALUE + ") VALUES (?, ?);";
+    private static final String COPY_METADATA = "INSERT INTO " + MBTilesFileArchive.TABLE_METADATA + " (" + COL_NAME + ", " + MBTilesFileArchive.COL_VALUE
+            + ") SELECT " + OfflineDatabaseHandler.FIELD_METADATA_NAME + ", " + OfflineDatabaseHandler.FIELD_METADATA_VALUE + " FROM "
+            + SOURCE + "." + OfflineDatabaseHandler.TABLE_METADATA + ";";
+    private static final String QUERY_MAX_RESOURCE = "SELECT IFNULL(MAX(rowid), 0) FROM " + SOURCE + "." + OfflineDatabaseHandler.TABLE_RESOURCES + ";";
+    private static final String COPY_TILES = "INSERT INTO " + MBTilesFileArchive.TABLE_TILES + " (" + COL_ZOOM_LEVEL + ", " + COL_TILE_COLUMN + ", "
+            + COL_TILE_ROW + ", " + MBTilesFileArchive.COL_TILES_TILE_DATA + ") SELECT " + TILE_Z + ", " + TILE_X + ", (1 << " + TILE_Z + ") - 1 - "
+            + TILE_Y + ", d." + OfflineDatabaseHandler.FIELD_DATA_VALUE + " FROM " + SOURCE + "." + OfflineDatabaseHandler.TABLE_RESOURCES + " r, "
+            + SOURCE + "." + OfflineDatabaseHandler.TABLE_DATA + " d WHERE d." + OfflineDatabaseHandler.FIELD_DATA_ID + " = r."
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " AND r." + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " IS NOT NULL AND r.rowid > ? AND r.rowid <= ?;";
+
+    private static final String QUERY_SOURCE_METADATA = "SELECT " + COL_NAME + ", " + MBTilesFileArchive.COL_VALUE + " FROM "
+            + SOURCE + "." + MBTilesFileArchive.TABLE_METADATA + ";";
+    private static final String QUERY_ZOOM_RANGE = "SELECT MIN(" + COL_ZOOM_LEVEL + "), MAX(" + COL_ZOOM_LEVEL + ") FROM "
+            + SOURCE + "." + MBTilesFileArchive.TABLE_TILES + ";";
+    // Page through the tiles by their key rather than by rowid, which a tiles view doesn't have.
+    // Each query fixes all but the last key column, so it seeks the tile index instead of
+    // scanning everything before the page.
+    private static final String QUERY_NEXT_ZOOM_LEVEL = "SELECT MIN(" + COL_ZOOM_LEVEL + ") FROM " + SOURCE + "." + MBTilesFileArchive.TABLE_TILES
+            + " WHERE " + COL_ZOOM_LEVEL + " > CAST(? AS INTEGER);";
+    private static final String QUERY_NEXT_TILE_COLUMN = "SELECT MIN(" + COL_TILE_COLUMN + ") FROM " + SOURCE + "." + MBTilesFileArchive.TABLE_TILES
+            + " WHERE " + COL_ZOOM_LEVEL + " = CAST(? AS INTEGER) AND " + COL_TILE_COLUMN + " > CAST(? AS INTEGER);";
+    private static final String QUERY_TILES = "SELECT " + COL_TILE_ROW + ", " + MBTilesFileArchive.COL_TILES_TILE_DATA + " FROM " + SOURCE + "."
+            + MBTilesFileArchive.TABLE_TILES + " WHERE " + COL_ZOOM_LEVEL + " = CAST(? AS INTEGER) AND " + COL_TILE_COLUMN + " = CAST(? AS INTEGER) AND "
+            + COL_TILE_ROW + " > CAST(? AS INTEGER) ORDER BY " + COL_TILE_ROW + " LIMIT " + IMPORT_PAGE_SIZE + ";";
+    private static final String FIND_DATA = "SELECT " + OfflineDatabaseHandler.FIELD_DATA_ID + " FROM " + OfflineDatabaseHandler.TABLE_DATA
+            + " WHERE " + OfflineDatabaseHandler.FIELD_DATA_HASH + " = ? LIMIT 1;";
+    private static final String INSERT_DATA = "INSERT INTO " + OfflineDatabaseHandler.TABLE_DATA + " (" + OfflineDatabaseHandler.FIELD_DATA_VALUE
+            + ", " + OfflineDatabaseHandler.FIELD_DATA_HASH + ") VALUES (?, ?);";
+    private static final String INSERT_RESOURCE = "INSERT OR REPLACE INTO " + OfflineDatabaseHandler.TABLE_RESOURCES + " ("
+            + OfflineDatabaseHandler.FIELD_RESOURCES_URL + ", " + OfflineDatabaseHandler.FIELD_RESOURCES_STATUS + ", "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ID + ", " + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + ") VALUES (?, ?, ?, ?);";
+    private static final String INSERT_OFFLINE_METADATA = "INSERT OR REPLACE INTO " + OfflineDatabaseHandler.TABLE_METADATA + " ("
+            + OfflineDatabaseHandler.FIELD_METADATA_NAME + ", " + OfflineDatabaseHandler.FIELD_METADATA_VALUE + ") VALUES (?, ?);";
+
+    private MBTilesConverter() {
+    }
+
+    /**
+     * Write the tiles of an offline map database to a new MBTiles file. The metadata of the
+     * offline database is copied along with the MBTiles metadata, so that an import restores it.
+     *
+     * @param offlineMapDatabase an initialized, complete offline map database
+     * @param file the MBTiles file to create, which must not exist yet
+     * @return the number of tiles written
+     * @throws OfflineDatabaseException if the file exists or the copy fails
+     */
+    public static long exportToMBTiles(OfflineMapDatabase offlineMapDatabase, File file) throws OfflineDatabaseException {
+        if (offlineMapDatabase.getPath() == null) {
+            throw new OfflineDatabaseException("The offline map database isn't initialized");
+        }
+        if (file.exists()) {
+            throw new OfflineDatabaseException("The MBTiles file already exists: " + file);
+        }
+
+        SQLiteDatabase db = null;
+        boolean success = false;
+        try {
+            db = SQLiteDatabase.openOrCreateDatabase(file, null);
+            db.execSQL(CREATE_METADATA);
+            db.execSQL(CREATE_TILES);
+            db.execSQL("ATTACH DATABASE ? AS " + SOURCE + ";", new Object[] {offlineMapDatabase.getPath()});
+
+            long tileCount = 0;
+            SQLiteStatement copyTiles = db.compileStatement(COPY_TILES);
+            SQLiteStatement maxResource = db.compileStatement(QUERY_MAX_RESOURCE);
+            try {
+                final long lastRowId = maxResource.simpleQueryForLong();
+                for (long rowId = 0; rowId < lastRowId; rowId += EXPORT_BATCH_SIZE) {
+                    db.beginTransaction();
+                    try {
+                        copyTiles.bindLong(1, rowId);
+                        copyTiles.bindLong(2, rowId + EXPORT_BATCH_SIZE);
+                        copyTiles.execute();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+                tileCount = queryForLong(db, "SELECT COUNT(*) FROM " + MBTilesFileArchive.TABLE_TILES + ";");
+            } finally {
+                copyTiles.close();
+                maxResource.close();
+            }
+
+            db.beginTransaction();
+            try {
+                db.execSQL(COPY_METADATA);
+                putMBTilesMetadata(db, offlineMapDatabase);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.execSQL("DETACH DATABASE " + SOURCE + ";");
+
+            // Indexing once all rows are in is much faster than keeping the index up to date
+            db.execSQL(CREATE_TILE_INDEX);
+            db.execSQL(CREATE_METADATA_INDEX);
+            success = true;
+            Log.i(TAG, "Exported " + tileCount + " tiles of " + offlineMapDatabase.getMapID() + " to " + file);
+            return tileCount;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error exporting " + offlineMapDatabase.getMapID(), e);
+            throw new OfflineDatabaseException("Error exporting to MBTiles: " + e.getMessage());
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+            if (!success && file.exists() && !file.delete()) {
+                Log.w(TAG, "Couldn't delete incomplete MBTiles file " + file);
+            }
+        }
+    }
+
+    private static void putMBTilesMetadata(SQLiteDatabase db, OfflineMapDatabase offlineMapDatabase) {
+        final CoordinateRegion region = offlineMapDatabase.getMapRegion();
+        final double north = region.getCenter().getLatitude() + region.getSpan().getLatitudeSpan() / 2;
+        final double south = region.getCenter().getLatitude() - region.getSpan().getLatitudeSpan() / 2;
+        final double east = region.getCenter().getLongitude() + region.getSpan().getLongitudeSpan() / 2;
+        final double west = region.getCenter().getLongitude() - region.getSpan().getLongitudeSpan() / 2;
+        final int minimumZ = offlineMapDatabase.getMinimumZ();
+        final int maximumZ = offlineMapDatabase.getMaximumZ();
+        final String extension = MapboxUtils.qualityExtensionForImageQuality(offlineMapDatabase.getImageQuality());
+
+        final SQLiteStatement insert = db.compileStatement(INSERT_METADATA);
+        try {
+            insertMetadata(insert, "name", offlineMapDatabase.getMapID());
+            insertMetadata(insert, "type", "baselayer");
+            insertMetadata(insert, "version", "1.1");
+            insertMetadata(insert, "description", offlineMapDatabase.getMapID());
+            insertMetadata(insert, "format", extension.startsWith("jpg") ? "jpg" : "png");
+            insertMetadata(insert, "bounds", String.format(MAPBOX_LOCALE, "%.8f,%.8f,%.8f,%.8f", west, south, east, north));
+            insertMetadata(insert, "center", String.format(MAPBOX_LOCALE, "%.8f,%.8f,%d", region.getCenter().getLongitude(),
+                    region.getCenter().getLatitude(), (minimumZ + maximumZ) / 2));
+            insertMetadata(insert, "minzoom", Integer.toString(minimumZ));
+            insertMetadata(insert, "maxzoom", Integer.toString(maximumZ));
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static void insertMetadata(SQLiteStatement insert, String name, String value) {
+        insert.bindString(1, name);
+        insert.bindString(2, value);
+        insert.execute();
+    }
+
+    /**
+     * Create an offline map database from the tiles of an MBTiles file. Identical tiles are
+     * stored once, as they are by a download. The region and zoom levels are those of a file
+     * exported by {@link #exportToMBTiles(OfflineMapDatabase, File)}, or else taken from the
+     * bounds and zoom levels of the MBTiles file.
+     * <p/>
+     * The resources get the URLs a download of the map would use, so the database can be
+     * brought up to date by an {@link OfflineMapUpdater}.
+     *
+     * @param context the context the offline databases belong to
+     * @param file the MBTiles file
+     * @param mapID the map id of the new offline map database, which must not exist yet
+     * @return the new offline map database
+     * @throws OfflineDatabaseException if the database exists or the copy fails
+     */
+    public static OfflineMapDatabase importMBTiles(Context context, File file, String mapID) throws OfflineDatabaseException {
+        if (!file.exists()) {
+            throw new OfflineDatabaseException("The MBTiles file doesn't exist: " + file);
+        }
+        final String databaseName = mapID.toLowerCase();
+        if (context.getDatabasePath(databaseName).exists()) {
+            throw new OfflineDatabaseException("An offline map database already exists for " + mapID);
+        }
+
+        final OfflineDatabaseManager databaseManager = OfflineDatabaseManager.getOfflineDatabaseManager(context);
+        final OfflineDatabaseHandler handler = databaseManager.getOfflineDatabaseHandlerForMapId(mapID, true);
+        boolean success = false;
+        try {
+            // The handler's connection stays open for the offline map database and tile provider
+            final SQLiteDatabase db = handler.getWritableDatabase();
+            db.execSQL("ATTACH DATABASE ? AS " + SOURCE + ";", new Object[] {file.getAbsolutePath()});
+
+            final Hashtable<String, String> metadata = readMBTilesMetadata(db);
+            final RasterImageQuality imageQuality = getImageQuality(metadata);
+            final int[] zoomRange = getZoomRange(db, metadata);
+            final long tileCount = copyTiles(db, mapID, imageQuality);
+
+            boolean hasRegion;
+            db.beginTransaction();
+            try {
+                hasRegion = putOfflineMetadata(db, mapID, metadata, imageQuality, zoomRange);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.execSQL("DETACH DATABASE " + SOURCE + ";");
+            if (!hasRegion) {
+                throw new OfflineDatabaseException("The MBTiles file has no usable bounds: " + file);
+            }
+            success = true;
+            Log.i(TAG, "Imported " + tileCount + " tiles from " + file + " as " + mapID);
+        } catch (SQLException e) {
+            Log.e(TAG, "Error importing " + file, e);
+            throw new OfflineDatabaseException("Error importing MBTiles: " + e.getMessage());
+        } finally {
+            if (!success) {
+                databaseManager.releaseOfflineDatabaseHandlerForMapId(mapID);
+                context.deleteDatabase(databaseName);
+            }
+        }
+
+        final OfflineMapDatabase offlineMapDatabase = new OfflineMapDatabase(context, mapID);
+        if (!offlineMapDatabase.initializeDatabase()) {
+            throw new OfflineDatabaseException("The MBTiles file has no usable bounds: " + file);
+        }
+        return offlineMapDatabase;
+    }
+
+    private static Hashtable<String, String> readMBTilesMetadata(SQLiteDatabase db) {
+        final Hashtable<String, String> metadata = new Hashtable<String, String>();
+        final Cursor cursor = db.rawQuery(QUERY_SOURCE_METADATA, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(0) && !cursor.isNull(1)) {
+                    metadata.put(cursor.getString(0), cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return metadata;
+    }
+
+    private static RasterImageQuality getImageQuality(Hashtable<String, String> metadata) {
+        final String imageQuality = metadata.get("imageQuality");
+        if (imageQuality != null) {
+            try {
+                return RasterImageQuality.getEnumForValue(Integer.parseInt(imageQuality));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring image quality " + imageQuality);
+            }
+        }
+        return "jpg".equals(metadata.get("format")) ? RasterImageQuality.MBXRasterImageQualityJPEG90
+                : RasterImageQuality.MBXRasterImageQualityFull;
+    }
+
+    private static int[] getZoomRange(SQLiteDatabase db, Hashtable<String, String> metadata) {
+        final Cursor cursor = db.rawQuery(QUERY_ZOOM_RANGE, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return new int[] {cursor.getInt(0), cursor.getInt(1)};
+            }
+        } finally {
+            cursor.close();
+        }
+        // No tiles, fall back on what the metadata says
+        return new int[] {parseInt(metadata.get("minzoom"), 0), parseInt(metadata.get("maxzoom"), 0)};
+    }
+
+    /**
+     * Copy the tiles a column at a time and each column a page at a time, committing about every
+     * {@link #IMPORT_BATCH_SIZE} tiles.
+     *
+     * @return the number of tiles copied
+     */
+    private static long copyTiles(SQLiteDatabase db, String mapID, RasterImageQuality imageQuality) {
+        final SQLiteStatement findData = db.compileStatement(FIND_DATA);
+        final SQLiteStatement insertData = db.compileStatement(INSERT_DATA);
+        final SQLiteStatement insertResource = db.compileStatement(INSERT_RESOURCE);
+        final String[] zoomArgs = {"-1"};
+        final String[] columnArgs = new String[2];
+        final String[] tileArgs = new String[3];
+        long tileCount = 0;
+        int batchCount = 0;
+        try {
+            db.beginTransaction();
+            try {
+                long z;
+                while ((z = queryNextKey(db, QUERY_NEXT_ZOOM_LEVEL, zoomArgs)) >= 0) {
+                    zoomArgs[0] = Long.toString(z);
+                    if (z > TileId.MAXIMUM_ZOOM) {
+                        break;
+                    }
+                    columnArgs[0] = zoomArgs[0];
+                    columnArgs[1] = "-1";
+                    long x;
+                    while ((x = queryNextKey(db, QUERY_NEXT_TILE_COLUMN, columnArgs)) >= 0 && x < (1 << z)) {
+                        columnArgs[1] = Long.toString(x);
+                        tileArgs[0] = zoomArgs[0];
+                        tileArgs[1] = columnArgs[1];
+                        tileArgs[2] = "-1";
+                        boolean exhausted = false;
+                        while (!exhausted) {
+                            final Cursor cursor = db.rawQuery(QUERY_TILES, tileArgs);
+                            try {
+                                int pageCount = 0;
+                                while (cursor.moveToNext()) {
+                                    pageCount++;
+                                    final int tmsY = cursor.getInt(0);
+                                    tileArgs[2] = Integer.toString(tmsY);
+
+                                    final byte[] data = cursor.getBlob(1);
+                                    if (data == null || tmsY < 0 || tmsY >= (1 << z)) {
+                                        continue;
+                                    }
+                                    final int y = (1 << z) - 1 - tmsY;
+                                    final long dataId = storeData(findData, insertData, data);
+                                    insertResource.bindString(1, MapboxUtils.getMapTileURL(mapID, (int) z, (int) x, y, imageQuality));
+                                    insertResource.bindLong(2, HttpURLConnection.HTTP_OK);
+                                    insertResource.bindLong(3, dataId);
+                                    insertResource.bindLong(4, OfflineDatabaseHandler.tileIdForTile((int) z, (int) x, y));
+                                    insertResource.executeInsert();
+                                    tileCount++;
+                                }
+                                exhausted = pageCount < IMPORT_PAGE_SIZE;
+                                batchCount += pageCount;
+                            } finally {
+                                cursor.close();
+                            }
+                            if (batchCount >= IMPORT_BATCH_SIZE) {
+                                db.setTransactionSuccessful();
+                                db.endTransaction();
+                                db.beginTransaction();
+                                batchCount = 0;
+                            }
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            findData.close();
+            insertData.close();
+            insertResource.close();
+        }
+        return tileCount;
+    }
+
+    /**
+     * @return the result of a MIN() query, or -1 if there are no rows left
+     */
+    private static long queryNextKey(SQLiteDatabase db, String sql, String[] args) {
+        final Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long storeData(SQLiteStatement findData, SQLiteStatement insertData, byte[] data) {
+        final String hash = OfflineDatabaseHandler.hashForData(data);
+        findData.bindString(1, hash);
+        try {
+            return findData.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No identical data yet
+        }
+        insertData.bindBlob(1, data);
+        insertData.bindString(2, hash);
+        return insertData.executeInsert();
+    }
+
+    /**
+     * Keep the offline metadata of an exported database, and fill in what an offline map
+     * database needs from the MBTiles metadata.
+     *
+     * @return false if the region of the map is unknown
+     */
+    private static boolean putOfflineMetadata(SQLiteDatabase db, String mapID, Hashtable<String, String> metadata,
+            RasterImageQuality imageQuality, int[] zoomRange) {
+        final Hashtable<String, String> values = new Hashtable<String, String>();
+        if (metadata.containsKey("region_latitude")) {
+            for (String name : new String[] {"includesMetadata", "includesMarkers", "region_latitude", "region_longitude",
+                    "region_latitude_delta", "region_longitude_delta", "tileCover"}) {
+                if (metadata.containsKey(name)) {
+                    values.put(name, metadata.get(name));
+                }
+            }
+        } else {
+            final String bounds = metadata.get("bounds");
+            if (!TextUtils.isEmpty(bounds)) {
+                // left,bottom,right,top
+                final String[] boundsArray = bounds.split(",\\s*");
+                if (boundsArray.length == 4) {
+                    try {
+                        final double west = Double.parseDouble(boundsArray[0]);
+                        final double south = Double.parseDouble(boundsArray[1]);
+                        final double east = Double.parseDouble(boundsArray[2]);
+                        final double north = Double.parseDouble(boundsArray[3]);
+                        values.put("region_latitude", String.format(MAPBOX_LOCALE, "%.8f", (north + south) / 2));
+                        values.put("region_longitude", String.format(MAPBOX_LOCALE, "%.8f", (east + west) / 2));
+                        values.put("region_latitude_delta", String.format(MAPBOX_LOCALE, "%.8f", north - south));
+                        values.put("region_longitude_delta", String.format(MAPBOX_LOCALE, "%.8f", east - west));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "Ignoring bounds " + bounds);
+                    }
+                }
+            }
+        }
+        values.put("uniqueID", UUID.randomUUID().toString());
+        values.put("mapID", mapID);
+        if (!values.containsKey("includesMetadata")) {
+            values.put("includesMetadata", "NO");
+        }
+        if (!values.containsKey("includesMarkers")) {
+            values.put("includesMarkers", "NO");
+        }
+        values.put("imageQuality", Integer.toString(imageQuality.getValue()));
+        values.put("minimumZ", Integer.toString(zoomRange[0]));
+        values.put("maximumZ", Integer.toString(zoomRange[1]));
+
+        final SQLiteStatement insert = db.compileStatement(INSERT_OFFLINE_METADATA);
+        try {
+            for (String name : values.keySet()) {
+                insertMetadata(insert, name, values.get(name));
+            }
+        } finally {
+            insert.close();
+        }
+        return values.containsKey("region_latitude");
+    }
+
+    private static long queryForLong(SQLiteDatabase db, String sql) {
+        final SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
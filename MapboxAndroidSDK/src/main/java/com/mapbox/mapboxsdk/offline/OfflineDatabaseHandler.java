@@ -1,10 +1,18 @@
 package com.mapbox.mapboxsdk.offline;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class OfflineDatabaseHandler extends SQLiteOpenHelper {
     private static OfflineDatabaseHandler offlineDatabaseHandler;
@@ -13,7 +21,7 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
 
     // All Static variables
     // Database Version
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 5;
 
     // Table name(s)
     public static final String TABLE_METADATA = "metadata";
@@ -26,10 +34,27 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
 
     public static final String FIELD_DATA_ID = "id";
     public static final String FIELD_DATA_VALUE = "value";
+    public static final String FIELD_DATA_HASH = "hash";
 
     public static final String FIELD_RESOURCES_ID = "id";
     public static final String FIELD_RESOURCES_URL = "url";
     public static final String FIELD_RESOURCES_STATUS = "status";
+    public static final String FIELD_RESOURCES_ATTEMPTS = "attempts";
+    public static final String FIELD_RESOURCES_LAST_ERROR = "last_error";
+    public static final String FIELD_RESOURCES_TILE_ID = "tile_id";
+    public static final String FIELD_RESOURCES_ETAG = "etag";
+    public static final String FIELD_RESOURCES_LAST_MODIFIED = "last_modified";
+
+    public static final String INDEX_RESOURCES_TILE_ID = "resources_tile_id";
+    public static final String INDEX_DATA_HASH = "data_hash";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Context context;
+    private final String dbName;
+
+    // The z/x/y at the end of a tile URL, see MapboxUtils.getMapTileURL()
+    private static final Pattern TILE_URL = Pattern.compile("/(\\d+)/(\\d+)/(\\d+)(?:@2x)?\\.\\w+$");
 
     /**
      * Constructor
@@ -38,6 +63,15 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
      */
     public OfflineDatabaseHandler(Context context, String dbName) {
         super(context, dbName, null, DATABASE_VERSION);
+        this.context = context;
+        this.dbName = dbName;
+    }
+
+    /**
+     * @return the file of the database, found without opening it
+     */
+    public File getDatabaseFile() {
+        return context.getDatabasePath(dbName);
     }
 
     @Override
@@ -45,8 +79,10 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
         Log.i(TAG, "onCreate() called... Setting up application's database.");
         // Create The table(s)
         String metadata = "CREATE TABLE " + TABLE_METADATA + " (" + FIELD_METADATA_NAME + " TEXT UNIQUE, " + FIELD_METADATA_VALUE + " TEXT);";
-        String data = "CREATE TABLE " + TABLE_DATA + " (" + FIELD_DATA_ID + " INTEGER PRIMARY KEY, " + FIELD_DATA_VALUE + " BLOB);";
-        String resources = "CREATE TABLE " + TABLE_RESOURCES + " (" + FIELD_RESOURCES_URL + " TEXT UNIQUE, " + FIELD_RESOURCES_STATUS + " TEXT, " + FIELD_RESOURCES_ID + " INTEGER REFERENCES data);";
+        String data = "CREATE TABLE " + TABLE_DATA + " (" + FIELD_DATA_ID + " INTEGER PRIMARY KEY, " + FIELD_DATA_VALUE + " BLOB, " + FIELD_DATA_HASH + " TEXT);";
+        String dataIndex = "CREATE INDEX " + INDEX_DATA_HASH + " ON " + TABLE_DATA + " (" + FIELD_DATA_HASH + ");";
+        String resources = "CREATE TABLE " + TABLE_RESOURCES + " (" + FIELD_RESOURCES_URL + " TEXT UNIQUE, " + FIELD_RESOURCES_STATUS + " TEXT, " + FIELD_RESOURCES_ID + " INTEGER REFERENCES data, " + FIELD_RESOURCES_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, " + FIELD_RESOURCES_LAST_ERROR + " TEXT, " + FIELD_RESOURCES_TILE_ID + " INTEGER, " + FIELD_RESOURCES_ETAG + " TEXT, " + FIELD_RESOURCES_LAST_MODIFIED + " TEXT);";
+        String resourcesIndex = "CREATE INDEX " + INDEX_RESOURCES_TILE_ID + " ON " + TABLE_RESOURCES + " (" + FIELD_RESOURCES_TILE_ID + ");";
 
         db.execSQL("PRAGMA foreign_keys=ON;");
         db.beginTransaction();
@@ -54,7 +90,9 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
         try {
             db.execSQL(metadata);
             db.execSQL(data);
+            db.execSQL(dataIndex);
             db.execSQL(resources);
+            db.execSQL(resourcesIndex);
             db.setTransactionSuccessful();
         } catch (SQLException e) {
             Log.e(TAG, "Error creating database: " + e.toString());
@@ -66,10 +104,108 @@ public class OfflineDatabaseHandler extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion >= 1 && oldVersion <= 4) {
+            // Versions 2 to 5 only add columns and indexes, keep the data
+            Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+            if (oldVersion < 2) {
+                db.execSQL("ALTER TABLE " + TABLE_RESOURCES + " ADD COLUMN " + FIELD_RESOURCES_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0;");
+                db.execSQL("ALTER TABLE " + TABLE_RESOURCES + " ADD COLUMN " + FIELD_RESOURCES_LAST_ERROR + " TEXT;");
+            }
+            if (oldVersion < 3) {
+                db.execSQL("ALTER TABLE " + TABLE_RESOURCES + " ADD COLUMN " + FIELD_RESOURCES_TILE_ID + " INTEGER;");
+                updateTileIds(db);
+                db.execSQL("CREATE INDEX " + INDEX_RESOURCES_TILE_ID + " ON " + TABLE_RESOURCES + " (" + FIELD_RESOURCES_TILE_ID + ");");
+            }
+            if (oldVersion < 4) {
+                // Data stored before has no hash and is simply not shared
+                db.execSQL("ALTER TABLE " + TABLE_DATA + " ADD COLUMN " + FIELD_DATA_HASH + " TEXT;");
+                db.execSQL("CREATE INDEX " + INDEX_DATA_HASH + " ON " + TABLE_DATA + " (" + FIELD_DATA_HASH + ");");
+            }
+            // Resources downloaded before have no validators and are fetched in full on update
+            db.execSQL("ALTER TABLE " + TABLE_RESOURCES + " ADD COLUMN " + FIELD_RESOURCES_ETAG + " TEXT;");
+            db.execSQL("ALTER TABLE " + TABLE_RESOURCES + " ADD COLUMN " + FIELD_RESOURCES_LAST_MODIFIED + " TEXT;");
+            return;
+        }
         Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
         db.execSQL("drop table if exists " + TABLE_METADATA);
         db.execSQL("drop table if exists " + TABLE_DATA);
         db.execSQL("drop table if exists " + TABLE_RESOURCES);
         onCreate(db);
     }
+
+    /**
+     * Fill in the tile id of every tile resource, for databases created before the column existed.
+     */
+    private static void updateTileIds(SQLiteDatabase db) {
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_RESOURCES + " SET " + FIELD_RESOURCES_TILE_ID + " = ? WHERE rowid = ?;");
+        Cursor cursor = db.rawQuery("SELECT rowid, " + FIELD_RESOURCES_URL + " FROM " + TABLE_RESOURCES + ";", null);
+        try {
+            while (cursor.moveToNext()) {
+                long tileId = tileIdForURL(cursor.getString(1));
+                if (tileId >= 0) {
+                    update.bindLong(1, tileId);
+                    update.bindLong(2, cursor.getLong(0));
+                    update.execute();
+                }
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Key offline tiles by their position instead of their URL, so a look-up doesn't depend on
+     * how the URL was built.
+     *
+     * @return the {@link TileId} of the tile, with layer 0
+     */
+    public static long tileIdForTile(int z, int x, int y) {
+        return TileId.pack(0, z, x, y);
+    }
+
+    /**
+     * @return the tile id of a tile URL, or -1 if the URL is not one of a map tile
+     */
+    public static long tileIdForURL(String url) {
+        if (url == null) {
+            return -1;
+        }
+        Matcher matcher = TILE_URL.matcher(url);
+        if (!matcher.find()) {
+            return -1;
+        }
+        try {
+            int z = Integer.parseInt(matcher.group(1));
+            int x = Integer.parseInt(matcher.group(2));
+            int y = Integer.parseInt(matcher.group(3));
+            if (z > TileId.MAXIMUM_ZOOM || x >= (1 << z) || y >= (1 << z)) {
+                return -1;
+            }
+            return tileIdForTile(z, x, y);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Byte-identical resources, such as the tiles of open water, share a single data row found
+     * by this hash.
+     *
+     * @return the SHA-1 of the data as a hex string
+     */
+    public static String hashForData(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
 }
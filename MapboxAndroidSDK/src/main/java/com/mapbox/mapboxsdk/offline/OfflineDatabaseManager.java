@@ -61,8 +61,28 @@ public class OfflineDatabaseManager {
         }
 
         OfflineDatabaseHandler dbh = new OfflineDatabaseHandler(context, key);
-        databaseHandlers.remove(key);
+        OfflineDatabaseHandler previous = databaseHandlers.remove(key);
+        if (previous != null) {
+            previous.close();
+        }
         databaseHandlers.put(key, dbh);
         return true;
     }
+
+    /**
+     * Close the database of a map and forget its handler. The handler owns the only shared
+     * connection to the database, so this is the one place it gets closed, once no download,
+     * update or import uses it anymore.
+     *
+     * @param mapId the map id
+     */
+    public void releaseOfflineDatabaseHandlerForMapId(String mapId) {
+        if (TextUtils.isEmpty(mapId)) {
+            return;
+        }
+        OfflineDatabaseHandler dbh = databaseHandlers.remove(mapId.toLowerCase());
+        if (dbh != null) {
+            dbh.close();
+        }
+    }
 }
@@ -0,0 +1,351 @@
+package com.mapbox.mapboxsdk.offline;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.util.Log;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes downloaded offline map resources to the partial database from a single thread. The
+ * connection and statements stay open for the whole job. Resources are committed in batches
+ * of {@link #BATCH_SIZE} or whatever arrived within {@link #BATCH_INTERVAL_MS}, whichever
+ * comes first, instead of one transaction per resource.
+ * <p/>
+ * The queue is bounded, so fetch threads block when they get ahead of the database. Once the
+ * writer has stopped, because of an error or an abort, resources given to it are dropped
+ * instead of blocking, and {@link #isStopped()} tells fetch threads to give up.
+ * <p/>
+ * Failed downloads go through the writer too, so that the attempt count and last error of a
+ * resource are committed along with the rest and survive the process.
+ * <p/>
+ * Data is stored once per distinct content: a resource whose bytes hash the same as data
+ * already in the database points at the existing row instead of adding a copy.
+ */
+class OfflineDownloadWriter implements Runnable {
+
+    private static final String TAG = "OfflineDownloadWriter";
+
+    static final int BATCH_SIZE = 100;
+    static final long BATCH_INTERVAL_MS = 500;
+    private static final int QUEUE_CAPACITY = 2 * BATCH_SIZE;
+    // How often a thread blocked on a full queue checks that the writer is still running
+    private static final long QUEUE_OFFER_TIMEOUT_MS = 250;
+
+    private static final String FIND_DATA = "SELECT " + OfflineDatabaseHandler.FIELD_DATA_ID
+            + " FROM " + OfflineDatabaseHandler.TABLE_DATA + " WHERE "
+            + OfflineDatabaseHandler.FIELD_DATA_HASH + " = ? LIMIT 1;";
+    private static final String INSERT_DATA = "INSERT INTO " + OfflineDatabaseHandler.TABLE_DATA
+            + " (" + OfflineDatabaseHandler.FIELD_DATA_VALUE + ", "
+            + OfflineDatabaseHandler.FIELD_DATA_HASH + ") VALUES (?, ?);";
+    private static final String UPDATE_RESOURCE = "UPDATE " + OfflineDatabaseHandler.TABLE_RESOURCES
+            + " SET " + OfflineDatabaseHandler.FIELD_RESOURCES_STATUS + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ATTEMPTS + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ETAG + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_LAST_MODIFIED + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_LAST_ERROR + " = NULL WHERE "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_URL + " = ?;";
+    private static final String UPDATE_FAILED_RESOURCE = "UPDATE " + OfflineDatabaseHandler.TABLE_RESOURCES
+            + " SET " + OfflineDatabaseHandler.FIELD_RESOURCES_STATUS + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ATTEMPTS + " = ?, "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_LAST_ERROR + " = ? WHERE "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_URL + " = ?;";
+
+    // Marks the end of the job in the queue
+    private static final Resource END = new Resource(null, null, null, null, null, 0, 0, null);
+
+    /**
+     * Called from the writer thread.
+     */
+    interface Callback {
+        /**
+         * @param count the number of resources committed with a final status, either downloaded
+         * or failed for good
+         */
+        void onResourcesWritten(int count);
+
+        void onWriteError(Throwable error);
+
+        /**
+         * The writer has committed everything it was given. The database stays open, it
+         * belongs to the {@link OfflineDatabaseHandler}.
+         */
+        void onWriterFinished();
+    }
+
+    private final OfflineDatabaseHandler mDatabaseHandler;
+    private final Callback mCallback;
+    private final BlockingQueue<Resource> mQueue = new ArrayBlockingQueue<Resource>(QUEUE_CAPACITY);
+    private final ArrayList<Resource> mBatch = new ArrayList<Resource>(BATCH_SIZE);
+    private volatile boolean mAborted = false;
+    private volatile boolean mStopped = false;
+    private Thread mThread;
+
+    // Written by the writer thread only
+    private int mSharedCount = 0;
+    private long mSharedBytes = 0;
+
+    OfflineDownloadWriter(final OfflineDatabaseHandler databaseHandler, final Callback callback) {
+        mDatabaseHandler = databaseHandler;
+        mCallback = callback;
+    }
+
+    synchronized void start() {
+        if (mThread == null) {
+            mThread = new Thread(this, TAG);
+            mThread.start();
+        }
+    }
+
+    /**
+     * @return true once the writer thread has exited or was aborted, after which nothing else
+     * will be written
+     */
+    boolean isStopped() {
+        return mStopped || mAborted;
+    }
+
+    /**
+     * @return the number of resources queued and not taken by the writer thread yet
+     */
+    int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * Queue a downloaded resource, blocking while the queue is full. The data is hashed on the
+     * calling thread.
+     */
+    void write(final String url, final OfflineResourceResponse response, final int attempts)
+            throws InterruptedException {
+        enqueue(new Resource(url, response.data, OfflineDatabaseHandler.hashForData(response.data),
+                response.etag, response.lastModified, HttpURLConnection.HTTP_OK, attempts, null));
+    }
+
+    /**
+     * Queue a failed download, blocking while the queue is full.
+     *
+     * @param status the final status of the resource, or 0 if it should be tried again later
+     * @param attempts the total number of attempts made for the resource
+     * @param error a description of the last error
+     */
+    void writeFailure(final String url, final int status, final int attempts, final String error)
+            throws InterruptedException {
+        enqueue(new Resource(url, null, null, null, null, status, attempts, error));
+    }
+
+    /**
+     * Commit what is queued and finish. Call once all fetches are done.
+     */
+    void finish() throws InterruptedException {
+        enqueue(END);
+    }
+
+    /**
+     * Queue a resource, blocking while the queue is full and the writer is still running.
+     */
+    private void enqueue(final Resource resource) throws InterruptedException {
+        while (!isStopped()) {
+            if (mQueue.offer(resource, QUEUE_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+        Log.d(TAG, "Writer stopped, dropping " + (resource == END ? "end of job" : resource.mUrl));
+    }
+
+    /**
+     * Stop without committing what is still queued.
+     */
+    synchronized void abort() {
+        mAborted = true;
+        mQueue.clear();
+        if (mThread != null) {
+            mThread.interrupt();
+        }
+    }
+
+    /**
+     * Wait for the writer thread to commit and exit.
+     */
+    void join() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        SQLiteDatabase db = null;
+        SQLiteStatement findData = null;
+        SQLiteStatement insertData = null;
+        SQLiteStatement updateResource = null;
+        SQLiteStatement updateFailedResource = null;
+        try {
+            db = mDatabaseHandler.getWritableDatabase();
+            findData = db.compileStatement(FIND_DATA);
+            insertData = db.compileStatement(INSERT_DATA);
+            updateResource = db.compileStatement(UPDATE_RESOURCE);
+            updateFailedResource = db.compileStatement(UPDATE_FAILED_RESOURCE);
+
+            boolean done = false;
+            long batchStart = 0;
+            while (!done && !mAborted) {
+                final Resource resource;
+                if (mBatch.isEmpty()) {
+                    resource = mQueue.take();
+                    batchStart = System.currentTimeMillis();
+                } else {
+                    final long wait = batchStart + BATCH_INTERVAL_MS - System.currentTimeMillis();
+                    resource = wait > 0 ? mQueue.poll(wait, TimeUnit.MILLISECONDS) : mQueue.poll();
+                }
+
+                if (resource == END) {
+                    done = true;
+                } else if (resource != null) {
+                    mBatch.add(resource);
+                }
+
+                if (!mBatch.isEmpty() && (done || mBatch.size() >= BATCH_SIZE
+                        || System.currentTimeMillis() - batchStart >= BATCH_INTERVAL_MS)) {
+                    commit(db, findData, insertData, updateResource, updateFailedResource);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Interrupted, " + mBatch.size() + " resources not written");
+        } catch (SQLException e) {
+            Log.e(TAG, "Error writing resources", e);
+            mStopped = true;
+            mCallback.onWriteError(e);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unexpected error writing resources", e);
+            mStopped = true;
+            mCallback.onWriteError(e);
+        } finally {
+            mStopped = true;
+            if (findData != null) {
+                findData.close();
+            }
+            if (insertData != null) {
+                insertData.close();
+            }
+            if (updateResource != null) {
+                updateResource.close();
+            }
+            if (updateFailedResource != null) {
+                updateFailedResource.close();
+            }
+            mBatch.clear();
+        }
+
+        if (mSharedCount > 0) {
+            Log.i(TAG, mSharedCount + " resources share existing data, " + mSharedBytes + " bytes not stored");
+        }
+        if (!mAborted) {
+            mCallback.onWriterFinished();
+        }
+    }
+
+    private void commit(final SQLiteDatabase db, final SQLiteStatement findData,
+            final SQLiteStatement insertData, final SQLiteStatement updateResource,
+            final SQLiteStatement updateFailedResource) {
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (final Resource resource : mBatch) {
+                if (resource.mData != null) {
+                    final long id = storeData(findData, insertData, resource);
+                    updateResource.bindLong(1, resource.mStatus);
+                    updateResource.bindLong(2, id);
+                    updateResource.bindLong(3, resource.mAttempts);
+                    bindStringOrNull(updateResource, 4, resource.mEtag);
+                    bindStringOrNull(updateResource, 5, resource.mLastModified);
+                    updateResource.bindString(6, resource.mUrl);
+                    updateResource.execute();
+                } else {
+                    if (resource.mStatus != 0) {
+                        updateFailedResource.bindLong(1, resource.mStatus);
+                    } else {
+                        updateFailedResource.bindNull(1);
+                    }
+                    updateFailedResource.bindLong(2, resource.mAttempts);
+                    bindStringOrNull(updateFailedResource, 3, resource.mError);
+                    updateFailedResource.bindString(4, resource.mUrl);
+                    updateFailedResource.execute();
+                }
+                if (resource.mStatus != 0) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mBatch.clear();
+        if (count > 0) {
+            mCallback.onResourcesWritten(count);
+        }
+    }
+
+    private static void bindStringOrNull(final SQLiteStatement statement, final int index, final String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * @return the id of the data row holding the resource's content, reusing an identical one
+     */
+    private long storeData(final SQLiteStatement findData, final SQLiteStatement insertData,
+            final Resource resource) {
+        findData.bindString(1, resource.mHash);
+        try {
+            final long id = findData.simpleQueryForLong();
+            mSharedCount++;
+            mSharedBytes += resource.mData.length;
+            return id;
+        } catch (SQLiteDoneException e) {
+            // No identical data yet
+        }
+        insertData.bindBlob(1, resource.mData);
+        insertData.bindString(2, resource.mHash);
+        return insertData.executeInsert();
+    }
+
+    private static final class Resource {
+        final String mUrl;
+        final byte[] mData;
+        final String mHash;
+        final String mEtag;
+        final String mLastModified;
+        final int mStatus;
+        final int mAttempts;
+        final String mError;
+
+        Resource(final String url, final byte[] data, final String hash, final String etag,
+                final String lastModified, final int status, final int attempts, final String error) {
+            mUrl = url;
+            mData = data;
+            mHash = hash;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mStatus = status;
+            mAttempts = attempts;
+            mError = error;
+        }
+    }
+}
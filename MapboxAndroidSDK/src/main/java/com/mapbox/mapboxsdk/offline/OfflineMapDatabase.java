@@ -2,7 +2,11 @@ package com.mapbox.mapboxsdk.offline;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.Log;
 import com.mapbox.mapboxsdk.constants.MapboxConstants;
@@ -16,6 +20,24 @@ public class OfflineMapDatabase implements MapboxConstants {
 
     private static final String TAG = "OfflineMapDatabase";
 
+    private static final String QUERY_METADATA = "SELECT " + OfflineDatabaseHandler.FIELD_METADATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_METADATA
+            + " WHERE " + OfflineDatabaseHandler.FIELD_METADATA_NAME + " = ?;";
+    private static final String QUERY_DATA_FOR_URL = "SELECT d." + OfflineDatabaseHandler.FIELD_DATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_DATA + " d, "
+            + OfflineDatabaseHandler.TABLE_RESOURCES + " r WHERE d." + OfflineDatabaseHandler.FIELD_DATA_ID + " = r." + OfflineDatabaseHandler.FIELD_RESOURCES_ID
+            + " AND r." + OfflineDatabaseHandler.FIELD_RESOURCES_URL + " = ?;";
+    private static final String QUERY_DATA_FOR_TILE_ID = "SELECT d." + OfflineDatabaseHandler.FIELD_DATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_DATA + " d, "
+            + OfflineDatabaseHandler.TABLE_RESOURCES + " r WHERE d." + OfflineDatabaseHandler.FIELD_DATA_ID + " = r." + OfflineDatabaseHandler.FIELD_RESOURCES_ID
+            + " AND r." + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " = ?;";
+    private static final String QUERY_DATA_ID_FOR_TILE_ID = "SELECT " + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " FROM " + OfflineDatabaseHandler.TABLE_RESOURCES
+            + " WHERE " + OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID + " = ? AND " + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " IS NOT NULL LIMIT 1;";
+    private static final String QUERY_DATA_FOR_ID = "SELECT " + OfflineDatabaseHandler.FIELD_DATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_DATA
+            + " WHERE " + OfflineDatabaseHandler.FIELD_DATA_ID + " = ?;";
+    private static final String QUERY_SHARED_RESOURCE_COUNT = "SELECT COUNT(" + OfflineDatabaseHandler.FIELD_RESOURCES_ID + ") - COUNT(DISTINCT "
+            + OfflineDatabaseHandler.FIELD_RESOURCES_ID + ") FROM " + OfflineDatabaseHandler.TABLE_RESOURCES + ";";
+    private static final String QUERY_DEDUPLICATED_BYTES = "SELECT IFNULL(SUM(LENGTH(d." + OfflineDatabaseHandler.FIELD_DATA_VALUE + ")), 0) - (SELECT IFNULL(SUM(LENGTH("
+            + OfflineDatabaseHandler.FIELD_DATA_VALUE + ")), 0) FROM " + OfflineDatabaseHandler.TABLE_DATA + ") FROM " + OfflineDatabaseHandler.TABLE_DATA + " d, "
+            + OfflineDatabaseHandler.TABLE_RESOURCES + " r WHERE d." + OfflineDatabaseHandler.FIELD_DATA_ID + " = r." + OfflineDatabaseHandler.FIELD_RESOURCES_ID + ";";
+
     private Context context;
 
     private String uniqueID;
@@ -30,6 +52,10 @@ public class OfflineMapDatabase implements MapboxConstants {
     private boolean invalid;
     private boolean initializedProperly = false;
 
+    // Opened on first use and kept open until close()
+    private SQLiteDatabase database;
+    private SQLiteStatement dataIdForTileIdStatement;
+
     /**
      * Default Constructor
      *
@@ -67,6 +93,26 @@ public class OfflineMapDatabase implements MapboxConstants {
         return imageQuality;
     }
 
+    public boolean includesMetadata() {
+        return includesMetadata;
+    }
+
+    public boolean includesMarkers() {
+        return includesMarkers;
+    }
+
+    public CoordinateRegion getMapRegion() {
+        return mapRegion;
+    }
+
+    public Integer getMinimumZ() {
+        return minimumZ;
+    }
+
+    public Integer getMaximumZ() {
+        return maximumZ;
+    }
+
     public boolean initializeDatabase() {
 
         String uniqueID = sqliteMetadataForName("uniqueID");
@@ -107,9 +153,7 @@ public class OfflineMapDatabase implements MapboxConstants {
             this.minimumZ = Integer.parseInt(minimumZ);
             this.maximumZ = Integer.parseInt(maximumZ);
 
-            SQLiteDatabase db = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID).getReadableDatabase();
-            this.path = db.getPath();
-            db.close();
+            this.path = getDatabase().getPath();
 
             this.initializedProperly = true;
         } else {
@@ -134,37 +178,172 @@ public class OfflineMapDatabase implements MapboxConstants {
         this.invalid = false;
     }
 
-    public String sqliteMetadataForName(String name) {
+    /**
+     * Look up the image of a tile by its position, through the tile id index instead of its URL.
+     *
+     * @return the tile image, or null if the database doesn't have it
+     */
+    public byte[] dataForTile(int z, int x, int y) {
+        return sqliteDataForTileId(OfflineDatabaseHandler.tileIdForTile(z, x, y));
+    }
+
+    /**
+     * Identical tiles share one data row, so tiles with the same data id can share one decoded
+     * bitmap too.
+     *
+     * @return the id of the data of a tile, or -1 if the database doesn't have it
+     * @throws SQLException if the database couldn't be queried, so callers don't mistake a
+     * transient failure for a missing tile
+     */
+    public synchronized long dataIdForTile(int z, int x, int y) {
+        if (mapID == null) {
+            return -1;
+        }
+        try {
+            if (dataIdForTileIdStatement == null) {
+                dataIdForTileIdStatement = getDatabase().compileStatement(QUERY_DATA_ID_FOR_TILE_ID);
+            }
+            dataIdForTileIdStatement.bindLong(1, OfflineDatabaseHandler.tileIdForTile(z, x, y));
+            return dataIdForTileIdStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the data with the given id, see {@link #dataIdForTile(int, int, int)}
+     */
+    public byte[] dataForId(long dataId) {
         if (mapID == null) {
             return null;
         }
+        return queryForBlob(QUERY_DATA_FOR_ID, Long.toString(dataId));
+    }
+
+    /**
+     * @return the number of resources that share their data with another resource instead of
+     * storing a copy
+     */
+    public long getSharedResourceCount() {
+        return queryForLong(QUERY_SHARED_RESOURCE_COUNT);
+    }
+
+    /**
+     * @return the number of bytes saved by storing identical resources only once
+     */
+    public long getDeduplicatedBytes() {
+        return queryForLong(QUERY_DEDUPLICATED_BYTES);
+    }
+
+    /**
+     * Close the read connection. It is opened again if the database is used afterwards.
+     */
+    public synchronized void close() {
+        if (dataIdForTileIdStatement != null) {
+            dataIdForTileIdStatement.close();
+            dataIdForTileIdStatement = null;
+        }
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+
+    /**
+     * The read connection is separate from the one of the {@link OfflineDatabaseHandler}, which
+     * the downloader closes when it is done with it. On API 11 and up it uses write-ahead
+     * logging, so reads don't wait for a writer.
+     */
+    private synchronized SQLiteDatabase getDatabase() {
+        if (database == null || !database.isOpen()) {
+            dataIdForTileIdStatement = null;
+            // The handler's own connection is shared with the writers, so it is neither used
+            // nor closed here
+            OfflineDatabaseHandler handler = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID);
+            String databasePath = handler.getDatabaseFile().getPath();
+
+            database = SQLiteDatabase.openDatabase(databasePath, null, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY);
+            if (database.getVersion() != OfflineDatabaseHandler.DATABASE_VERSION) {
+                // Let the handler create or upgrade the schema first
+                database.close();
+                handler.getWritableDatabase();
+                database = SQLiteDatabase.openDatabase(databasePath, null, SQLiteDatabase.OPEN_READWRITE);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                database.enableWriteAheadLogging();
+            }
+        }
+        return database;
+    }
 
-        String query = "SELECT " + OfflineDatabaseHandler.FIELD_METADATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_METADATA + " WHERE " + OfflineDatabaseHandler.FIELD_METADATA_NAME + "='" + name + "';";
-        SQLiteDatabase db = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID).getReadableDatabase();
-        Cursor cursor = db.rawQuery(query, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            String res = cursor.getString(cursor.getColumnIndex(OfflineDatabaseHandler.FIELD_METADATA_VALUE));
-            cursor.close();
-            db.close();
-            return res;
+    public String sqliteMetadataForName(String name) {
+        if (mapID == null) {
+            return null;
         }
-        return null;
+        return queryForString(QUERY_METADATA, name);
     }
 
     public byte[] sqliteDataForURL(String url) {
         if (mapID == null) {
             return null;
         }
-        SQLiteDatabase db = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID).getReadableDatabase();
-        String query = "SELECT " + OfflineDatabaseHandler.FIELD_DATA_VALUE + " FROM " + OfflineDatabaseHandler.TABLE_DATA + " WHERE " + OfflineDatabaseHandler.FIELD_DATA_ID + "= (SELECT " + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " from " + OfflineDatabaseHandler.TABLE_RESOURCES + " where " + OfflineDatabaseHandler.FIELD_RESOURCES_URL + " = '" + url + "');";
-        Cursor cursor = db.rawQuery(query, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            byte[] blob = cursor.getBlob(cursor.getColumnIndex(OfflineDatabaseHandler.FIELD_DATA_VALUE));
-            cursor.close();
-            db.close();
-            return blob;
-        }
-        db.close();
-        return null;
+        return queryForBlob(QUERY_DATA_FOR_URL, url);
+    }
+
+    public byte[] sqliteDataForTileId(long tileId) {
+        if (mapID == null) {
+            return null;
+        }
+        return queryForBlob(QUERY_DATA_FOR_TILE_ID, Long.toString(tileId));
+    }
+
+    // The SQL is constant, so the connection reuses the compiled statement and only binds the
+    // argument. SQLiteStatement can't return a blob before API 11, hence the cursor.
+    private String queryForString(String sql, String arg) {
+        Cursor cursor = null;
+        try {
+            cursor = getDatabase().rawQuery(sql, new String[] {arg});
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error querying offline map database", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private long queryForLong(String sql) {
+        if (mapID == null) {
+            return 0;
+        }
+        SQLiteStatement statement = null;
+        try {
+            statement = getDatabase().compileStatement(sql);
+            return statement.simpleQueryForLong();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error querying offline map database", e);
+            return 0;
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private byte[] queryForBlob(String sql, String arg) {
+        Cursor cursor = null;
+        try {
+            cursor = getDatabase().rawQuery(sql, new String[] {arg});
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error querying offline map database", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 }
@@ -5,12 +5,16 @@ import android.content.Context;
 import android.content.ContextWrapper;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import com.mapbox.mapboxsdk.constants.MapboxConstants;
-import com.mapbox.mapboxsdk.constants.MathConstants;
+import com.mapbox.mapboxsdk.exceptions.OfflineDatabaseException;
 import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+import com.mapbox.mapboxsdk.tileprovider.TileCover;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
 import com.mapbox.mapboxsdk.util.AppUtils;
 import com.mapbox.mapboxsdk.util.DataLoadingUtils;
 import com.mapbox.mapboxsdk.util.MapboxUtils;
@@ -19,26 +23,30 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OfflineMapDownloader implements MapboxConstants {
 
     private static final String TAG = "OfflineMapDownloader";
 
+    private static final String PARTIAL_SUFFIX = "-PARTIAL";
+
     private static OfflineMapDownloader offlineMapDownloader;
 
     private ArrayList<OfflineMapDownloaderListener> listeners;
@@ -75,9 +83,43 @@ public class OfflineMapDownloader implements MapboxConstants {
     private CoordinateRegion mapRegion;
     private int minimumZ;
     private int maximumZ;
-    private MBXOfflineMapDownloaderState state;
-    private int totalFilesWritten;
-    private int totalFilesExpectedToWrite;
+    private volatile MBXOfflineMapDownloaderState state;
+    private volatile int totalFilesWritten;
+    private volatile int totalFilesExpectedToWrite;
+    private long lastProgressNotification;
+
+    /**
+     * Number of threads fetching resources of a download job
+     */
+    private static final int DOWNLOAD_THREAD_COUNT = 4;
+
+    /**
+     * Minimum time between two progress notifications
+     */
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    /**
+     * Number of pending resources read from the database at a time
+     */
+    private static final int PENDING_PAGE_SIZE = 500;
+
+    /**
+     * Attempts per resource before a download pass gives up on it
+     */
+    private static final int MAX_ATTEMPTS_PER_PASS = 5;
+    static final long RETRY_INITIAL_DELAY_MS = 1000;
+    static final long RETRY_MAXIMUM_DELAY_MS = 60000;
+
+    private static final String INSERT_TILE_RESOURCE = String.format("INSERT OR IGNORE INTO %s (%s, %s) VALUES (?, ?);",
+            OfflineDatabaseHandler.TABLE_RESOURCES, OfflineDatabaseHandler.FIELD_RESOURCES_URL, OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID);
+
+    private volatile ExecutorService fetchPool;
+    private volatile OfflineDownloadWriter downloadWriter;
+    // Set when the writer of the current pass fails, which ends the pass
+    private volatile Throwable downloadWriteError;
+
+    // Learns tile sizes and throughput from the downloads
+    private final OfflineRegionEstimator regionEstimator = new OfflineRegionEstimator();
 
 
     private ArrayList<OfflineMapDatabase> mutableOfflineMapDatabases;
@@ -104,8 +146,15 @@ public class OfflineMapDownloader implements MapboxConstants {
         mutableOfflineMapDatabases = new ArrayList<OfflineMapDatabase>();
         // Load OfflineMapDatabases from File System
         ContextWrapper cw = new ContextWrapper(context);
+        String partialDatabase = null;
         for (String s : cw.databaseList()) {
-            if (!s.toLowerCase().contains("partial") && !s.toLowerCase().contains("journal")) {
+            if (s.endsWith(PARTIAL_SUFFIX)) {
+                if (partialDatabase == null) {
+                    partialDatabase = s;
+                } else {
+                    Log.w(TAG, "Ignoring additional partial offline database " + s);
+                }
+            } else if (!s.toLowerCase().contains("partial") && !s.toLowerCase().contains("journal")) {
                 // Setup Database Handler
                 OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(s, true);
 
@@ -117,6 +166,39 @@ public class OfflineMapDownloader implements MapboxConstants {
         }
 
         this.state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable;
+
+        if (partialDatabase != null) {
+            restorePartialDownload(partialDatabase);
+        }
+    }
+
+    /**
+     * Pick up a download job left behind by a previous process. Its progress is all in the
+     * partial database, so the job is restored as suspended and {@link #resume()} carries on
+     * with the resources that aren't written yet.
+     *
+     * @param databaseName the name of the partial database
+     */
+    private void restorePartialDownload(String databaseName) {
+        String mapId = databaseName.substring(0, databaseName.length() - PARTIAL_SUFFIX.length());
+        OfflineMapDatabase partial = new OfflineMapDatabase(context, mapId);
+        if (!partial.initializeDatabase()) {
+            // The job died before its database was populated, there is nothing to resume
+            Log.w(TAG, "Partial offline database " + databaseName + " can't be resumed");
+            return;
+        }
+
+        this.uniqueID = partial.getUniqueID();
+        this.mapID = partial.getMapID();
+        this.includesMetadata = partial.includesMetadata();
+        this.includesMarkers = partial.includesMarkers();
+        this.imageQuality = partial.getImageQuality();
+        this.mapRegion = partial.getMapRegion();
+        this.minimumZ = partial.getMinimumZ();
+        this.maximumZ = partial.getMaximumZ();
+        sqliteQueryWrittenAndExpectedCountsWithError();
+        this.state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateSuspended;
+        Log.i(TAG, String.format("Restored download of %s with %d of %d files written", this.mapID, this.totalFilesWritten, this.totalFilesExpectedToWrite));
     }
 
     public static OfflineMapDownloader getOfflineMapDownloader(Context context) {
@@ -190,21 +272,22 @@ public class OfflineMapDownloader implements MapboxConstants {
             return null;
         }
 */
-        // Rename database file (remove -PARTIAL) and update path in db object, update path in OfflineMapDatabase, create new Handler
-        SQLiteDatabase db = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID).getReadableDatabase();
-        String dbPath = db.getPath();
-        db.close();
+        // Rename database file (remove -PARTIAL) and update path in db object, update path in OfflineMapDatabase, create new Handler.
+        // The partial database is done with, so its handler closes it before the file is renamed.
+        OfflineDatabaseManager databaseManager = OfflineDatabaseManager.getOfflineDatabaseManager(context);
+        String dbPath = databaseManager.getOfflineDatabaseHandlerForMapId(mapID).getDatabaseFile().getPath();
+        databaseManager.releaseOfflineDatabaseHandlerForMapId(mapID);
 
-        if (dbPath.endsWith("-PARTIAL")) {
+        if (dbPath.endsWith(PARTIAL_SUFFIX)) {
             // Rename SQLlite database file
             File oldDb = new File(dbPath);
-            String newDb = dbPath.substring(0, dbPath.indexOf("-PARTIAL"));
+            String newDb = dbPath.substring(0, dbPath.indexOf(PARTIAL_SUFFIX));
             boolean result = oldDb.renameTo(new File(newDb));
             Log.i(TAG, "Result of rename = " + result + " for oldDb = '" + dbPath + "'; newDB = '" + newDb + "'");
         }
 
         // Update Database Handler
-        OfflineDatabaseManager.getOfflineDatabaseManager(context).switchHandlerFromPartialToRegular(mapID);
+        databaseManager.getOfflineDatabaseHandlerForMapId(mapID, true);
 
         // Create DB object and return
         OfflineMapDatabase offlineMapDatabase = new OfflineMapDatabase(context, mapID);
@@ -251,82 +334,353 @@ public class OfflineMapDownloader implements MapboxConstants {
         sqliteQueryWrittenAndExpectedCountsWithError();
         Log.d(TAG, String.format("totalFilesExpectedToWrite = %d, totalFilesWritten = %d", this.totalFilesExpectedToWrite, this.totalFilesWritten));
 
-//        [_sqliteQueue addOperationWithBlock:^{
-        // Get the actual URLs
-        ArrayList<String> urls = sqliteReadArrayOfOfflineMapURLsToBeDownloadLimit(-1);
-        Log.d(TAG, String.format("number of urls to download = %d", urls.size()));
-
-        int totalDiff = this.totalFilesExpectedToWrite - this.totalFilesWritten;
-        if (urls.size() != totalDiff) {
-            // Something is off
-            Log.w(TAG, String.format("totalDiff %d does not equal urls size of %d.  This is a problem.  Returning.", totalDiff, urls.size()));
-            return;
-        } else if (urls.size() == 0 && totalDiff == 0) {
+        if (this.totalFilesWritten >= this.totalFilesExpectedToWrite) {
             // All files are downloaded, but hasn't been persisted yet.
             finishUpDownloadProcess();
             return;
         }
 
-        for (final String url : urls) {
-/*
-            if (!NetworkUtils.isNetworkAvailable(context)) {
-                Log.w(TAG, "Network is no longer available.");
-//                    [self notifyDelegateOfNetworkConnectivityError:error];
-            }
-*/
+        // The pending urls are read from the database a page at a time as the fetchers need them
+        startFetching();
+    }
 
-            AsyncTask<String, Void, Void> foo = new AsyncTask<String, Void, Void>() {
-                @Override
-                protected Void doInBackground(String... params) {
-                    HttpURLConnection conn = null;
-                    try {
-                        conn = NetworkUtils.getHttpURLConnection(new URL(params[0]));
-                        Log.d(TAG, "URL to download = " + conn.getURL().toString());
-                        conn.setConnectTimeout(60000);
-                        conn.connect();
-                        int rc = conn.getResponseCode();
-                        if (rc != HttpURLConnection.HTTP_OK) {
-                            String msg = String.format("HTTP Error connection.  Response Code = %d", rc);
-                            Log.w(TAG, msg);
-                            notifyDelegateOfHTTPStatusError(rc, params[0]);
-                            throw new IOException(msg);
-                        }
+    /**
+     * Download the pending resources with a fixed pool of fetch threads, which hand the results
+     * to a single {@link OfflineDownloadWriter} that commits them in batches.
+     */
+    private void startFetching() {
+        final OfflineDatabaseHandler handler = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(mapID);
+        this.downloadWriteError = null;
+        final OfflineDownloadWriter writer = new OfflineDownloadWriter(handler,
+                new OfflineDownloadWriter.Callback() {
+                    @Override
+                    public void onResourcesWritten(int count) {
+                        resourcesWritten(count);
+                    }
 
-                        ByteArrayOutputStream bais = new ByteArrayOutputStream();
-                        InputStream is = null;
-                        try {
-                            is = conn.getInputStream();
-                            // Read 4K at a time
-                            byte[] byteChunk = new byte[4096];
-                            int n;
+                    @Override
+                    public void onWriteError(Throwable error) {
+                        downloadWriteFailed(error);
+                    }
 
-                            while ((n = is.read(byteChunk)) > 0) {
-                                bais.write(byteChunk, 0, n);
-                            }
-                        } catch (IOException e) {
-                            Log.e(TAG, String.format("Failed while reading bytes from %s: %s", conn.getURL().toString(), e.getMessage()));
-                            e.printStackTrace();
-                        } finally {
-                            if (is != null) {
-                                is.close();
-                            }
-                            conn.disconnect();
-                        }
-                        sqliteSaveDownloadedData(bais.toByteArray(), url);
-                    } catch (IOException e) {
-                        Log.e(TAG, e.getMessage());
-                        e.printStackTrace();
-                    } finally {
-                        if (conn != null) {
-                            conn.disconnect();
+                    @Override
+                    public void onWriterFinished() {
+                        downloadPassFinished();
+                    }
+                });
+        this.downloadWriter = writer;
+        writer.start();
+
+        final PendingResources pending = new PendingResources(handler);
+        final int threads = Math.min(DOWNLOAD_THREAD_COUNT, this.totalFilesExpectedToWrite - this.totalFilesWritten);
+        final AtomicInteger activeFetchers = new AtomicInteger(threads);
+        final Runnable fetcher = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PendingResource resource;
+                    while (state == MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateRunning
+                            && !writer.isStopped() && (resource = pending.next()) != null) {
+                        fetchResource(resource, writer);
+                    }
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Fetcher interrupted");
+                } finally {
+                    // The last fetcher to finish lets the writer commit the rest and wrap up
+                    if (activeFetchers.decrementAndGet() == 0) {
+                        try {
+                            writer.finish();
+                        } catch (InterruptedException e) {
+                            writer.abort();
                         }
                     }
+                }
+            }
+        };
+
+        fetchPool = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            fetchPool.execute(fetcher);
+        }
+        // Let the threads go away once the fetchers are done
+        fetchPool.shutdown();
+    }
 
+    /**
+     * Download a resource, retrying transient errors with exponential backoff, and queue the
+     * result or the failure in the writer.
+     */
+    private void fetchResource(final PendingResource resource, final OfflineDownloadWriter writer) throws InterruptedException {
+        int attempts = resource.attempts;
+        for (int retry = 0; ; retry++) {
+            attempts++;
+            try {
+                final long start = SystemClock.elapsedRealtime();
+                final OfflineResourceResponse response = downloadURL(resource.url);
+                recordDownload(resource.url, response.data.length, SystemClock.elapsedRealtime() - start);
+                writer.write(resource.url, response, attempts);
+                return;
+            } catch (HttpStatusException e) {
+                if (!e.isTransient()) {
+                    // Retrying won't help, record the status so the region can still complete
+                    Log.w(TAG, String.format("Giving up on %s: %s", resource.url, e.getMessage()));
+                    writer.writeFailure(resource.url, e.getStatus(), attempts, e.getMessage());
+                    return;
+                }
+                if (retry + 1 >= MAX_ATTEMPTS_PER_PASS) {
+                    writer.writeFailure(resource.url, 0, attempts, e.getMessage());
+                    return;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, String.format("Failed to download %s: %s", resource.url, e.getMessage()));
+                if (retry + 1 >= MAX_ATTEMPTS_PER_PASS) {
+                    writer.writeFailure(resource.url, 0, attempts, String.valueOf(e.getMessage()));
+                    return;
+                }
+            }
+            Thread.sleep(getRetryDelay(retry));
+        }
+    }
+
+    private void recordDownload(final String url, final int bytes, final long millis) {
+        regionEstimator.addThroughputSample(bytes, millis);
+        final long tileId = OfflineDatabaseHandler.tileIdForURL(url);
+        if (tileId >= 0) {
+            regionEstimator.addTileSample(TileId.getZ(tileId), bytes);
+        }
+    }
+
+    /**
+     * @param retry the number of retries already made, starting at 0
+     * @return the delay before the next attempt, doubling with each retry and randomized by up
+     * to half so that fetchers don't retry in lockstep
+     */
+    static long getRetryDelay(final int retry) {
+        final long delay = Math.min(RETRY_MAXIMUM_DELAY_MS, RETRY_INITIAL_DELAY_MS << Math.min(retry, 16));
+        return delay / 2 + (long) (Math.random() * (delay / 2));
+    }
+
+    /**
+     * Called from the writer thread when it can't write to the database. Nothing more can be
+     * stored in this pass, so the fetchers are stopped rather than left downloading.
+     */
+    private void downloadWriteFailed(final Throwable error) {
+        this.downloadWriteError = error;
+        final ExecutorService pool = fetchPool;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        notifyDelegateOfSqliteError(error);
+    }
+
+    /**
+     * Called from the writer thread once everything queued in a pass has been committed.
+     */
+    private void downloadPassFinished() {
+        if (state != MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateRunning) {
+            Log.d(TAG, "Download pass ended in state " + state);
+            return;
+        }
+        if (downloadWriteError != null) {
+            // Already reported as an sqlite error, the network is not the problem
+            Log.w(TAG, "Download pass ended after a write error: " + downloadWriteError.getMessage());
+            this.state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateSuspended;
+            notifyDelegateOfStateChange();
+            return;
+        }
+        if (totalFilesWritten >= totalFilesExpectedToWrite) {
+            finishUpDownloadProcess();
+            return;
+        }
+
+        // Some resources are still pending after all their retries, most likely because the
+        // network went away. Suspend, so the job can be resumed where it stopped.
+        String msg = String.format("Download pass ended with %d of %d files written.", totalFilesWritten, totalFilesExpectedToWrite);
+        Log.w(TAG, msg);
+        this.state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateSuspended;
+        notifyDelegateOfNetworkConnectivityError(new IOException(msg));
+        notifyDelegateOfStateChange();
+    }
+
+    /**
+     * Fetch a resource.
+     *
+     * @param url the url
+     * @return the body of the response and its validators
+     * @throws HttpStatusException if the response is not 200 OK
+     * @throws IOException if the request fails
+     */
+    private OfflineResourceResponse downloadURL(final String url) throws IOException {
+        try {
+            return OfflineResourceResponse.fetch(url);
+        } catch (HttpStatusException e) {
+            Log.w(TAG, e.getMessage());
+            notifyDelegateOfHTTPStatusError(e.getStatus(), url);
+            throw e;
+        }
+    }
+
+    /**
+     * Count resources committed by the writer, notifying listeners of progress at most every
+     * {@link #PROGRESS_INTERVAL_MS} and once the last file is written.
+     */
+    private void resourcesWritten(final int count) {
+        this.totalFilesWritten += count;
+        final long now = System.currentTimeMillis();
+        if (now - lastProgressNotification >= PROGRESS_INTERVAL_MS
+                || this.totalFilesWritten >= this.totalFilesExpectedToWrite) {
+            lastProgressNotification = now;
+            notifyDelegateOfProgress();
+            Log.d(TAG, "totalFilesWritten = " + this.totalFilesWritten + "; totalFilesExpectedToWrite = " + this.totalFilesExpectedToWrite);
+        }
+    }
+
+    /**
+     * Wait for the last pass, if any, to wind down: its fetchers stop and its writer commits
+     * what they downloaded before exiting. Used before a suspended job starts a new pass.
+     */
+    private void finishFetching() throws InterruptedException {
+        if (fetchPool != null) {
+            fetchPool.shutdownNow();
+            fetchPool = null;
+        }
+        final OfflineDownloadWriter writer = downloadWriter;
+        if (writer != null) {
+            writer.join();
+            downloadWriter = null;
+        }
+    }
+
+    /**
+     * Stop the fetchers and the writer of the current pass, if any, dropping what the writer
+     * hasn't committed yet, and wait for the writer to exit. Used when the job is discarded.
+     */
+    private void abortFetching() throws InterruptedException {
+        if (fetchPool != null) {
+            fetchPool.shutdownNow();
+            fetchPool = null;
+        }
+        final OfflineDownloadWriter writer = downloadWriter;
+        if (writer != null) {
+            writer.abort();
+            writer.join();
+            downloadWriter = null;
+        }
+    }
+
+    /**
+     * Stop the current job, delete its partial database and make the downloader available for
+     * a new job. This waits for the writer, so it runs in the background when called from the
+     * main thread.
+     */
+    private void discardDownload() {
+        final Runnable discard = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    abortFetching();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while stopping the download");
+                }
+                totalFilesWritten = 0;
+                totalFilesExpectedToWrite = 0;
+                if (mapID != null) {
+                    OfflineDatabaseManager databaseManager = OfflineDatabaseManager.getOfflineDatabaseManager(context);
+                    String databaseName = databaseManager.getOfflineDatabaseHandlerForMapId(mapID).getDatabaseFile().getName();
+                    if (databaseName.endsWith(PARTIAL_SUFFIX)) {
+                        databaseManager.releaseOfflineDatabaseHandlerForMapId(mapID);
+                        boolean result = context.deleteDatabase(databaseName);
+                        Log.i(TAG, "Result of removing partial database " + databaseName + " = " + result);
+                    }
+                }
+                state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable;
+                notifyDelegateOfStateChange();
+            }
+        };
+
+        if (AppUtils.runningOnMainThread()) {
+            AsyncTask<Void, Void, Void> discardTask = new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... params) {
+                    discard.run();
                     return null;
                 }
             };
-            foo.execute(url);
-            // This is the last line of the for loop
+            discardTask.execute();
+        } else {
+            discard.run();
+        }
+    }
+
+    /**
+     * A resource that still has to be downloaded.
+     */
+    private static final class PendingResource {
+        final String url;
+        final int attempts;
+
+        PendingResource(String url, int attempts) {
+            this.url = url;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Streams the pending resources of the partial database a page at a time, in rowid order,
+     * so that memory use doesn't depend on the size of the region. It reads through the
+     * connection of the {@link OfflineDatabaseHandler}, which the writer shares.
+     */
+    private static final class PendingResources {
+        private static final String QUERY = String.format("SELECT rowid, %s, %s FROM %s WHERE %s IS NULL AND rowid > ? ORDER BY rowid LIMIT %d;",
+                OfflineDatabaseHandler.FIELD_RESOURCES_URL, OfflineDatabaseHandler.FIELD_RESOURCES_ATTEMPTS, OfflineDatabaseHandler.TABLE_RESOURCES,
+                OfflineDatabaseHandler.FIELD_RESOURCES_STATUS, PENDING_PAGE_SIZE);
+
+        private final OfflineDatabaseHandler handler;
+        private final ArrayDeque<PendingResource> page = new ArrayDeque<PendingResource>(PENDING_PAGE_SIZE);
+        private long lastRowId = 0;
+        private boolean exhausted = false;
+
+        PendingResources(OfflineDatabaseHandler handler) {
+            this.handler = handler;
+        }
+
+        synchronized PendingResource next() {
+            if (page.isEmpty() && !exhausted) {
+                Cursor cursor = handler.getReadableDatabase().rawQuery(QUERY, new String[] {String.valueOf(lastRowId)});
+                try {
+                    while (cursor.moveToNext()) {
+                        lastRowId = cursor.getLong(0);
+                        page.add(new PendingResource(cursor.getString(1), cursor.getInt(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                exhausted = page.size() < PENDING_PAGE_SIZE;
+            }
+            return page.poll();
+        }
+    }
+
+    /**
+     * A response other than 200 OK.
+     */
+    static final class HttpStatusException extends IOException {
+        private final int status;
+
+        HttpStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return true for server errors, timeouts and rate limiting, which may go away
+         */
+        boolean isTransient() {
+            return status >= 500 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429;
         }
     }
 
@@ -334,6 +688,12 @@ public class OfflineMapDownloader implements MapboxConstants {
     Implementation: sqlite stuff
 */
 
+    /**
+     * Save a single downloaded resource in its own transaction.
+     *
+     * @deprecated downloads are written in batches by {@link OfflineDownloadWriter}
+     */
+    @Deprecated
     public void sqliteSaveDownloadedData(byte[] data, String url) {
         if (AppUtils.runningOnMainThread()) {
             Log.w(TAG, "trying to run sqliteSaveDownloadedData() on main thread. Return.");
@@ -363,10 +723,9 @@ public class OfflineMapDownloader implements MapboxConstants {
         db.insert(OfflineDatabaseHandler.TABLE_DATA, null, values);
 
 //      [query appendFormat:@"UPDATE resources SET status=200,id=last_insert_rowid() WHERE url='%@';\n",[url absoluteString]];
-        db.execSQL(String.format("UPDATE %s SET %s=200, %s=last_insert_rowid() WHERE %s='%s';", OfflineDatabaseHandler.TABLE_RESOURCES, OfflineDatabaseHandler.FIELD_RESOURCES_STATUS, OfflineDatabaseHandler.FIELD_RESOURCES_ID, OfflineDatabaseHandler.FIELD_RESOURCES_URL, url));
+        db.execSQL(String.format("UPDATE %s SET %s=200, %s=last_insert_rowid() WHERE %s=?;", OfflineDatabaseHandler.TABLE_RESOURCES, OfflineDatabaseHandler.FIELD_RESOURCES_STATUS, OfflineDatabaseHandler.FIELD_RESOURCES_ID, OfflineDatabaseHandler.FIELD_RESOURCES_URL), new Object[] {url});
         db.setTransactionSuccessful();
         db.endTransaction();
-        db.close();
 
 /*
         if(error)
@@ -417,6 +776,7 @@ public class OfflineMapDownloader implements MapboxConstants {
             OfflineMapDatabase offlineMap = completeDatabaseAndInstantiateOfflineMapWithError();
             if (offlineMap != null) {
                 this.mutableOfflineMapDatabases.add(offlineMap);
+                Log.i(TAG, String.format("%d resources share their data, %d bytes saved", offlineMap.getSharedResourceCount(), offlineMap.getDeduplicatedBytes()));
             }
             notifyDelegateOfCompletionWithOfflineMapDatabase(offlineMap);
 
@@ -449,7 +809,6 @@ public class OfflineMapDownloader implements MapboxConstants {
             } while (cursor.moveToNext());
         }
         cursor.close();
-        db.close();
 
         return results;
     }
@@ -469,13 +828,24 @@ public class OfflineMapDownloader implements MapboxConstants {
         this.totalFilesExpectedToWrite = cursor.getInt(0);
         this.totalFilesWritten = cursor.getInt(1);
         cursor.close();
-        db.close();
         success = true;
 
         return success;
     }
 
     public boolean sqliteCreateDatabaseUsingMetadata(Hashtable<String, String> metadata, List<String> urlStrings) {
+        return sqliteCreateDatabaseUsingMetadata(metadata, urlStrings, null);
+    }
+
+    /**
+     * Create the database of a download job with a row per resource to download. The tile
+     * resources are produced one at a time from the cover and inserted with a compiled
+     * statement, so the urls of all tiles are never in memory at once.
+     *
+     * @param urlStrings the resources other than tiles
+     * @param tileCover the tiles, or null if all resources are in urlStrings
+     */
+    public boolean sqliteCreateDatabaseUsingMetadata(Hashtable<String, String> metadata, List<String> urlStrings, TileCover tileCover) {
         if (AppUtils.runningOnMainThread()) {
             Log.w(TAG, "sqliteCreateDatabaseUsingMetadata() running on main thread.  Returning.");
             return false;
@@ -504,12 +874,31 @@ public class OfflineMapDownloader implements MapboxConstants {
         for (String url : urlStrings) {
             ContentValues cv = new ContentValues();
             cv.put(OfflineDatabaseHandler.FIELD_RESOURCES_URL, url);
+            long tileId = OfflineDatabaseHandler.tileIdForURL(url);
+            if (tileId >= 0) {
+                cv.put(OfflineDatabaseHandler.FIELD_RESOURCES_TILE_ID, tileId);
+            }
             db.insert(OfflineDatabaseHandler.TABLE_RESOURCES, null, cv);
         }
+        long tileCount = 0;
+        if (tileCover != null) {
+            SQLiteStatement insertTile = db.compileStatement(INSERT_TILE_RESOURCE);
+            try {
+                TileCover.TileIterator tiles = tileCover.iterator();
+                while (tiles.hasNext()) {
+                    long tileId = tiles.next();
+                    insertTile.bindString(1, MapboxUtils.getMapTileURL(this.mapID, TileId.getZ(tileId), TileId.getX(tileId), TileId.getY(tileId), this.imageQuality));
+                    insertTile.bindLong(2, tileId);
+                    insertTile.executeInsert();
+                    tileCount++;
+                }
+            } finally {
+                insertTile.close();
+            }
+        }
         db.setTransactionSuccessful();
         db.endTransaction();
-        db.close();
-        this.totalFilesExpectedToWrite = urlStrings.size();
+        this.totalFilesExpectedToWrite = urlStrings.size() + (int) tileCount;
         this.totalFilesWritten = 0;
         success = true;
 /*
@@ -552,6 +941,31 @@ public class OfflineMapDownloader implements MapboxConstants {
     API: Begin an offline map download
 */
 
+    /**
+     * Estimate the size of the map tiles of a region without downloading anything, for
+     * instance to reject a region that is too large before calling beginDownloadingMapID().
+     * The estimate improves as this downloader measures tile sizes and throughput.
+     */
+    public OfflineRegionEstimator.Estimate estimateRegion(CoordinateRegion mapRegion, int minimumZ, int maximumZ) {
+        return regionEstimator.estimate(mapRegion, minimumZ, maximumZ, DOWNLOAD_THREAD_COUNT);
+    }
+
+    /**
+     * Estimate the size of the map tiles of a cover, see
+     * {@link #estimateRegion(CoordinateRegion, int, int)}.
+     */
+    public OfflineRegionEstimator.Estimate estimateCover(TileCover tileCover) {
+        return regionEstimator.estimate(tileCover, DOWNLOAD_THREAD_COUNT);
+    }
+
+    /**
+     * @return the estimator used by {@link #estimateRegion(CoordinateRegion, int, int)}, to add
+     * samples or set compression factors
+     */
+    public OfflineRegionEstimator getRegionEstimator() {
+        return regionEstimator;
+    }
+
     public void beginDownloadingMapID(String mapID, CoordinateRegion mapRegion, Integer minimumZ, Integer maximumZ) {
         beginDownloadingMapID(mapID, mapRegion, minimumZ, maximumZ, true, true, RasterImageQuality.MBXRasterImageQualityFull);
     }
@@ -562,6 +976,25 @@ public class OfflineMapDownloader implements MapboxConstants {
 
     public void beginDownloadingMapID(String mapID, CoordinateRegion mapRegion, Integer minimumZ, Integer maximumZ,
                                       boolean includeMetadata, boolean includeMarkers, RasterImageQuality imageQuality) {
+        beginDownloading(mapID, mapRegion, TileCover.forRegion(mapRegion, minimumZ, maximumZ), minimumZ, maximumZ, includeMetadata, includeMarkers, imageQuality);
+    }
+
+    /**
+     * Download the tiles of an arbitrary area instead of a rectangular region, for instance
+     * the cover of a service area from {@link TileCover#forGeometry} or of a route from
+     * {@link TileCover#forLineString}. The region stored with the offline map is the bounding
+     * box of the cover.
+     */
+    public void beginDownloadingMapID(String mapID, TileCover tileCover, boolean includeMetadata, boolean includeMarkers, RasterImageQuality imageQuality) {
+        if (tileCover.isEmpty()) {
+            Log.w(TAG, "The tile cover is empty, there is nothing to download.");
+            return;
+        }
+        beginDownloading(mapID, tileCover.getRegion(), tileCover, tileCover.getMinimumZ(), tileCover.getMaximumZ(), includeMetadata, includeMarkers, imageQuality);
+    }
+
+    private void beginDownloading(String mapID, CoordinateRegion mapRegion, final TileCover tileCover, int minimumZ, int maximumZ,
+                                  boolean includeMetadata, boolean includeMarkers, RasterImageQuality imageQuality) {
         if (state != MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable) {
             Log.w(TAG, "state doesn't equal MBXOfflineMapDownloaderStateAvailable so return.  state = " + state);
             return;
@@ -619,30 +1052,11 @@ public class OfflineMapDownloader implements MapboxConstants {
             urls.add(String.format(MAPBOX_BASE_URL + "%s/%s%s", this.mapID, dataName, ""));
         }
 
-        // Loop through the zoom levels and lat/lon bounds to generate a list of urls which should be included in the offline map
+        // The tiles are kept as ranges and only turned into urls as they are written to the
+        // database, so that large regions don't need a string per tile in memory
         //
-        double minLat = this.mapRegion.getCenter().getLatitude() - (this.mapRegion.getSpan().getLatitudeSpan() / 2.0);
-        double maxLat = minLat + this.mapRegion.getSpan().getLatitudeSpan();
-        double minLon = this.mapRegion.getCenter().getLongitude() - (this.mapRegion.getSpan().getLongitudeSpan() / 2.0);
-        double maxLon = minLon + this.mapRegion.getSpan().getLongitudeSpan();
-        int minX;
-        int maxX;
-        int minY;
-        int maxY;
-        int tilesPerSide;
-        for (int zoom = minimumZ; zoom <= maximumZ; zoom++) {
-            tilesPerSide = Double.valueOf(Math.pow(2.0, zoom)).intValue();
-            minX = Double.valueOf(Math.floor(((minLon + 180.0) / 360.0) * tilesPerSide)).intValue();
-            maxX = Double.valueOf(Math.floor(((maxLon + 180.0) / 360.0) * tilesPerSide)).intValue();
-            minY = Double.valueOf(Math.floor((1.0 - (Math.log(Math.tan(maxLat * MathConstants.PI / 180.0) + 1.0 / Math.cos(maxLat * MathConstants.PI / 180.0)) / MathConstants.PI)) / 2.0 * tilesPerSide)).intValue();
-            maxY = Double.valueOf(Math.floor((1.0 - (Math.log(Math.tan(minLat * MathConstants.PI / 180.0) + 1.0 / Math.cos(minLat * MathConstants.PI / 180.0)) / MathConstants.PI)) / 2.0 * tilesPerSide)).intValue();
-            for (int x = minX; x <= maxX; x++) {
-                for (int y = minY; y <= maxY; y++) {
-                    urls.add(MapboxUtils.getMapTileURL(this.mapID, zoom, x, y, this.imageQuality));
-                }
-            }
-        }
-        Log.i(TAG, "Number of URLs so far: " + urls.size());
+        metadataDictionary.put("tileCover", tileCover.toString());
+        Log.i(TAG, "Number of URLs so far: " + urls.size() + " plus " + tileCover.size() + " tiles");
 
         // Determine if we need to add marker icon urls (i.e. parse markers.geojson/features.json), and if so, add them
         //
@@ -656,11 +1070,8 @@ public class OfflineMapDownloader implements MapboxConstants {
                 // added to the list of urls to download, the lack of network connectivity is a non-recoverable error
                 // here.
                 //
-                // TODO
-/*
-                [self notifyDelegateOfNetworkConnectivityError:error];
-                [self cancelImmediatelyWithError:error];
-*/
+                notifyDelegateOfNetworkConnectivityError(new IOException("No network connection to fetch " + geojson));
+                cancelImmediatelyWithError("No network connection to fetch " + geojson);
                 return;
             }
 
@@ -714,29 +1125,31 @@ public class OfflineMapDownloader implements MapboxConstants {
                     // == This stuff is a duplicate of the code immediately below it, but this copy is inside of a completion  ==
                     // == block while the other isn't. You will be sad and confused if you try to eliminate the "duplication". ==
                     //===========================================================================================================
-                    startDownloadProcess(metadataDictionary, urls);
+                    startDownloadProcess(metadataDictionary, urls, tileCover);
                 }
             };
             foo.execute();
         } else {
             Log.i(TAG, "No marker icons to worry about, so just start downloading.");
             // There aren't any marker icons to worry about, so just create database and start downloading
-            startDownloadProcess(metadataDictionary, urls);
+            startDownloadProcess(metadataDictionary, urls, tileCover);
         }
     }
 
     /**
      * Private method for Starting the Whole Download Process
      *
-     * @param metadata Metadata
-     * @param urls     Map urls
+     * @param metadata  Metadata
+     * @param urls      Map urls other than tiles
+     * @param tileCover Map tiles
      */
-    private void startDownloadProcess(final Hashtable<String, String> metadata, final List<String> urls) {
+    private void startDownloadProcess(final Hashtable<String, String> metadata, final List<String> urls, final TileCover tileCover) {
         AsyncTask<Void, Void, Thread> startDownload = new AsyncTask<Void, Void, Thread>() {
             @Override
             protected Thread doInBackground(Void... params) {
                 // Do database creation / io on background thread
-                if (!sqliteCreateDatabaseUsingMetadata(metadata, urls)) {
+                if (!sqliteCreateDatabaseUsingMetadata(metadata, urls, tileCover)) {
+                    notifyDelegateOfSqliteError(new OfflineDatabaseException("Map Database wasn't created"));
                     cancelImmediatelyWithError("Map Database wasn't created");
                     return null;
                 }
@@ -795,106 +1208,77 @@ public class OfflineMapDownloader implements MapboxConstants {
         return iconURLStrings;
     }
 
+    /**
+     * Give up on the job being started because of an error the listeners have already been
+     * told about, discarding its files, and go back to the available state.
+     *
+     * @param error what went wrong
+     */
     public void cancelImmediatelyWithError(String error) {
-        // TODO
-/*
-        // Creating the database failed for some reason, so clean up and change the state back to available
-        //
+        Log.w(TAG, "Canceling the download job: " + error);
         state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateCanceling;
-        [self notifyDelegateOfStateChange];
-
-        if([_delegate respondsToSelector:@selector(offlineMapDownloader:didCompleteOfflineMapDatabase:withError:)])
-        {
-            dispatch_async(dispatch_get_main_queue(), ^(void){
-                    [_delegate offlineMapDownloader:self didCompleteOfflineMapDatabase:nil withError:error];
-            });
-        }
-
-        [_dataSession invalidateAndCancel];
-        [_sqliteQueue cancelAllOperations];
-
-        [_sqliteQueue addOperationWithBlock:^{
-        [self setUpNewDataSession];
-        _totalFilesWritten = 0;
-        _totalFilesExpectedToWrite = 0;
-
-        [[NSFileManager defaultManager] removeItemAtPath:_partialDatabasePath error:nil];
-
-        state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable;
-        [self notifyDelegateOfStateChange];
-    }];
-*/
+        notifyDelegateOfStateChange();
+        discardDownload();
     }
 
 /*
     API: Control an in-progress offline map download
 */
 
+    /**
+     * Stop a download job and discard the associated files. The downloader is available again
+     * once its state changes to {@link MBXOfflineMapDownloaderState#MBXOfflineMapDownloaderStateAvailable}.
+     */
     public void cancel() {
         Log.d(TAG, "cancel called with state = " + state);
-/*
-        if (state != MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateCanceling && state != MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable) {
-            // Stop a download job and discard the associated files
-            //
-            [_backgroundWorkQueue addOperationWithBlock:^{
-            _state = MBXOfflineMapDownloaderStateCanceling;
-            [self notifyDelegateOfStateChange];
-
-            [_dataSession invalidateAndCancel];
-            [_sqliteQueue cancelAllOperations];
-
-            [_sqliteQueue addOperationWithBlock:^{
-                [self setUpNewDataSession];
-                _totalFilesWritten = 0;
-                _totalFilesExpectedToWrite = 0;
-                [[NSFileManager defaultManager] removeItemAtPath:_partialDatabasePath error:nil];
-
-                if([_delegate respondsToSelector:@selector(offlineMapDownloader:didCompleteOfflineMapDatabase:withError:)])
-                {
-                    NSError *canceled = [NSError mbx_errorWithCode:MBXMapKitErrorCodeDownloadingCanceled reason:@"The download job was canceled" description:@"Download canceled"];
-                    dispatch_async(dispatch_get_main_queue(), ^(void){
-                            [_delegate offlineMapDownloader:self didCompleteOfflineMapDatabase:nil withError:canceled];
-                    });
-                }
-
-                _state = MBXOfflineMapDownloaderStateAvailable;
-                [self notifyDelegateOfStateChange];
-            }];
-
-            }
+        if (state == MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateCanceling
+                || state == MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateAvailable) {
+            return;
         }
-*/
+        // The fetchers stop taking resources as soon as the state isn't running anymore
+        state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateCanceling;
+        notifyDelegateOfStateChange();
+        discardDownload();
     }
 
     public void resume() {
         if (state != MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateSuspended) {
             return;
         }
-/*
-        // Resume a previously suspended download job
+
+        // Resume a previously suspended download job from what is recorded in the database
         //
-        [_backgroundWorkQueue addOperationWithBlock:^{
-            _state = MBXOfflineMapDownloaderStateRunning;
-            [self startDownloading];
-            [self notifyDelegateOfStateChange];
-        }];
-*/
+        AsyncTask<Void, Void, Void> resumeDownload = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    // Let the previous pass commit what it downloaded
+                    finishFetching();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateRunning;
+                notifyDelegateOfStateChange();
+                startDownloading();
+                return null;
+            }
+        };
+        resumeDownload.execute();
     }
 
     public void suspend() {
         Log.d(TAG, "suspend called with state = " + state);
-/*
         if (state == MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateRunning) {
-            // Stop a download job, preserving the necessary state to resume later
+            // Stop a download job, preserving the necessary state to resume later. The fetchers
+            // stop, and the writer commits what was already downloaded before closing the database.
             //
-            [_backgroundWorkQueue addOperationWithBlock:^{
-                [_sqliteQueue cancelAllOperations];
-                _state = MBXOfflineMapDownloaderStateSuspended;
-                _activeDataSessionTasks = 0;
-                [self notifyDelegateOfStateChange];
-            }];
+            state = MBXOfflineMapDownloaderState.MBXOfflineMapDownloaderStateSuspended;
+            ExecutorService pool = fetchPool;
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            notifyDelegateOfStateChange();
         }
-*/
     }
 
 /*
@@ -915,6 +1299,20 @@ public class OfflineMapDownloader implements MapboxConstants {
         return false;
     }
 
+    /**
+     * Add an offline map database made from an MBTiles file, for instance one written by
+     * {@link MBTilesConverter#exportToMBTiles(OfflineMapDatabase, File)} on another
+     * device. Don't call this on the main thread.
+     */
+    public OfflineMapDatabase importMBTiles(File file, String mapID) throws OfflineDatabaseException {
+        if (isMapIdAlreadyAnOfflineMapDatabase(mapID)) {
+            throw new OfflineDatabaseException("An offline map database already exists for " + mapID);
+        }
+        OfflineMapDatabase offlineMapDatabase = MBTilesConverter.importMBTiles(context, file, mapID);
+        mutableOfflineMapDatabases.add(offlineMapDatabase);
+        return offlineMapDatabase;
+    }
+
     public boolean removeOfflineMapDatabase(OfflineMapDatabase offlineMapDatabase) {
         // Mark the offline map object as invalid in case there are any references to it still floating around
         //
@@ -923,13 +1321,13 @@ public class OfflineMapDownloader implements MapboxConstants {
         // Remove the offline map object from the array and delete it's backing database
         //
         mutableOfflineMapDatabases.remove(offlineMapDatabase);
+        offlineMapDatabase.close();
 
-        // Remove Offline Database SQLite file
-        SQLiteDatabase db = OfflineDatabaseManager.getOfflineDatabaseManager(context).getOfflineDatabaseHandlerForMapId(offlineMapDatabase.getMapID()).getReadableDatabase();
-        String dbPath = db.getPath();
-        db.close();
+        // Remove Offline Database SQLite file, once its handler has closed it
+        OfflineDatabaseManager databaseManager = OfflineDatabaseManager.getOfflineDatabaseManager(context);
+        File dbFile = databaseManager.getOfflineDatabaseHandlerForMapId(offlineMapDatabase.getMapID(), true).getDatabaseFile();
+        databaseManager.releaseOfflineDatabaseHandlerForMapId(offlineMapDatabase.getMapID());
 
-        File dbFile = new File(dbPath);
         boolean result = dbFile.delete();
         Log.i(TAG, String.format("Result of removing database file: %s", result));
         return result;
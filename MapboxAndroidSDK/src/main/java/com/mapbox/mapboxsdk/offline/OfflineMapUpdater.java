@@ -0,0 +1,311 @@
+package com.mapbox.mapboxsdk.offline;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.exceptions.OfflineDatabaseException;
+import com.mapbox.mapboxsdk.util.AppUtils;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings a complete {@link OfflineMapDatabase} up to date without downloading it again.
+ * <p/>
+ * Every resource is requested again with the ETag and Last-Modified date stored along with it,
+ * so the server only sends the resources that changed and answers 304 Not Modified for the
+ * others. Resources are checked by a fixed pool of threads and the changed ones are committed
+ * in batches by an {@link OfflineDownloadWriter}, the same way a download is. Resources stored
+ * without validators, by versions before they were kept, are downloaded in full.
+ * <p/>
+ * A resource that fails to update keeps its current copy. The requests go to the URLs stored in
+ * the database, so an update can be run against any server, a local one included.
+ * <p/>
+ * Tile providers already drawing the database keep showing the tiles they have loaded until
+ * they are created again.
+ */
+public class OfflineMapUpdater {
+
+    private static final String TAG = "OfflineMapUpdater";
+
+    private static final int UPDATE_THREAD_COUNT = 4;
+    private static final int PAGE_SIZE = 500;
+
+    private static final String QUERY_RESOURCE_COUNT = "SELECT COUNT(*) FROM " + OfflineDatabaseHandler.TABLE_RESOURCES + ";";
+    private static final String DELETE_UNUSED_DATA = "DELETE FROM " + OfflineDatabaseHandler.TABLE_DATA + " WHERE "
+            + OfflineDatabaseHandler.FIELD_DATA_ID + " NOT IN (SELECT " + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " FROM "
+            + OfflineDatabaseHandler.TABLE_RESOURCES + " WHERE " + OfflineDatabaseHandler.FIELD_RESOURCES_ID + " IS NOT NULL);";
+
+    private final Context context;
+    private final OfflineMapDatabase offlineMapDatabase;
+    private volatile boolean cancelled = false;
+
+    public OfflineMapUpdater(Context context, OfflineMapDatabase offlineMapDatabase) {
+        super();
+        this.context = context;
+        this.offlineMapDatabase = offlineMapDatabase;
+    }
+
+    /**
+     * Check every resource of the database and replace the ones that changed. This blocks until
+     * all resources have been checked and the changes are committed, so it must not be called
+     * on the main thread.
+     *
+     * @return what was checked, replaced and saved
+     * @throws OfflineDatabaseException if the changes could not be written
+     * @throws InterruptedException if the calling thread is interrupted, in which case changes
+     * downloaded so far are not committed
+     */
+    public Result update() throws OfflineDatabaseException, InterruptedException {
+        if (AppUtils.runningOnMainThread()) {
+            throw new IllegalStateException("update() must not be called on the main thread");
+        }
+
+        final OfflineDatabaseHandler handler = OfflineDatabaseManager.getOfflineDatabaseManager(context)
+                .getOfflineDatabaseHandlerForMapId(offlineMapDatabase.getMapID(), true);
+        final int total = queryResourceCount(handler.getReadableDatabase());
+
+        final Throwable[] writeError = new Throwable[1];
+        final OfflineDownloadWriter writer = new OfflineDownloadWriter(handler,
+                new OfflineDownloadWriter.Callback() {
+                    @Override
+                    public void onResourcesWritten(int count) {
+                    }
+
+                    @Override
+                    public void onWriteError(Throwable error) {
+                        synchronized (writeError) {
+                            writeError[0] = error;
+                        }
+                    }
+
+                    @Override
+                    public void onWriterFinished() {
+                    }
+                });
+        writer.start();
+
+        final StoredResources resources = new StoredResources(handler);
+        final Counters counters = new Counters();
+        final int threads = Math.max(1, Math.min(UPDATE_THREAD_COUNT, total));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Runnable checker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    StoredResource resource;
+                    while (!cancelled && !writer.isStopped() && (resource = resources.next()) != null) {
+                        checkResource(resource, writer, counters);
+                    }
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Checker interrupted");
+                }
+            }
+        };
+        for (int i = 0; i < threads; i++) {
+            pool.execute(checker);
+        }
+        pool.shutdown();
+
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            writer.finish();
+            writer.join();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            writer.abort();
+            writer.join();
+            throw e;
+        } finally {
+            // The cancellation, if any, was for this update
+            cancelled = false;
+        }
+
+        synchronized (writeError) {
+            if (writeError[0] != null) {
+                throw new OfflineDatabaseException("Error writing updated resources: " + writeError[0].getMessage());
+            }
+        }
+
+        // Data only used by replaced resources isn't needed anymore. The connection belongs to
+        // the handler, which keeps it open for the other users of the database.
+        handler.getWritableDatabase().execSQL(DELETE_UNUSED_DATA);
+
+        final Result result = new Result(counters.checked.get(), counters.unchanged.get(), counters.changed.get(),
+                counters.failed.get(), counters.downloadedBytes.get(), counters.savedBytes.get());
+        Log.i(TAG, "Updated " + offlineMapDatabase.getMapID() + ": " + result);
+        return result;
+    }
+
+    /**
+     * Stop the update in progress, or the next one if none is. Changes already downloaded are
+     * committed, the remaining resources keep their current copy.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    void checkResource(final StoredResource resource, final OfflineDownloadWriter writer,
+            final Counters counters) throws InterruptedException {
+        counters.checked.incrementAndGet();
+        try {
+            final OfflineResourceResponse response = OfflineResourceResponse.fetch(resource.url,
+                    resource.etag, resource.lastModified);
+            if (response == null) {
+                counters.unchanged.incrementAndGet();
+                counters.savedBytes.addAndGet(resource.length);
+                return;
+            }
+            counters.changed.incrementAndGet();
+            counters.downloadedBytes.addAndGet(response.data.length);
+            writer.write(resource.url, response, resource.attempts + 1);
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Failed to update %s: %s", resource.url, e.getMessage()));
+            counters.failed.incrementAndGet();
+        }
+    }
+
+    private static int queryResourceCount(final SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(QUERY_RESOURCE_COUNT, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The outcome of an update.
+     */
+    public static final class Result {
+        private final int checkedCount;
+        private final int unchangedCount;
+        private final int changedCount;
+        private final int failedCount;
+        private final long downloadedBytes;
+        private final long savedBytes;
+
+        Result(int checkedCount, int unchangedCount, int changedCount, int failedCount,
+                long downloadedBytes, long savedBytes) {
+            this.checkedCount = checkedCount;
+            this.unchangedCount = unchangedCount;
+            this.changedCount = changedCount;
+            this.failedCount = failedCount;
+            this.downloadedBytes = downloadedBytes;
+            this.savedBytes = savedBytes;
+        }
+
+        public int getCheckedCount() {
+            return checkedCount;
+        }
+
+        /**
+         * @return the number of resources the server reported as not modified
+         */
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        /**
+         * @return the number of resources downloaded again and replaced
+         */
+        public int getChangedCount() {
+            return changedCount;
+        }
+
+        /**
+         * @return the number of resources that kept their current copy because of an error
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        public long getDownloadedBytes() {
+            return downloadedBytes;
+        }
+
+        /**
+         * @return the bytes a full download would have fetched on top of this update, which is
+         * the stored size of the unchanged resources
+         */
+        public long getSavedBytes() {
+            return savedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{checked=" + checkedCount + ", unchanged=" + unchangedCount + ", changed=" + changedCount
+                    + ", failed=" + failedCount + ", downloadedBytes=" + downloadedBytes + ", savedBytes=" + savedBytes + "}";
+        }
+    }
+
+    static final class Counters {
+        final AtomicInteger checked = new AtomicInteger();
+        final AtomicInteger unchanged = new AtomicInteger();
+        final AtomicInteger changed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong downloadedBytes = new AtomicLong();
+        final AtomicLong savedBytes = new AtomicLong();
+    }
+
+    /**
+     * A resource of the database with its validators and the size of its stored copy.
+     */
+    static final class StoredResource {
+        final String url;
+        final int attempts;
+        final String etag;
+        final String lastModified;
+        final long length;
+
+        StoredResource(String url, int attempts, String etag, String lastModified, long length) {
+            this.url = url;
+            this.attempts = attempts;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Streams the resources of the database a page at a time, in rowid order. The database is
+     * left open for the writer, which closes it once everything is committed.
+     */
+    private static final class StoredResources {
+        private static final String QUERY = String.format("SELECT r.rowid, r.%s, r.%s, r.%s, r.%s, IFNULL(LENGTH(d.%s), 0) FROM %s r LEFT JOIN %s d ON d.%s = r.%s WHERE r.rowid > ? ORDER BY r.rowid LIMIT %d;",
+                OfflineDatabaseHandler.FIELD_RESOURCES_URL, OfflineDatabaseHandler.FIELD_RESOURCES_ATTEMPTS, OfflineDatabaseHandler.FIELD_RESOURCES_ETAG,
+                OfflineDatabaseHandler.FIELD_RESOURCES_LAST_MODIFIED, OfflineDatabaseHandler.FIELD_DATA_VALUE, OfflineDatabaseHandler.TABLE_RESOURCES,
+                OfflineDatabaseHandler.TABLE_DATA, OfflineDatabaseHandler.FIELD_DATA_ID, OfflineDatabaseHandler.FIELD_RESOURCES_ID, PAGE_SIZE);
+
+        private final OfflineDatabaseHandler handler;
+        private final ArrayDeque<StoredResource> page = new ArrayDeque<StoredResource>(PAGE_SIZE);
+        private long lastRowId = 0;
+        private boolean exhausted = false;
+
+        StoredResources(OfflineDatabaseHandler handler) {
+            this.handler = handler;
+        }
+
+        synchronized StoredResource next() {
+            if (page.isEmpty() && !exhausted) {
+                Cursor cursor = handler.getReadableDatabase().rawQuery(QUERY, new String[] {String.valueOf(lastRowId)});
+                try {
+                    while (cursor.moveToNext()) {
+                        lastRowId = cursor.getLong(0);
+                        page.add(new StoredResource(cursor.getString(1), cursor.getInt(2), cursor.getString(3),
+                                cursor.getString(4), cursor.getLong(5)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                exhausted = page.size() < PAGE_SIZE;
+            }
+            return page.poll();
+        }
+    }
+}
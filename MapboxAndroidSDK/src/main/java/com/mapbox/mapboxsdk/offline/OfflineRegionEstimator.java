@@ -0,0 +1,195 @@
+package com.mapbox.mapboxsdk.offline;
+
+import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+import com.mapbox.mapboxsdk.tileprovider.TileCover;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
+import com.mapbox.mapboxsdk.tileprovider.TileRange;
+
+/**
+ * Estimates the size of an offline map download before it starts, so that regions which are too
+ * large can be rejected without building the list of their URLs.
+ * <p/>
+ * The tiles of each zoom level are counted from the {@link TileCover} of the region, the same
+ * cover {@link OfflineMapDownloader} downloads, without producing the tiles themselves. Bytes
+ * are predicted from the mean size of sampled tiles of each zoom level, scaled by a per-zoom
+ * compression factor: higher zoom levels usually have more blank or uniform tiles, which
+ * compress better. Download time is predicted from the measured throughput of previous
+ * downloads.
+ * <p/>
+ * Only map tiles are counted, not the metadata, markers and marker icons of a region.
+ */
+public class OfflineRegionEstimator {
+
+    /**
+     * Size of a tile when no tile of its zoom level or any other was sampled
+     */
+    public static final long DEFAULT_TILE_BYTES = 20 * 1024;
+
+    /**
+     * Throughput of a single connection when none was measured
+     */
+    public static final long DEFAULT_BYTES_PER_SECOND = 128 * 1024;
+
+    private final long[] sampledBytes = new long[TileId.MAXIMUM_ZOOM + 1];
+    private final int[] sampledTiles = new int[TileId.MAXIMUM_ZOOM + 1];
+    private final float[] compressionFactors = new float[TileId.MAXIMUM_ZOOM + 1];
+
+    private long measuredBytes;
+    private long measuredMillis;
+
+    public OfflineRegionEstimator() {
+        super();
+        for (int zoom = 0; zoom <= TileId.MAXIMUM_ZOOM; zoom++) {
+            compressionFactors[zoom] = 1.0f;
+        }
+    }
+
+    /**
+     * Record the size of a tile, for instance one downloaded for another region.
+     */
+    public synchronized void addTileSample(int zoom, long bytes) {
+        checkZoom(zoom);
+        sampledBytes[zoom] += bytes;
+        sampledTiles[zoom]++;
+    }
+
+    /**
+     * Record the time one connection took to download some bytes.
+     */
+    public synchronized void addThroughputSample(long bytes, long millis) {
+        if (bytes > 0 && millis > 0) {
+            measuredBytes += bytes;
+            measuredMillis += millis;
+        }
+    }
+
+    /**
+     * Scale the predicted tile size of a zoom level, for instance 0.5 if half of its tiles are
+     * expected to be blank.
+     */
+    public synchronized void setCompressionFactor(int zoom, float factor) {
+        checkZoom(zoom);
+        if (factor <= 0) {
+            throw new IllegalArgumentException("The compression factor must be positive: " + factor);
+        }
+        compressionFactors[zoom] = factor;
+    }
+
+    /**
+     * @return the predicted size of a tile of the zoom level, before the compression factor.
+     * Zoom levels without samples use the samples of the nearest zoom level that has some.
+     */
+    public synchronized long getTileBytes(int zoom) {
+        checkZoom(zoom);
+        for (int distance = 0; distance <= TileId.MAXIMUM_ZOOM; distance++) {
+            if (zoom - distance >= 0 && sampledTiles[zoom - distance] > 0) {
+                return sampledBytes[zoom - distance] / sampledTiles[zoom - distance];
+            }
+            if (zoom + distance <= TileId.MAXIMUM_ZOOM && sampledTiles[zoom + distance] > 0) {
+                return sampledBytes[zoom + distance] / sampledTiles[zoom + distance];
+            }
+        }
+        return DEFAULT_TILE_BYTES;
+    }
+
+    /**
+     * @return the measured throughput of a single connection
+     */
+    public synchronized long getBytesPerSecond() {
+        if (measuredMillis == 0) {
+            return DEFAULT_BYTES_PER_SECOND;
+        }
+        return Math.max(1, measuredBytes * 1000 / measuredMillis);
+    }
+
+    /**
+     * Estimate a download of the tiles of a region.
+     *
+     * @param connections the number of resources downloaded in parallel
+     */
+    public Estimate estimate(CoordinateRegion region, int minimumZ, int maximumZ, int connections) {
+        checkZoom(minimumZ);
+        checkZoom(maximumZ);
+        if (minimumZ > maximumZ) {
+            throw new IllegalArgumentException("minimumZ > maximumZ: " + minimumZ + " > " + maximumZ);
+        }
+        return estimate(TileCover.forRegion(region, minimumZ, maximumZ), connections);
+    }
+
+    /**
+     * Estimate a download of the tiles of a cover.
+     *
+     * @param connections the number of resources downloaded in parallel
+     */
+    public synchronized Estimate estimate(TileCover cover, int connections) {
+        long[] tileCounts = new long[TileId.MAXIMUM_ZOOM + 1];
+        for (TileRange range : cover.getRanges()) {
+            tileCounts[range.getZ()] += range.size();
+        }
+
+        // In double, since world covers at high zoom overflow a long of bytes times 1000. The
+        // casts saturate at Long.MAX_VALUE.
+        double bytes = 0;
+        for (int zoom = 0; zoom <= TileId.MAXIMUM_ZOOM; zoom++) {
+            if (tileCounts[zoom] > 0) {
+                bytes += (double) tileCounts[zoom] * getTileBytes(zoom) * compressionFactors[zoom];
+            }
+        }
+        double millis = bytes * 1000.0 / ((double) getBytesPerSecond() * Math.max(1, connections));
+        return new Estimate(tileCounts, cover.size(), (long) bytes, (long) millis);
+    }
+
+    /**
+     * @return the number of tiles covering the region at a zoom level
+     */
+    public static long getTileCount(CoordinateRegion region, int zoom) {
+        return TileRange.forRegion(region, zoom).size();
+    }
+
+    private static void checkZoom(int zoom) {
+        if (zoom < 0 || zoom > TileId.MAXIMUM_ZOOM) {
+            throw new IllegalArgumentException("Zoom level out of range: " + zoom);
+        }
+    }
+
+    /**
+     * The predicted size of a download.
+     */
+    public static final class Estimate {
+        private final long[] tileCounts;
+        private final long tileCount;
+        private final long bytes;
+        private final long millis;
+
+        Estimate(long[] tileCounts, long tileCount, long bytes, long millis) {
+            this.tileCounts = tileCounts;
+            this.tileCount = tileCount;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public long getTileCount() {
+            return tileCount;
+        }
+
+        /**
+         * @return the number of tiles at a zoom level
+         */
+        public long getTileCount(int zoom) {
+            return (zoom >= 0 && zoom < tileCounts.length) ? tileCounts[zoom] : 0;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "Estimate{tiles=" + tileCount + ", bytes=" + bytes + ", millis=" + millis + "}";
+        }
+    }
+}
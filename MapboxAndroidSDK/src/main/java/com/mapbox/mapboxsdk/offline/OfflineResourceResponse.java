@@ -0,0 +1,90 @@
+package com.mapbox.mapboxsdk.offline;
+
+import com.mapbox.mapboxsdk.util.NetworkUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The body of a downloaded offline resource along with the validators the server sent for it,
+ * which are stored so that the resource can later be fetched again only if it changed.
+ */
+final class OfflineResourceResponse {
+
+    private static final int CONNECT_TIMEOUT_MS = 60000;
+
+    final byte[] data;
+    final String etag;
+    final String lastModified;
+
+    private OfflineResourceResponse(byte[] data, String etag, String lastModified) {
+        this.data = data;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Fetch a resource.
+     *
+     * @param url the url
+     * @return the response
+     * @throws OfflineMapDownloader.HttpStatusException if the response is not 200 OK
+     * @throws IOException if the request fails
+     */
+    static OfflineResourceResponse fetch(final String url) throws IOException {
+        return fetch(url, null, null);
+    }
+
+    /**
+     * Fetch a resource unless it is still the one described by the validators.
+     *
+     * @param url the url
+     * @param etag the ETag of the copy already stored, or null
+     * @param lastModified the Last-Modified date of the copy already stored, or null
+     * @return the response, or null if the server answered 304 Not Modified
+     * @throws OfflineMapDownloader.HttpStatusException if the response is neither 200 OK nor
+     * 304 Not Modified
+     * @throws IOException if the request fails
+     */
+    static OfflineResourceResponse fetch(final String url, final String etag, final String lastModified)
+            throws IOException {
+        HttpURLConnection conn = NetworkUtils.getHttpURLConnection(new URL(url));
+        InputStream is = null;
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            conn.connect();
+            int rc = conn.getResponseCode();
+            if (rc == HttpURLConnection.HTTP_NOT_MODIFIED && (etag != null || lastModified != null)) {
+                return null;
+            }
+            if (rc != HttpURLConnection.HTTP_OK) {
+                throw new OfflineMapDownloader.HttpStatusException(rc,
+                        String.format("HTTP Error connection.  Response Code = %d", rc));
+            }
+
+            ByteArrayOutputStream bais = new ByteArrayOutputStream();
+            is = conn.getInputStream();
+            // Read 4K at a time
+            byte[] byteChunk = new byte[4096];
+            int n;
+            while ((n = is.read(byteChunk)) > 0) {
+                bais.write(byteChunk, 0, n);
+            }
+            return new OfflineResourceResponse(bais.toByteArray(),
+                    conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+            conn.disconnect();
+        }
+    }
+}
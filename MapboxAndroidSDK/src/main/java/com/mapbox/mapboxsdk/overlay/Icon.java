@@ -11,6 +11,7 @@ import com.mapbox.mapboxsdk.util.NetworkUtils;
 import com.mapbox.mapboxsdk.util.constants.UtilConstants;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
@@ -211,8 +212,13 @@ public class Icon implements MapboxConstants {
                         Log.d(TAG, "Maki url to load = '" + this.url + "'");
                     }
                     HttpURLConnection connection = NetworkUtils.getHttpURLConnection(new URL(url));
-                    // Note, sIconCache cannot be null..
-                    result = sIconCache.put(this.url, connection.getInputStream());
+                    InputStream is = connection.getInputStream();
+                    try {
+                        // Note, sIconCache cannot be null..
+                        result = sIconCache.put(this.url, is);
+                    } finally {
+                        is.close();
+                    }
                 } catch (IOException e) {
                     Log.e(TAG, "doInBackground: Unable to fetch icon from: " + this.url);
                 }
@@ -0,0 +1,44 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, to collect query results without boxing.
+ */
+final class IntArray {
+    private int[] mValues;
+    private int mSize = 0;
+
+    IntArray(final int capacity) {
+        mValues = new int[capacity];
+    }
+
+    void add(final int value) {
+        if (mSize == mValues.length) {
+            final int[] values = new int[mValues.length * 2];
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            mValues = values;
+        }
+        mValues[mSize++] = value;
+    }
+
+    int pop() {
+        return mValues[--mSize];
+    }
+
+    int get(final int index) {
+        return mValues[index];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    void sort() {
+        Arrays.sort(mValues, 0, mSize);
+    }
+}
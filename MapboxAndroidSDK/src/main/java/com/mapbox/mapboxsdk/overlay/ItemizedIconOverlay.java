@@ -2,12 +2,8 @@ package com.mapbox.mapboxsdk.overlay;
 
 import android.content.Context;
 import android.graphics.Point;
-import android.util.DisplayMetrics;
 import android.view.MotionEvent;
-import android.view.WindowManager;
-import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.views.MapView;
-import com.mapbox.mapboxsdk.views.util.Projection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -18,7 +14,6 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
     protected final List<Marker> mItemList;
     protected OnItemGestureListener<Marker> mOnItemGestureListener;
     private int mDrawnItemsLimit = Integer.MAX_VALUE;
-    private MapView view;
     private Context context;
 
     public ItemizedIconOverlay(final Context pContext, final List<Marker> pList,
@@ -71,7 +66,9 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
     public boolean addItem(final Marker item) {
         item.setParentHolder(this);
         final boolean result = mItemList.add(item);
-        populate();
+        if (mItemList.size() <= mDrawnItemsLimit) {
+            populateAddedItem(item);
+        }
         return result;
     }
 
@@ -90,19 +87,20 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
     private boolean activateSelectedItems(final MotionEvent event,
                                           final MapView mapView,
                                           final ActiveItem task) {
-        final Projection projection = mapView.getProjection();
-        final float x = event.getX();
-        final float y = event.getY();
-        for (int i = 0; i < this.mItemList.size(); ++i) {
-            final Marker item = getItem(i);
-            if (markerHitTest(item, projection, x, y)) {
-                if (task.run(i)) {
+        final ArrayList<Marker> hits = mHitItems;
+        getItemsAt(mapView.getProjection(), event.getX(), event.getY(), hits);
+        try {
+            for (int i = 0; i < hits.size(); i++) {
+                final Marker item = hits.get(i);
+                if (task.run(indexOfItem(item))) {
                     this.setFocus(item);
                     return true;
                 }
             }
+            return false;
+        } finally {
+            hits.clear();
         }
-        return false;
     }
 
     public boolean addItems(final List items) {
@@ -111,8 +109,16 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
                 ((Marker) item).setParentHolder(this);
             }
         }
+        final int size = mItemList.size();
         final boolean result = mItemList.addAll(items);
-        populate();
+        if (mItemList.size() <= mDrawnItemsLimit) {
+            // All new items are drawn, index them after the others
+            for (int i = size; i < mItemList.size(); i++) {
+                populateAddedItem(mItemList.get(i));
+            }
+        } else {
+            populate();
+        }
         return result;
     }
 
@@ -136,23 +142,37 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
     }
 
     public boolean removeItem(final Marker item) {
+        final boolean wasLimited = mItemList.size() > mDrawnItemsLimit;
         final boolean result = mItemList.remove(item);
         if (result) {
             onItemRemoved(item);
         }
-        populate();
+        repopulateAfterRemoval(item, wasLimited);
         return result;
     }
 
     public Marker removeItem(final int position) {
+        final boolean wasLimited = mItemList.size() > mDrawnItemsLimit;
         final Marker item = mItemList.remove(position);
         if (item != null) {
             onItemRemoved(item);
         }
-        populate();
+        repopulateAfterRemoval(item, wasLimited);
         return item;
     }
 
+    /**
+     * Removing an item from a list longer than the drawn items limit brings another item in,
+     * which takes a full {@link #populate()}.
+     */
+    private void repopulateAfterRemoval(final Marker item, final boolean wasLimited) {
+        if (wasLimited) {
+            populate();
+        } else if (item != null) {
+            populateRemovedItem(item);
+        }
+    }
+
     public void removeItems(final List items) {
         for (Object item : items) {
             if (item instanceof Marker) {
@@ -183,7 +203,7 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
                 }
                 return onSingleTapUpHelper(index, that.mItemList.get(index), mapView);
             }
-        }));
+        })) || expandClusterAt(mapView, event.getX(), event.getY());
     }
 
     protected boolean onSingleTapUpHelper(final int index, final Marker item,
@@ -209,29 +229,6 @@ public class ItemizedIconOverlay extends ItemizedOverlay {
         return this.mOnItemGestureListener.onItemLongPress(index, item);
     }
 
-    private double getThreshold() {
-        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-        DisplayMetrics dm = new DisplayMetrics();
-        wm.getDefaultDisplay().getMetrics(dm);
-        return (double) dm.widthPixels;
-    }
-
-    private ArrayList<LatLng> getCoordinateList(List<Marker> list) {
-        ArrayList<LatLng> theList = new ArrayList<LatLng>();
-        for (Marker element : list) {
-            theList.add(element.getPoint());
-        }
-        return theList;
-    }
-
-    private float screenX(Marker item) {
-        return view.getProjection().toMapPixels(item.getPoint(), null).x;
-    }
-
-    private float screenY(Marker item) {
-        return view.getProjection().toMapPixels(item.getPoint(), null).y;
-    }
-
     public int getDrawnItemsLimit() {
         return this.mDrawnItemsLimit;
     }
@@ -2,13 +2,19 @@
 package com.mapbox.mapboxsdk.overlay;
 
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.MotionEvent;
 
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.tileprovider.modules.ConfigurablePriorityThreadFactory;
 import com.mapbox.mapboxsdk.views.MapView;
 import com.mapbox.mapboxsdk.views.safecanvas.ISafeCanvas;
 import com.mapbox.mapboxsdk.views.safecanvas.ISafeCanvas.UnsafeCanvasHandler;
@@ -16,6 +22,9 @@ import com.mapbox.mapboxsdk.views.safecanvas.SafePaint;
 import com.mapbox.mapboxsdk.views.util.Projection;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Draws a list of {@link Marker} as markers to a map. The item with the lowest index is drawn
@@ -29,7 +38,45 @@ import java.util.ArrayList;
  */
 public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay.Snappable {
 
+    private static final String TAG = "ItemizedOverlay";
+
+    private static final int DEFAULT_CLUSTER_RADIUS = 60;
+    private static final int DEFAULT_CLUSTER_MAX_ZOOM = 16;
+    private static final int CLUSTER_CIRCLE_RADIUS = 36;
+
+    // Clusters are built off the main thread, one overlay at a time
+    private static ExecutorService sClusterExecutor;
+    private static Handler sMainHandler;
+
     private final ArrayList<Marker> mInternalItemList;
+    // The items by position, so that drawing and hit-testing only look at those nearby
+    private final MarkerIndex mIndex = new MarkerIndex();
+    private long mNextSequence = 0;
+    // Scratch objects reused across frames
+    private final ArrayList<MarkerIndex.Entry> mQueryResults = new ArrayList<MarkerIndex.Entry>();
+    private final PointF mScreenOffset = new PointF();
+    private final PointF mOrigin = new PointF();
+    private final RectF mItemBounds = new RectF();
+    private final RectF mViewportBounds = new RectF();
+    private final RectF mHitBounds = new RectF();
+    private final Point mDrawPosition = new Point();
+    private final double[] mQueryRect = new double[4];
+    // The items under a tap, also used by ItemizedIconOverlay; cleared after each event
+    final ArrayList<Marker> mHitItems = new ArrayList<Marker>();
+
+    // The clusters drawn instead of the items, see setClusteringEnabled(boolean)
+    private boolean mClusteringEnabled = false;
+    private int mClusterRadius = DEFAULT_CLUSTER_RADIUS;
+    private int mClusterMaxZoom = DEFAULT_CLUSTER_MAX_ZOOM;
+    private MarkerClusters mClusters;
+    private boolean mClusterBuildRunning = false;
+    private boolean mClustersDirty = false;
+    // The map to redraw once clusters are built
+    private MapView mClusterMapView;
+    private final IntArray mClusterResults = new IntArray(64);
+    private final IntArray mClusterMarkers = new IntArray(64);
+    private final IntArray mClusterStack = new IntArray(48);
+    private final SafePaint mClusterPaint;
     protected boolean mDrawFocusedItem = true;
     private Marker mFocusedItem;
     private boolean mPendingFocusChangedEvent = false;
@@ -58,8 +105,14 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
             mClusterTextPaint.setTextAlign(Paint.Align.CENTER);
             mClusterTextPaint.setTextSize(30);
             mClusterTextPaint.setFakeBoldText(true);
+            mClusterTextPaint.setColor(Color.WHITE);
+            mClusterTextPaint.setAntiAlias(true);
         }
 
+        mClusterPaint = new SafePaint();
+        mClusterPaint.setColor(Color.argb(220, 56, 135, 190));
+        mClusterPaint.setAntiAlias(true);
+
         mInternalItemList = new ArrayList<Marker>();
     }
 
@@ -99,20 +152,32 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
         mPendingFocusChangedEvent = false;
 
         final Projection pj = mapView.getProjection();
-        final int size = this.mInternalItemList.size() - 1;
 
-        final RectF bounds =
-                new RectF(0, 0, mapView.getMeasuredWidth(), mapView.getMeasuredHeight());
+        final RectF bounds = mViewportBounds;
+        bounds.set(0, 0, mapView.getMeasuredWidth(), mapView.getMeasuredHeight());
         pj.rotateRect(bounds);
         final float mapScale = 1 / mapView.getScale();
 
-    /* Draw in backward cycle, so the items with the least index are on the front. */
-        for (int i = size; i >= 0; i--) {
-            final Marker item = getItem(i);
-            if (item == mFocusedItem) {
-                continue;
+        if (mClusteringEnabled) {
+            mClusterMapView = mapView;
+            // Nothing is drawn until the first clusters are built
+            if (mClusters != null) {
+                drawClusters(canvas, pj, mapView.getMapOrientation(), bounds, mapScale);
             }
-            onDrawItem(canvas, item, pj, mapView.getMapOrientation(), bounds, mapScale);
+        } else {
+            // Only the items near the viewport can be visible
+            final ArrayList<MarkerIndex.Entry> candidates = queryIndex(pj, bounds.left, bounds.top,
+                    bounds.right, bounds.bottom, mIndex.getMaximumMarkerSize());
+
+        /* Draw in backward cycle, so the items with the least index are on the front. */
+            for (int i = candidates.size() - 1; i >= 0; i--) {
+                final Marker item = candidates.get(i).mMarker;
+                if (item == mFocusedItem) {
+                    continue;
+                }
+                onDrawItem(canvas, item, pj, mapView.getMapOrientation(), bounds, mapScale);
+            }
+            candidates.clear();
         }
         if (mFocusedItem != null) {
             onDrawItem(canvas, mFocusedItem, pj, mapView.getMapOrientation(), bounds, mapScale);
@@ -129,10 +194,407 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
         final int size = size();
         mInternalItemList.clear();
         mInternalItemList.ensureCapacity(size);
+        mIndex.clear();
         for (int a = 0; a < size; a++) {
-            mInternalItemList.add(createItem(a));
+            final Marker item = createItem(a);
+            // Items report their moves to the overlay that indexes them
+            item.setParentHolder(this);
+            mInternalItemList.add(item);
+            mIndex.add(item, a);
+        }
+        mNextSequence = size;
+        scheduleClusterBuild();
+    }
+
+    /**
+     * Add an item created by {@link #createItem(int)} for the last index, without creating the
+     * others again as {@link #populate()} does.
+     */
+    protected final void populateAddedItem(final Marker item) {
+        item.setParentHolder(this);
+        mInternalItemList.add(item);
+        mIndex.add(item, mNextSequence++);
+        scheduleClusterBuild();
+    }
+
+    /**
+     * Remove an item without creating the others again as {@link #populate()} does. The
+     * remaining items keep their order.
+     */
+    protected final void populateRemovedItem(final Marker item) {
+        mIndex.remove(item);
+        mInternalItemList.remove(item);
+        scheduleClusterBuild();
+    }
+
+    /**
+     * Called by an item whose position or image changed.
+     */
+    void onItemChanged(final Marker item) {
+        if (mIndex.update(item)) {
+            scheduleClusterBuild();
+        }
+    }
+
+    /**
+     * Group items that are close to each other on screen into clusters, drawn as a circle with
+     * the number of items they hold. Tapping a cluster zooms the map in until it splits up.
+     * <p/>
+     * Clusters are computed for every zoom level at once, on a background thread, whenever items
+     * are added, removed or moved. Until a computation is done, the clusters of the previous one
+     * are drawn, and items added since are not.
+     */
+    public void setClusteringEnabled(final boolean enabled) {
+        if (enabled == mClusteringEnabled) {
+            return;
+        }
+        mClusteringEnabled = enabled;
+        if (enabled) {
+            scheduleClusterBuild();
+        } else {
+            mClusters = null;
+            mClustersDirty = false;
+            mClusterMapView = null;
+        }
+    }
+
+    public boolean isClusteringEnabled() {
+        return mClusteringEnabled;
+    }
+
+    /**
+     * Set the distance under which items are grouped into a cluster.
+     *
+     * @param radius the radius, in pixels
+     */
+    public void setClusterRadius(final int radius) {
+        mClusterRadius = radius;
+        scheduleClusterBuild();
+    }
+
+    public int getClusterRadius() {
+        return mClusterRadius;
+    }
+
+    /**
+     * Set the highest zoom level at which items are clustered, all items are drawn above it.
+     */
+    public void setClusterMaxZoom(final int maxZoom) {
+        mClusterMaxZoom = maxZoom;
+        scheduleClusterBuild();
+    }
+
+    public int getClusterMaxZoom() {
+        return mClusterMaxZoom;
+    }
+
+    private void scheduleClusterBuild() {
+        if (!mClusteringEnabled) {
+            return;
+        }
+        mClustersDirty = true;
+        // A build in progress starts the next one once done
+        if (!mClusterBuildRunning) {
+            startClusterBuild();
+        }
+    }
+
+    private void startClusterBuild() {
+        mClustersDirty = false;
+        mClusterBuildRunning = true;
+
+        // Snapshot the items, the build doesn't touch them
+        final int size = mInternalItemList.size();
+        Marker[] markers = new Marker[size];
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            final Marker item = mInternalItemList.get(i);
+            final LatLng point = item.getPoint();
+            if (point == null) {
+                continue;
+            }
+            markers[count] = item;
+            xs[count] = MarkerIndex.projectX(point.getLongitude());
+            ys[count] = MarkerIndex.projectY(point.getLatitude());
+            count++;
+        }
+        if (count < size) {
+            final Marker[] positioned = new Marker[count];
+            System.arraycopy(markers, 0, positioned, 0, count);
+            markers = positioned;
+        }
+        final Marker[] snapshot = markers;
+        final double[] snapshotX = xs;
+        final double[] snapshotY = ys;
+        final int radius = mClusterRadius;
+        final int maxZoom = mClusterMaxZoom;
+        final int tileSize = Projection.getTileSize();
+
+        getClusterExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                MarkerClusters clusters = null;
+                try {
+                    clusters = MarkerClusters.build(snapshot, snapshotX, snapshotY, radius,
+                            tileSize, 0, maxZoom);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error clustering items", e);
+                } finally {
+                    final MarkerClusters result = clusters;
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onClustersBuilt(result);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void onClustersBuilt(final MarkerClusters clusters) {
+        mClusterBuildRunning = false;
+        if (!mClusteringEnabled) {
+            return;
+        }
+        if (clusters != null) {
+            mClusters = clusters;
+        }
+        if (mClustersDirty) {
+            startClusterBuild();
+        }
+        if (mClusterMapView != null) {
+            mClusterMapView.invalidate();
+        }
+    }
+
+    private static synchronized ExecutorService getClusterExecutor() {
+        if (sClusterExecutor == null) {
+            sClusterExecutor = Executors.newSingleThreadExecutor(
+                    new ConfigurablePriorityThreadFactory(Thread.MIN_PRIORITY, "ItemizedOverlay clustering"));
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sClusterExecutor;
+    }
+
+    /**
+     * Draw the clusters and single items of the zoom level around the viewport. Clusters are
+     * drawn below the items, and the items in the same order as when not clustering.
+     */
+    private void drawClusters(final ISafeCanvas canvas, final Projection projection,
+            final float aMapOrientation, final RectF bounds, final float mapScale) {
+        final MarkerClusters clusters = mClusters;
+        final MarkerClusters.Level level = clusters.getLevel(projection.getZoomLevel());
+        final IntArray items = queryClusters(projection, level, bounds.left,
+                bounds.top, bounds.right, bounds.bottom,
+                Math.max(CLUSTER_CIRCLE_RADIUS, mIndex.getMaximumMarkerSize()));
+
+        final double mapSize = 2.0 * projection.getHalfWorldSize();
+        final double halfWorldSize = projection.getHalfWorldSize();
+        final IntArray markers = mClusterMarkers;
+        markers.clear();
+        for (int i = 0; i < items.size(); i++) {
+            final int item = items.get(i);
+            if (level.mPointCount[item] == 1) {
+                markers.add(level.mMarkerIndex[item]);
+                continue;
+            }
+            final float x = (float) (level.mX[item] * mapSize - halfWorldSize);
+            final float y = (float) (level.mY[item] * mapSize - halfWorldSize);
+            onDrawCluster(canvas, x, y, level.mPointCount[item], aMapOrientation, mapScale);
+        }
+        items.clear();
+
+        markers.sort();
+        for (int i = markers.size() - 1; i >= 0; i--) {
+            final Marker item = clusters.getMarker(markers.get(i));
+            // Items removed since the clusters were built
+            if (item == mFocusedItem || !mIndex.contains(item)) {
+                continue;
+            }
+            onDrawItem(canvas, item, projection, aMapOrientation, bounds, mapScale);
         }
+        markers.clear();
+    }
 
+    /**
+     * Draws a cluster centered on map coordinates.
+     *
+     * @param canvas what the cluster is drawn upon.
+     * @param x the x map coordinate of the cluster center
+     * @param y the y map coordinate of the cluster center
+     * @param count the number of items in the cluster
+     * @param aMapOrientation
+     * @param mapScale
+     */
+    protected void onDrawCluster(final ISafeCanvas canvas, final float x, final float y,
+            final int count, final float aMapOrientation, final float mapScale) {
+        canvas.save();
+        canvas.scale(mapScale, mapScale, x, y);
+        canvas.rotate(-aMapOrientation, x, y);
+        canvas.drawCircle(x, y, CLUSTER_CIRCLE_RADIUS, mClusterPaint);
+        canvas.drawText(String.valueOf(count), x, y + mClusterTextPaint.getTextSize() / 3,
+                mClusterTextPaint);
+        canvas.restore();
+    }
+
+    /**
+     * If clustering is enabled and there is a cluster under a point of the screen, zoom the map
+     * in on it until it splits up.
+     *
+     * @return true if there was a cluster
+     */
+    protected final boolean expandClusterAt(final MapView mapView, final float x, final float y) {
+        final MarkerClusters clusters = mClusters;
+        if (!mClusteringEnabled || clusters == null) {
+            return false;
+        }
+        final Projection projection = mapView.getProjection();
+        final MarkerClusters.Level level = clusters.getLevel(projection.getZoomLevel());
+        final IntArray items = queryClusters(projection, level, x, y, x, y,
+                CLUSTER_CIRCLE_RADIUS);
+
+        // The cluster closest to the point, in normalized coordinates
+        final double pointX = (mQueryRect[0] + mQueryRect[2]) / 2;
+        final double pointY = (mQueryRect[1] + mQueryRect[3]) / 2;
+        final double radius = CLUSTER_CIRCLE_RADIUS / (2.0 * projection.getHalfWorldSize());
+        int closest = -1;
+        double closestDistance = radius * radius;
+        for (int i = 0; i < items.size(); i++) {
+            final int item = items.get(i);
+            if (level.mPointCount[item] == 1) {
+                continue;
+            }
+            final double dx = level.mX[item] - pointX;
+            final double dy = level.mY[item] - pointY;
+            final double distance = dx * dx + dy * dy;
+            if (distance <= closestDistance) {
+                closest = item;
+                closestDistance = distance;
+            }
+        }
+        items.clear();
+        if (closest == -1) {
+            return false;
+        }
+        mapView.getController().setZoomAnimated(level.mExpansionZoom[closest],
+                MarkerIndex.unproject(level.mX[closest], level.mY[closest]), true, true);
+        return true;
+    }
+
+    /**
+     * Find the indexed items whose position is within a screen rectangle extended by a margin,
+     * sorted by index.
+     *
+     * @return the shared result list, to be cleared by the caller once done
+     */
+    private ArrayList<MarkerIndex.Entry> queryIndex(final Projection projection, final float left,
+            final float top, final float right, final float bottom, final float margin) {
+        final double[] rect = toNormalizedRect(projection, left, top, right, bottom, margin);
+        final ArrayList<MarkerIndex.Entry> results = mQueryResults;
+        results.clear();
+        mIndex.query(rect[0], rect[1], rect[2], rect[3], results);
+        Collections.sort(results, MarkerIndex.SEQUENCE_ORDER);
+        return results;
+    }
+
+    /**
+     * Find the items of a cluster level whose position is within a screen rectangle extended by
+     * a margin, in no particular order.
+     *
+     * @return the shared result list, to be cleared by the caller once done
+     */
+    private IntArray queryClusters(final Projection projection,
+            final MarkerClusters.Level level, final float left, final float top, final float right,
+            final float bottom, final float margin) {
+        final double[] rect = toNormalizedRect(projection, left, top, right, bottom, margin);
+        final IntArray results = mClusterResults;
+        results.clear();
+        level.query(rect[0], rect[1], rect[2], rect[3], results, mClusterStack);
+        return results;
+    }
+
+    /**
+     * Convert a screen rectangle extended by a margin to normalized mercator coordinates.
+     *
+     * @return the shared rectangle, as min x, min y, max x and max y
+     */
+    private double[] toNormalizedRect(final Projection projection, final float left,
+            final float top, final float right, final float bottom, final float margin) {
+        // Screen coordinates are map pixels plus this offset
+        projection.toPixels(mOrigin, mScreenOffset);
+        final double mapSize = 2.0 * projection.getHalfWorldSize();
+        final double shiftX = projection.getHalfWorldSize() - mScreenOffset.x;
+        final double shiftY = projection.getHalfWorldSize() - mScreenOffset.y;
+        mQueryRect[0] = (left - margin + shiftX) / mapSize;
+        mQueryRect[1] = (top - margin + shiftY) / mapSize;
+        mQueryRect[2] = (right + margin + shiftX) / mapSize;
+        mQueryRect[3] = (bottom + margin + shiftY) / mapSize;
+        return mQueryRect;
+    }
+
+    /**
+     * Find the items under a point of the screen, in index order, so the topmost one comes
+     * first.
+     *
+     * @param out receives the items
+     */
+    protected void getItemsAt(final Projection projection, final float x, final float y,
+            final ArrayList<Marker> out) {
+        if (mClusteringEnabled) {
+            getClusteredItemsAt(projection, x, y, out);
+            return;
+        }
+        final ArrayList<MarkerIndex.Entry> candidates = queryIndex(projection, x, y, x, y,
+                mIndex.getMaximumMarkerSize());
+        for (int i = 0; i < candidates.size(); i++) {
+            final Marker item = candidates.get(i).mMarker;
+            if (markerHitTest(item, projection, x, y)) {
+                out.add(item);
+            }
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Find the items drawn on their own, outside of clusters, under a point of the screen.
+     */
+    private void getClusteredItemsAt(final Projection projection, final float x, final float y,
+            final ArrayList<Marker> out) {
+        final MarkerClusters clusters = mClusters;
+        if (clusters == null) {
+            return;
+        }
+        final MarkerClusters.Level level = clusters.getLevel(projection.getZoomLevel());
+        final IntArray items = queryClusters(projection, level, x, y, x, y,
+                mIndex.getMaximumMarkerSize());
+        final IntArray markers = mClusterMarkers;
+        markers.clear();
+        for (int i = 0; i < items.size(); i++) {
+            final int item = items.get(i);
+            if (level.mPointCount[item] == 1) {
+                markers.add(level.mMarkerIndex[item]);
+            }
+        }
+        items.clear();
+
+        markers.sort();
+        for (int i = 0; i < markers.size(); i++) {
+            final Marker item = clusters.getMarker(markers.get(i));
+            if (mIndex.contains(item) && markerHitTest(item, projection, x, y)) {
+                out.add(item);
+            }
+        }
+        markers.clear();
+    }
+
+    /**
+     * @return the index of an item, or -1 if it isn't in this overlay
+     */
+    protected final int indexOfItem(final Marker item) {
+        return mInternalItemList.indexOf(item);
     }
 
     /**
@@ -160,11 +622,12 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
 
         item.updateDrawingPosition();
         final PointF position = item.getPositionOnMap();
-        final Point roundedCoords = new Point((int) position.x, (int) position.y);
-        if (!RectF.intersects(mapBounds, item.getDrawingBounds(projection, null))) {
+        if (!RectF.intersects(mapBounds, item.getDrawingBounds(projection, mItemBounds))) {
             //dont draw item if offscreen
             return;
         }
+        final Point roundedCoords = mDrawPosition;
+        roundedCoords.set((int) position.x, (int) position.y);
 
         canvas.save();
 
@@ -195,7 +658,7 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
 
     protected boolean markerHitTest(final Marker pMarker, final Projection pProjection,
             final float pX, final float pY) {
-        RectF rect = pMarker.getDrawingBounds(pProjection, null);
+        RectF rect = pMarker.getDrawingBounds(pProjection, mHitBounds);
         rect.bottom -=
                 rect.height() / 2; //a marker drawing bounds is twice the actual size of the marker
         return rect.contains(pX, pY);
@@ -203,20 +666,22 @@ public abstract class ItemizedOverlay extends SafeDrawOverlay implements Overlay
 
     @Override
     public boolean onSingleTapConfirmed(MotionEvent e, MapView mapView) {
-        final int size = this.size();
-        final Projection projection = mapView.getProjection();
-        final float x = e.getX();
-        final float y = e.getY();
-
-        for (int i = 0; i < size; i++) {
-            final Marker item = getItem(i);
-            if (markerHitTest(item, projection, x, y)) {
+        final ArrayList<Marker> hits = mHitItems;
+        getItemsAt(mapView.getProjection(), e.getX(), e.getY(), hits);
+        try {
+            for (int i = 0; i < hits.size(); i++) {
                 // We have a hit, do we get a response from onTap?
-                if (onTap(i)) {
+                if (onTap(indexOfItem(hits.get(i)))) {
                     // We got a response so consume the event
                     return true;
                 }
             }
+        } finally {
+            hits.clear();
+        }
+
+        if (expandClusterAt(mapView, e.getX(), e.getY())) {
+            return true;
         }
 
         return super.onSingleTapConfirmed(e, mapView);
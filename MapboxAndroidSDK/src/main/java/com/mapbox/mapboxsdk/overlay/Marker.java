@@ -474,9 +474,13 @@ public class Marker {
     }
 
     /**
-     * Sets the marker to be redrawn.
+     * Sets the marker to be redrawn, and lets the overlay holding it know that its position or
+     * image may have changed.
      */
     public void invalidate() {
+        if (mParentHolder != null) {
+            mParentHolder.onItemChanged(this);
+        }
         if (mapView == null) {
             return; //not on map yet
         }
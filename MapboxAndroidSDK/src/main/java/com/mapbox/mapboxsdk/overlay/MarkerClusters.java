@@ -0,0 +1,354 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import java.util.Arrays;
+
+/**
+ * The clusters of the markers of an {@link ItemizedOverlay} for every zoom level, built once from
+ * a snapshot of the markers and then only read.
+ * <p/>
+ * This is the hierarchical greedy clustering of supercluster: the markers make up the level
+ * below the maximum zoom, and each level is made by merging every item of the level below with
+ * its neighbors within the cluster radius, starting from the maximum zoom down to the minimum.
+ * Each level is stored in its own KD-tree, so the clusters in a viewport are found in
+ * O(log n + k) whatever the zoom. Positions are spherical mercator coordinates normalized to
+ * [0, 1], as in {@link MarkerIndex}.
+ */
+final class MarkerClusters {
+
+    private static final int NODE_SIZE = 64;
+
+    private final Marker[] mMarkers;
+    private final Level[] mLevels;
+    private final int mMinZoom;
+    private final int mMaxZoom;
+
+    private MarkerClusters(final Marker[] markers, final Level[] levels, final int minZoom,
+            final int maxZoom) {
+        mMarkers = markers;
+        mLevels = levels;
+        mMinZoom = minZoom;
+        mMaxZoom = maxZoom;
+    }
+
+    /**
+     * Cluster markers. This takes O(n log n) for each zoom level, so it shouldn't run on the main
+     * thread for more than a few thousand markers.
+     *
+     * @param markers the markers, in drawing order
+     * @param xs the normalized x of each marker
+     * @param ys the normalized y of each marker
+     * @param radius the cluster radius, in pixels
+     * @param tileSize the size of a tile, in pixels
+     * @param minZoom the lowest zoom level to cluster
+     * @param maxZoom the highest zoom level to cluster, markers are all shown above it
+     */
+    static MarkerClusters build(final Marker[] markers, final double[] xs, final double[] ys,
+            final int radius, final int tileSize, final int minZoom, final int maxZoom) {
+        final int count = markers.length;
+        final int[] pointCounts = new int[count];
+        final int[] markerIndices = new int[count];
+        for (int i = 0; i < count; i++) {
+            pointCounts[i] = 1;
+            markerIndices[i] = i;
+        }
+
+        final Level[] levels = new Level[maxZoom - minZoom + 2];
+        Level level = new Level(count, xs.clone(), ys.clone(), pointCounts, markerIndices,
+                new int[count]);
+        levels[levels.length - 1] = level;
+        for (int zoom = maxZoom; zoom >= minZoom; zoom--) {
+            level = cluster(level, zoom, (double) radius / ((double) tileSize * (1L << zoom)));
+            levels[zoom - minZoom] = level;
+        }
+        return new MarkerClusters(markers, levels, minZoom, maxZoom);
+    }
+
+    /**
+     * Make the level of a zoom from the level above it, or return the level above if none of its
+     * items are close enough to merge, which is the case of most levels at high zoom.
+     */
+    private static Level cluster(final Level above, final int zoom, final double radius) {
+        final int count = above.mSize;
+        final boolean[] consumed = new boolean[count];
+        final IntArray neighbors = new IntArray(16);
+        final IntArray stack = new IntArray(48);
+
+        final double[] xs = new double[count];
+        final double[] ys = new double[count];
+        final int[] pointCounts = new int[count];
+        final int[] markerIndices = new int[count];
+        final int[] expansionZooms = new int[count];
+        int size = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (consumed[i]) {
+                continue;
+            }
+            consumed[i] = true;
+
+            final double x = above.mX[i];
+            final double y = above.mY[i];
+            int points = above.mPointCount[i];
+            double weightedX = x * points;
+            double weightedY = y * points;
+            boolean merged = false;
+
+            neighbors.clear();
+            above.within(x, y, radius, neighbors, stack);
+            for (int n = 0; n < neighbors.size(); n++) {
+                final int neighbor = neighbors.get(n);
+                if (consumed[neighbor]) {
+                    continue;
+                }
+                consumed[neighbor] = true;
+                final int neighborPoints = above.mPointCount[neighbor];
+                points += neighborPoints;
+                weightedX += above.mX[neighbor] * neighborPoints;
+                weightedY += above.mY[neighbor] * neighborPoints;
+                merged = true;
+            }
+
+            if (merged) {
+                // The cluster center is the centroid of its markers
+                xs[size] = weightedX / points;
+                ys[size] = weightedY / points;
+                pointCounts[size] = points;
+                markerIndices[size] = -1;
+                expansionZooms[size] = zoom + 1;
+            } else {
+                xs[size] = x;
+                ys[size] = y;
+                pointCounts[size] = points;
+                markerIndices[size] = above.mMarkerIndex[i];
+                expansionZooms[size] = above.mExpansionZoom[i];
+            }
+            size++;
+        }
+
+        if (size == count) {
+            return above;
+        }
+        return new Level(size, Arrays.copyOf(xs, size), Arrays.copyOf(ys, size),
+                Arrays.copyOf(pointCounts, size), Arrays.copyOf(markerIndices, size),
+                Arrays.copyOf(expansionZooms, size));
+    }
+
+    /**
+     * @return the level to draw at a zoom level
+     */
+    Level getLevel(final float zoom) {
+        final int z = Math.max(mMinZoom, Math.min((int) Math.floor(zoom), mMaxZoom + 1));
+        return mLevels[z - mMinZoom];
+    }
+
+    Marker getMarker(final int markerIndex) {
+        return mMarkers[markerIndex];
+    }
+
+    /**
+     * The markers and clusters shown at a zoom level. An item is either a single marker, with a
+     * point count of 1, or a cluster.
+     * <p/>
+     * The items are sorted in place into a static KD-tree, as in kdbush: the middle item of each
+     * range splits it along alternating axes, down to ranges of node size items.
+     */
+    static final class Level {
+        final int mSize;
+        final double[] mX;
+        final double[] mY;
+        final int[] mPointCount;
+        // The index of the marker of a single marker item, -1 for a cluster
+        final int[] mMarkerIndex;
+        // The zoom level at which a cluster splits up
+        final int[] mExpansionZoom;
+
+        Level(final int size, final double[] xs, final double[] ys, final int[] pointCounts,
+                final int[] markerIndices, final int[] expansionZooms) {
+            mSize = size;
+            mX = xs;
+            mY = ys;
+            mPointCount = pointCounts;
+            mMarkerIndex = markerIndices;
+            mExpansionZoom = expansionZooms;
+            sort(0, size - 1, 0);
+        }
+
+        private double coordinate(final int i, final int axis) {
+            return axis == 0 ? mX[i] : mY[i];
+        }
+
+        private void sort(final int left, final int right, final int axis) {
+            if (right - left <= NODE_SIZE) {
+                return;
+            }
+            final int middle = (left + right) >> 1;
+            select(middle, left, right, axis);
+            sort(left, middle - 1, 1 - axis);
+            sort(middle + 1, right, 1 - axis);
+        }
+
+        /**
+         * Floyd-Rivest selection: put the k-th item along an axis in place, with smaller ones
+         * before and larger ones after it.
+         */
+        private void select(final int k, int left, int right, final int axis) {
+            while (right > left) {
+                if (right - left > 600) {
+                    final int n = right - left + 1;
+                    final int m = k - left + 1;
+                    final double z = Math.log(n);
+                    final double s = 0.5 * Math.exp(2 * z / 3);
+                    final double sd = 0.5 * Math.sqrt(z * s * (n - s) / n) * (m - n / 2.0 < 0 ? -1 : 1);
+                    final int newLeft = (int) Math.max(left, Math.floor(k - m * s / n + sd));
+                    final int newRight = (int) Math.min(right, Math.floor(k + (n - m) * s / n + sd));
+                    select(k, newLeft, newRight, axis);
+                }
+
+                final double t = coordinate(k, axis);
+                int i = left;
+                int j = right;
+                swap(left, k);
+                if (coordinate(right, axis) > t) {
+                    swap(left, right);
+                }
+                while (i < j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                    while (coordinate(i, axis) < t) {
+                        i++;
+                    }
+                    while (coordinate(j, axis) > t) {
+                        j--;
+                    }
+                }
+                if (coordinate(left, axis) == t) {
+                    swap(left, j);
+                } else {
+                    j++;
+                    swap(j, right);
+                }
+                if (j <= k) {
+                    left = j + 1;
+                }
+                if (k <= j) {
+                    right = j - 1;
+                }
+            }
+        }
+
+        private void swap(final int i, final int j) {
+            final double x = mX[i];
+            mX[i] = mX[j];
+            mX[j] = x;
+            final double y = mY[i];
+            mY[i] = mY[j];
+            mY[j] = y;
+            final int pointCount = mPointCount[i];
+            mPointCount[i] = mPointCount[j];
+            mPointCount[j] = pointCount;
+            final int markerIndex = mMarkerIndex[i];
+            mMarkerIndex[i] = mMarkerIndex[j];
+            mMarkerIndex[j] = markerIndex;
+            final int expansionZoom = mExpansionZoom[i];
+            mExpansionZoom[i] = mExpansionZoom[j];
+            mExpansionZoom[j] = expansionZoom;
+        }
+
+        /**
+         * Add the items whose position lies in a rectangle, in no particular order.
+         *
+         * @param stack scratch space for the traversal, reused across calls to avoid allocating
+         */
+        void query(final double minX, final double minY, final double maxX, final double maxY,
+                final IntArray out, final IntArray stack) {
+            stack.clear();
+            stack.add(0);
+            stack.add(mSize - 1);
+            stack.add(0);
+            while (stack.size() > 0) {
+                final int axis = stack.pop();
+                final int right = stack.pop();
+                final int left = stack.pop();
+
+                if (right - left <= NODE_SIZE) {
+                    for (int i = left; i <= right; i++) {
+                        if (mX[i] >= minX && mX[i] <= maxX && mY[i] >= minY && mY[i] <= maxY) {
+                            out.add(i);
+                        }
+                    }
+                    continue;
+                }
+
+                final int middle = (left + right) >> 1;
+                final double x = mX[middle];
+                final double y = mY[middle];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                    out.add(middle);
+                }
+                if (axis == 0 ? minX <= x : minY <= y) {
+                    stack.add(left);
+                    stack.add(middle - 1);
+                    stack.add(1 - axis);
+                }
+                if (axis == 0 ? maxX >= x : maxY >= y) {
+                    stack.add(middle + 1);
+                    stack.add(right);
+                    stack.add(1 - axis);
+                }
+            }
+        }
+
+        /**
+         * Add the items within a distance of a point, in no particular order.
+         *
+         * @param stack scratch space for the traversal, reused across calls to avoid allocating
+         */
+        void within(final double qx, final double qy, final double r, final IntArray out,
+                final IntArray stack) {
+            final double r2 = r * r;
+            stack.clear();
+            stack.add(0);
+            stack.add(mSize - 1);
+            stack.add(0);
+            while (stack.size() > 0) {
+                final int axis = stack.pop();
+                final int right = stack.pop();
+                final int left = stack.pop();
+
+                if (right - left <= NODE_SIZE) {
+                    for (int i = left; i <= right; i++) {
+                        if (squareDistance(mX[i], mY[i], qx, qy) <= r2) {
+                            out.add(i);
+                        }
+                    }
+                    continue;
+                }
+
+                final int middle = (left + right) >> 1;
+                final double x = mX[middle];
+                final double y = mY[middle];
+                if (squareDistance(x, y, qx, qy) <= r2) {
+                    out.add(middle);
+                }
+                if (axis == 0 ? qx - r <= x : qy - r <= y) {
+                    stack.add(left);
+                    stack.add(middle - 1);
+                    stack.add(1 - axis);
+                }
+                if (axis == 0 ? qx + r >= x : qy + r >= y) {
+                    stack.add(middle + 1);
+                    stack.add(right);
+                    stack.add(1 - axis);
+                }
+            }
+        }
+
+        private static double squareDistance(final double ax, final double ay, final double bx,
+                final double by) {
+            final double dx = ax - bx;
+            final double dy = ay - by;
+            return dx * dx + dy * dy;
+        }
+    }
+}
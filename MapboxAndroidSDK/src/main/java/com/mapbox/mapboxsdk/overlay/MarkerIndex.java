@@ -0,0 +1,256 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import android.graphics.drawable.Drawable;
+import com.mapbox.mapboxsdk.constants.GeoConstants;
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * A quadtree of the markers of an {@link ItemizedOverlay}, by position in spherical mercator
+ * coordinates normalized to [0, 1], so that it doesn't depend on the zoom level. Markers are
+ * added, removed and moved one at a time, and a query only visits the nodes that intersect it.
+ * <p/>
+ * Each marker keeps the sequence number it was added with, so that query results can be put
+ * back in the drawing order of the overlay.
+ */
+final class MarkerIndex implements GeoConstants {
+
+    private static final int NODE_CAPACITY = 32;
+    private static final int MAXIMUM_DEPTH = 20;
+
+    /**
+     * Orders entries by sequence number.
+     */
+    static final Comparator<Entry> SEQUENCE_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry lhs, final Entry rhs) {
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+
+    private Node mRoot = new Node(0, 0, 1, 0);
+    private final IdentityHashMap<Marker, Entry> mEntries = new IdentityHashMap<Marker, Entry>();
+
+    // The largest marker image indexed so far, in pixels
+    private int mMaximumMarkerSize = 0;
+
+    void clear() {
+        mRoot = new Node(0, 0, 1, 0);
+        mEntries.clear();
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Add a marker, or move it if it is indexed already. Markers without a position aren't
+     * indexed.
+     */
+    void add(final Marker marker, final long sequence) {
+        remove(marker);
+        final LatLng point = marker.getPoint();
+        if (point == null) {
+            return;
+        }
+        final Entry entry = new Entry(marker, projectX(point.getLongitude()),
+                projectY(point.getLatitude()), sequence);
+        mEntries.put(marker, entry);
+        mRoot.insert(entry);
+        measure(marker);
+    }
+
+    /**
+     * Take a change of the position or image of a marker into account.
+     *
+     * @return true if the marker moved
+     */
+    boolean update(final Marker marker) {
+        final Entry entry = mEntries.get(marker);
+        if (entry == null) {
+            return false;
+        }
+        final LatLng point = marker.getPoint();
+        if (point == null) {
+            remove(marker);
+            return true;
+        }
+        measure(marker);
+        final double x = projectX(point.getLongitude());
+        final double y = projectY(point.getLatitude());
+        if (x == entry.mX && y == entry.mY) {
+            return false;
+        }
+        entry.mLeaf.remove(entry);
+        entry.mX = x;
+        entry.mY = y;
+        mRoot.insert(entry);
+        return true;
+    }
+
+    boolean remove(final Marker marker) {
+        final Entry entry = mEntries.remove(marker);
+        if (entry == null) {
+            return false;
+        }
+        entry.mLeaf.remove(entry);
+        return true;
+    }
+
+    boolean contains(final Marker marker) {
+        return mEntries.containsKey(marker);
+    }
+
+    /**
+     * Add the entries whose position lies in a rectangle, in no particular order.
+     */
+    void query(final double minX, final double minY, final double maxX, final double maxY,
+            final ArrayList<Entry> out) {
+        mRoot.query(minX, minY, maxX, maxY, out);
+    }
+
+    /**
+     * @return the largest width or height of the image of an indexed marker, the distance by
+     * which a query must be extended to find all markers whose image intersects it
+     */
+    int getMaximumMarkerSize() {
+        return mMaximumMarkerSize;
+    }
+
+    private void measure(final Marker marker) {
+        final Drawable drawable = marker.getDrawable();
+        if (drawable != null) {
+            mMaximumMarkerSize = Math.max(mMaximumMarkerSize,
+                    Math.max(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight()));
+        }
+    }
+
+    static double projectX(final double longitude) {
+        final double lon = Math.min(Math.max(longitude, MIN_LONGITUDE), MAX_LONGITUDE);
+        return (lon + 180) / 360;
+    }
+
+    static double projectY(final double latitude) {
+        final double lat = Math.min(Math.max(latitude, MIN_LATITUDE), MAX_LATITUDE);
+        final double sinLatitude = Math.sin(lat * Math.PI / 180);
+        return 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+    }
+
+    static LatLng unproject(final double x, final double y) {
+        final double latitude = Math.atan(Math.sinh(Math.PI * (1 - 2 * y))) * 180 / Math.PI;
+        return new LatLng(latitude, x * 360 - 180);
+    }
+
+    static final class Entry {
+        final Marker mMarker;
+        final long mSequence;
+        double mX;
+        double mY;
+        Node mLeaf;
+
+        Entry(final Marker marker, final double x, final double y, final long sequence) {
+            mMarker = marker;
+            mX = x;
+            mY = y;
+            mSequence = sequence;
+        }
+    }
+
+    private static final class Node {
+        private final double mMinX;
+        private final double mMinY;
+        private final double mSize;
+        private final int mDepth;
+
+        // Null once the node is split
+        private Entry[] mItems = new Entry[NODE_CAPACITY];
+        private int mCount = 0;
+        private Node[] mChildren;
+
+        Node(final double minX, final double minY, final double size, final int depth) {
+            mMinX = minX;
+            mMinY = minY;
+            mSize = size;
+            mDepth = depth;
+        }
+
+        void insert(final Entry entry) {
+            Node node = this;
+            while (node.mChildren != null) {
+                node = node.child(entry);
+            }
+            node.add(entry);
+        }
+
+        private Node child(final Entry entry) {
+            final double half = mSize / 2;
+            final int i = (entry.mX >= mMinX + half ? 1 : 0) + (entry.mY >= mMinY + half ? 2 : 0);
+            return mChildren[i];
+        }
+
+        private void add(final Entry entry) {
+            if (mCount == mItems.length) {
+                if (mDepth < MAXIMUM_DEPTH) {
+                    split();
+                    insert(entry);
+                    return;
+                }
+                // Too many markers at the same spot to tell apart, let the leaf grow
+                final Entry[] items = new Entry[mItems.length * 2];
+                System.arraycopy(mItems, 0, items, 0, mCount);
+                mItems = items;
+            }
+            mItems[mCount++] = entry;
+            entry.mLeaf = this;
+        }
+
+        private void split() {
+            final double half = mSize / 2;
+            mChildren = new Node[] {
+                    new Node(mMinX, mMinY, half, mDepth + 1),
+                    new Node(mMinX + half, mMinY, half, mDepth + 1),
+                    new Node(mMinX, mMinY + half, half, mDepth + 1),
+                    new Node(mMinX + half, mMinY + half, half, mDepth + 1)
+            };
+            final Entry[] items = mItems;
+            final int count = mCount;
+            mItems = null;
+            mCount = 0;
+            for (int i = 0; i < count; i++) {
+                child(items[i]).add(items[i]);
+            }
+        }
+
+        void remove(final Entry entry) {
+            for (int i = 0; i < mCount; i++) {
+                if (mItems[i] == entry) {
+                    mItems[i] = mItems[--mCount];
+                    mItems[mCount] = null;
+                    entry.mLeaf = null;
+                    return;
+                }
+            }
+        }
+
+        void query(final double minX, final double minY, final double maxX, final double maxY,
+                final ArrayList<Entry> out) {
+            if (maxX < mMinX || maxY < mMinY || minX >= mMinX + mSize || minY >= mMinY + mSize) {
+                return;
+            }
+            if (mChildren != null) {
+                for (final Node child : mChildren) {
+                    child.query(minX, minY, maxX, maxY, out);
+                }
+                return;
+            }
+            for (int i = 0; i < mCount; i++) {
+                final Entry entry = mItems[i];
+                if (entry.mX >= minX && entry.mX <= maxX && entry.mY >= minY && entry.mY <= maxY) {
+                    out.add(entry);
+                }
+            }
+        }
+    }
+}
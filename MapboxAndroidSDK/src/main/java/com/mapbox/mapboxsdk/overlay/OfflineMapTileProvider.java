@@ -1,52 +1,210 @@
 package com.mapbox.mapboxsdk.overlay;
 
 import android.content.Context;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
-import android.util.Log;
-import com.mapbox.mapboxsdk.exceptions.OfflineDatabaseException;
+import com.mapbox.mapboxsdk.geometry.BoundingBox;
+import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.offline.OfflineMapDatabase;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
-import com.mapbox.mapboxsdk.tileprovider.MapTileLayerBase;
-import com.mapbox.mapboxsdk.util.MapboxUtils;
-import java.io.ByteArrayInputStream;
+import com.mapbox.mapboxsdk.tileprovider.MapTileCache;
+import com.mapbox.mapboxsdk.tileprovider.MapTileLayerArray;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.tileprovider.modules.MapTileModuleLayerBase;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import com.mapbox.mapboxsdk.util.LongHashMap;
+import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
-public class OfflineMapTileProvider extends MapTileLayerBase {
+/**
+ * Draws the tiles of an {@link OfflineMapDatabase}. Tiles are looked up by position on the
+ * tile loader threads like any other tile source, and decoded tiles are kept in the memory tier
+ * of the {@link MapTileCache} only, since the database already is their disk copy.
+ * <p/>
+ * Decoded tiles are cached by the id of their data rather than by position, so identical tiles,
+ * which the database stores once, are also decoded and kept in memory once.
+ */
+public class OfflineMapTileProvider extends MapTileLayerArray {
 
-    private static final String TAG = "OfflineMapTileProvider";
+    private static final int NUMBER_OF_TILE_LOADER_THREADS = 2;
 
-    private OfflineMapDatabase offlineMapDatabase = null;
+    // Bounds the per-tile lookups below; once full they are dropped and rebuilt from the database
+    private static final int MAXIMUM_REMEMBERED_TILES = 4096;
+
+    private final OfflineMapDatabase offlineMapDatabase;
+
+    // Tiles the database doesn't have, keyed by tile id. Only an OfflineMapUpdater changes a
+    // complete database, and a provider doesn't follow its changes, so these are never asked
+    // for again.
+    private final LongHashMap<Boolean> mMissingTiles = new LongHashMap<Boolean>();
+
+    // The data id of the tiles loaded so far, keyed by tile id
+    private final LongHashMap<Long> mTileDataIds = new LongHashMap<Long>();
 
     public OfflineMapTileProvider(Context context, OfflineMapDatabase offlineMapDatabase) {
-        super(context, null);
+        super(context, null, null);
         this.offlineMapDatabase = offlineMapDatabase;
+
+        final OfflineDatabaseModule module = new OfflineDatabaseModule();
+        mTileProviderList.add(module);
+        mCacheKey = module.getCacheKey();
     }
 
     @Override
     public Drawable getMapTile(MapTile pTile, boolean allowRemote) {
-        Log.d(TAG, String.format("getMapTile() with maptile path = '%s'", pTile.getPath()));
-        try {
-            // Build URL to match url in database
-            String url = MapboxUtils.getMapTileURL(offlineMapDatabase.getMapID(), pTile.getZ(), pTile.getX(), pTile.getY(), offlineMapDatabase.getImageQuality());
-            byte[] data = offlineMapDatabase.dataForURL(url);
-
-            if (data == null || data.length == 0) {
-                // No data found, just return null so that default gray screen is displayed.
+        synchronized (mMissingTiles) {
+            if (mMissingTiles.containsKey(pTile.getId())) {
                 return null;
             }
-            // Return the tile image
-            return new BitmapDrawable(context.getResources(), new ByteArrayInputStream(data));
-        } catch (OfflineDatabaseException e) {
-            e.printStackTrace();
         }
+        final CacheableBitmapDrawable drawable = getMapTileFromMemory(pTile);
+        if (drawable != null && drawable.isBitmapValid()) {
+            drawable.setBeingUsed(true);
+            return drawable;
+        }
+        return super.getMapTile(pTile, allowRemote);
+    }
 
-        return null;
+    @Override
+    public CacheableBitmapDrawable getMapTileFromMemory(MapTile pTile) {
+        final Long dataId;
+        synchronized (mTileDataIds) {
+            dataId = mTileDataIds.get(pTile.getId());
+        }
+        return (dataId != null) ? mTileCache.getCache().getFromMemoryCache(getDataCacheKey(dataId)) : null;
+    }
+
+    private static <V> void remember(final LongHashMap<V> map, final long tileId, final V value) {
+        synchronized (map) {
+            if (map.size() >= MAXIMUM_REMEMBERED_TILES && !map.containsKey(tileId)) {
+                map.clear();
+            }
+            map.put(tileId, value);
+        }
+    }
+
+    private String getDataCacheKey(final long dataId) {
+        return getCacheKey() + "/data/" + dataId;
     }
 
     @Override
     public void detach() {
-        if (getTileSource() != null) {
-            getTileSource().detach();
+        super.detach();
+        offlineMapDatabase.close();
+    }
+
+    private class OfflineDatabaseModule extends MapTileModuleLayerBase {
+
+        OfflineDatabaseModule() {
+            super(NUMBER_OF_TILE_LOADER_THREADS, TILE_DOWNLOAD_MAXIMUM_QUEUE_SIZE);
+        }
+
+        @Override
+        protected String getName() {
+            return "Offline Map Database Provider";
+        }
+
+        @Override
+        protected String getThreadGroupName() {
+            return "offline";
+        }
+
+        @Override
+        protected Runnable getTileLoader() {
+            return new TileLoader();
+        }
+
+        @Override
+        public boolean getUsesDataConnection() {
+            return false;
+        }
+
+        @Override
+        public float getMinimumZoomLevel() {
+            Integer minimumZ = offlineMapDatabase.getMinimumZ();
+            return (minimumZ != null) ? minimumZ : MINIMUM_ZOOMLEVEL;
+        }
+
+        @Override
+        public float getMaximumZoomLevel() {
+            Integer maximumZ = offlineMapDatabase.getMaximumZ();
+            return (maximumZ != null) ? maximumZ : MAXIMUM_ZOOMLEVEL;
+        }
+
+        @Override
+        public BoundingBox getBoundingBox() {
+            CoordinateRegion region = offlineMapDatabase.getMapRegion();
+            if (region == null) {
+                return null;
+            }
+            double north = region.getCenter().getLatitude() + region.getSpan().getLatitudeSpan() / 2;
+            double east = region.getCenter().getLongitude() + region.getSpan().getLongitudeSpan() / 2;
+            return new BoundingBox(north, east, north - region.getSpan().getLatitudeSpan(),
+                    east - region.getSpan().getLongitudeSpan());
+        }
+
+        @Override
+        public LatLng getCenterCoordinate() {
+            CoordinateRegion region = offlineMapDatabase.getMapRegion();
+            return (region != null) ? region.getCenter() : null;
+        }
+
+        @Override
+        public float getCenterZoom() {
+            return (getMaximumZoomLevel() + getMinimumZoomLevel()) / 2;
+        }
+
+        @Override
+        public int getTileSizePixels() {
+            return DEFAULT_TILE_SIZE;
+        }
+
+        @Override
+        public void setTileSource(final ITileLayer tileSource) {
+            // The database is the only source
+        }
+
+        @Override
+        public ITileLayer getTileSource() {
+            return null;
+        }
+
+        @Override
+        public String getCacheKey() {
+            return "offline-" + offlineMapDatabase.getMapID();
+        }
+
+        private class TileLoader extends MapTileModuleLayerBase.TileLoader {
+
+            @Override
+            protected Drawable loadTile(final MapTileRequestState aState) {
+                final MapTile tile = aState.getMapTile();
+                // Throws on database errors, so only tiles the database really lacks are remembered
+                final long dataId = offlineMapDatabase.dataIdForTile(tile.getZ(), tile.getX(), tile.getY());
+                if (dataId < 0) {
+                    // No data found, so the default gray tile is displayed
+                    remember(mMissingTiles, tile.getId(), Boolean.TRUE);
+                    return null;
+                }
+                remember(mTileDataIds, tile.getId(), dataId);
+
+                // An identical tile may have been decoded already
+                final String key = getDataCacheKey(dataId);
+                final CacheableBitmapDrawable cached = mTileCache.getCache().getFromMemoryCache(key);
+                if (cached != null && cached.isBitmapValid()) {
+                    return cached;
+                }
+                final byte[] data = offlineMapDatabase.dataForId(dataId);
+                if (data == null || data.length == 0) {
+                    return null;
+                }
+                final Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+                if (bitmap == null) {
+                    return null;
+                }
+                return mTileCache.getCache().putInMemoryCache(key, bitmap);
+            }
         }
     }
 }
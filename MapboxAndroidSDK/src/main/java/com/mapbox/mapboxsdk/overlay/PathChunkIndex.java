@@ -0,0 +1,121 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import android.graphics.Rect;
+
+/**
+ * A bounding volume hierarchy over a sequence of points of a path, in pixels at the maximum zoom
+ * level. The sequence is cut into chunks of consecutive segments, and the chunks are the leaves
+ * of a complete binary tree whose nodes hold the bounds of the chunks below them, so the chunks
+ * intersecting a rectangle are found without looking at the others.
+ * <p/>
+ * Chunk c covers the segments between positions c * CHUNK_SIZE and (c + 1) * CHUNK_SIZE of the
+ * sequence, both included, so consecutive chunks share a point.
+ */
+final class PathChunkIndex {
+
+    /**
+     * Number of segments in a chunk.
+     */
+    static final int CHUNK_SIZE = 32;
+
+    private final int mLength;
+    private final int mChunkCount;
+    // Leaves are nodes mLeafOffset to mLeafOffset + mChunkCount - 1, the root is node 1
+    private final int mLeafOffset;
+    // Bounds of each node, as min x, min y, max x and max y
+    private final int[] mBounds;
+
+    /**
+     * @param xs the x of all points of the path
+     * @param ys the y of all points of the path
+     * @param indices the indices of the points of the sequence, or null for the first points
+     * @param length the number of points in the sequence
+     */
+    PathChunkIndex(final int[] xs, final int[] ys, final int[] indices, final int length) {
+        mLength = length;
+        mChunkCount = Math.max(1, (length - 2) / CHUNK_SIZE + 1);
+        int leafOffset = 1;
+        while (leafOffset < mChunkCount) {
+            leafOffset <<= 1;
+        }
+        mLeafOffset = leafOffset;
+        mBounds = new int[leafOffset * 2 * 4];
+
+        // Empty leaves have bounds that intersect nothing
+        for (int node = 1; node < leafOffset * 2; node++) {
+            mBounds[4 * node] = Integer.MAX_VALUE;
+            mBounds[4 * node + 1] = Integer.MAX_VALUE;
+            mBounds[4 * node + 2] = Integer.MIN_VALUE;
+            mBounds[4 * node + 3] = Integer.MIN_VALUE;
+        }
+        for (int chunk = 0; chunk < mChunkCount; chunk++) {
+            final int node = leafOffset + chunk;
+            final int end = getChunkEnd(chunk);
+            for (int k = getChunkStart(chunk); k <= end; k++) {
+                final int i = indices != null ? indices[k] : k;
+                include(node, xs[i], ys[i], xs[i], ys[i]);
+            }
+        }
+        for (int node = leafOffset - 1; node >= 1; node--) {
+            include(node, mBounds[8 * node], mBounds[8 * node + 1], mBounds[8 * node + 2],
+                    mBounds[8 * node + 3]);
+            include(node, mBounds[8 * node + 4], mBounds[8 * node + 5], mBounds[8 * node + 6],
+                    mBounds[8 * node + 7]);
+        }
+    }
+
+    private void include(final int node, final int minX, final int minY, final int maxX,
+            final int maxY) {
+        final int i = 4 * node;
+        mBounds[i] = Math.min(mBounds[i], minX);
+        mBounds[i + 1] = Math.min(mBounds[i + 1], minY);
+        mBounds[i + 2] = Math.max(mBounds[i + 2], maxX);
+        mBounds[i + 3] = Math.max(mBounds[i + 3], maxY);
+    }
+
+    /**
+     * @return the number of points in the sequence
+     */
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return the position in the sequence of the first point of a chunk
+     */
+    int getChunkStart(final int chunk) {
+        return chunk * CHUNK_SIZE;
+    }
+
+    /**
+     * @return the position in the sequence of the last point of a chunk
+     */
+    int getChunkEnd(final int chunk) {
+        return Math.min((chunk + 1) * CHUNK_SIZE, mLength - 1);
+    }
+
+    /**
+     * Add the chunks whose bounds intersect a rectangle, in sequence order.
+     *
+     * @param stack scratch space for the traversal, reused across calls to avoid allocating
+     */
+    void query(final Rect rect, final IntArray out, final IntArray stack) {
+        stack.clear();
+        stack.add(1);
+        while (stack.size() > 0) {
+            final int node = stack.pop();
+            final int i = 4 * node;
+            if (mBounds[i] > rect.right || mBounds[i + 1] > rect.bottom
+                    || mBounds[i + 2] < rect.left || mBounds[i + 3] < rect.top) {
+                continue;
+            }
+            if (node >= mLeafOffset) {
+                out.add(node - mLeafOffset);
+                continue;
+            }
+            // Right first, so the left one comes out first
+            stack.add(2 * node + 1);
+            stack.add(2 * node);
+        }
+    }
+}
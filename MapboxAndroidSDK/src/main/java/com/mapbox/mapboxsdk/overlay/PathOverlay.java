@@ -6,11 +6,18 @@ import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.modules.ConfigurablePriorityThreadFactory;
 import com.mapbox.mapboxsdk.views.MapView;
 import com.mapbox.mapboxsdk.views.util.Projection;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Viesturs Zarins
@@ -21,30 +28,53 @@ import java.util.List;
 public class PathOverlay extends Overlay {
 
     private static final String TAG = "PathOverlay";
+
     /**
-     * Stores points, converted to the map projection.
+     * Number of points not simplified yet above which the path is simplified again.
      */
-    private ArrayList<PointF> mPoints;
+    private static final int SIMPLIFICATION_THRESHOLD = 1024;
 
     /**
-     * Number of points that have precomputed values.
+     * Distance from the path under which a point is on it, in pixels, for thin paths.
      */
-    private int mPointsPrecomputed;
+    private static final float MINIMUM_HIT_DISTANCE = 8;
 
+    // Paths are simplified off the main thread, one at a time
+    private static ExecutorService sSimplificationExecutor;
+    private static Handler sMainHandler;
+    /**
+     * Stores points, and their projection once drawn.
+     */
+    private PathPoints mPoints;
 
     private boolean mOptimizePath = true;
 
+    /**
+     * Simplification of the first points for each zoom level, drawn instead of them.
+     */
+    private PathSimplification mSimplification;
+    private boolean mSimplificationRunning = false;
+    // Tells results of a simplification started before the path was cleared apart
+    private int mSimplificationGeneration = 0;
+    // The map to redraw once a simplification is done
+    private MapView mMapView;
+
     /**
      * Paint settings.
      */
     protected Paint mPaint = new Paint();
     private final Path mPath = new Path();
 
-    private final PointF mTempPoint1 = new PointF();
-    private final PointF mTempPoint2 = new PointF();
-
     // bounding rectangle for the current line segment.
     private final Rect mLineBounds = new Rect();
+    // chunks of the simplified path on screen, reused across frames
+    private final IntArray mVisibleChunks = new IntArray(64);
+    // scratch objects of the chunk queries and getNearestPoint(), used on the UI thread only
+    private final IntArray mChunkStack = new IntArray(64);
+    private final IntArray mNearbyChunks = new IntArray(16);
+    private final Rect mNearbyBounds = new Rect();
+    private final PointF mOrigin = new PointF();
+    private final double[] mNearest = new double[3];
 
     public PathOverlay() {
         super();
@@ -74,8 +104,9 @@ public class PathOverlay extends Overlay {
     }
 
     public void clearPath() {
-        this.mPoints = new ArrayList<PointF>();
-        this.mPointsPrecomputed = 0;
+        this.mPoints = new PathPoints();
+        this.mSimplification = null;
+        this.mSimplificationGeneration++;
     }
 
     public void addPoint(final LatLng aPoint) {
@@ -83,23 +114,56 @@ public class PathOverlay extends Overlay {
     }
 
     public void addPoint(final double aLatitude, final double aLongitude) {
-        mPoints.add(new PointF((float) aLatitude, (float) aLongitude));
+        mPoints.add(aLatitude, aLongitude);
     }
 
     public void addPoints(final LatLng... aPoints) {
+        mPoints.ensureCapacity(mPoints.size() + aPoints.length);
         for (final LatLng point : aPoints) {
             addPoint(point);
         }
     }
 
     public void addPoints(final List<LatLng> aPoints) {
+        mPoints.ensureCapacity(mPoints.size() + aPoints.size());
         for (final LatLng point : aPoints) {
             addPoint(point);
         }
     }
 
+    /**
+     * Add points given as parallel arrays of coordinates, without creating an object for each.
+     *
+     * @param latitudes the latitudes of the points
+     * @param longitudes the longitudes of the points, as many as latitudes
+     */
+    public void addPoints(final double[] latitudes, final double[] longitudes) {
+        addPoints(latitudes, longitudes, 0, latitudes.length);
+    }
+
+    /**
+     * Add points given as a range of parallel arrays of coordinates, without creating an object
+     * for each. Live tracks can reuse the same arrays for each batch of new points.
+     *
+     * @param latitudes the latitudes of the points
+     * @param longitudes the longitudes of the points
+     * @param offset the index of the first point to add in the arrays
+     * @param count the number of points to add
+     */
+    public void addPoints(final double[] latitudes, final double[] longitudes, final int offset,
+            final int count) {
+        if (offset < 0 || count < 0 || offset + count > latitudes.length
+                || offset + count > longitudes.length) {
+            throw new IllegalArgumentException("Points " + offset + " to " + (offset + count)
+                    + " out of " + latitudes.length + " latitudes and " + longitudes.length + " longitudes");
+        }
+        mPoints.addAll(latitudes, longitudes, offset, count);
+    }
+
     public void removeAllPoints() {
         mPoints.clear();
+        mSimplification = null;
+        mSimplificationGeneration++;
     }
 
     public int getNumberOfPoints() {
@@ -108,7 +172,8 @@ public class PathOverlay extends Overlay {
 
     /**
      * This method draws the line. Note - highly optimized to handle long paths, proceed with care.
-     * Should be fine up to 10K points.
+     * Long paths are drawn from their simplification for the current zoom level, which keeps the
+     * number of points drawn close to the number of points the screen can tell apart.
      */
     @Override
     protected void draw(final Canvas canvas, final MapView mapView, final boolean shadow) {
@@ -123,77 +188,326 @@ public class PathOverlay extends Overlay {
         final Projection pj = mapView.getProjection();
 
         // precompute new points to the intermediate projection.
-        for (; this.mPointsPrecomputed < size; this.mPointsPrecomputed++) {
-            final PointF pt = this.mPoints.get(this.mPointsPrecomputed);
-            pj.toMapPixelsProjected((double) pt.x, (double) pt.y, pt);
+        this.mPoints.project();
+
+        this.mMapView = mapView;
+        final PathSimplification simplification = this.mSimplification;
+        final int simplified = simplification != null ? simplification.getPointCount() : 0;
+        if (size - simplified >= SIMPLIFICATION_THRESHOLD && !this.mSimplificationRunning) {
+            startSimplification();
         }
+        // The simplified points, then the ones added since, which are drawn as they are
+        final int[] level = simplification != null ? simplification.getLevel(pj.getZoomLevel()) : null;
+        final int levelSize = level != null ? level.length : simplified;
+        final int count = levelSize + size - simplified;
 
-        PointF screenPoint0 = null; // points on screen
-        PointF screenPoint1;
-        PointF projectedPoint0; // points from the points list
-        PointF projectedPoint1;
+        // Same as Projection.toMapPixelsTranslated, computed once for all points
+        final double scale = Math.pow(2, pj.getZoomLevel() - TileLayerConstants.MAXIMUM_ZOOMLEVEL);
+        final int offset = -pj.getHalfWorldSize();
 
         // clipping rectangle in the intermediate projection, to avoid performing projection.
         final Rect clipBounds = pj.fromPixelsToProjected(pj.getScreenRect());
 
         mPath.rewind();
-        boolean needsDrawing = !mOptimizePath;
-        projectedPoint0 = this.mPoints.get(size - 1);
-        mLineBounds.set((int) projectedPoint0.x, (int) projectedPoint0.y, (int) projectedPoint0.x,
-                (int) projectedPoint0.y);
+        boolean needsDrawing = false;
+        if (!mOptimizePath) {
+            appendSegments(0, count - 1, level, levelSize, simplified, scale, offset, clipBounds);
+            needsDrawing = Rect.intersects(clipBounds, mLineBounds);
+        } else {
+            int tailStart = 0;
+            if (simplification != null) {
+                // Only the chunks of the simplified points around the screen, consecutive ones
+                // as a single line
+                final PathChunkIndex index = simplification.getIndex(pj.getZoomLevel());
+                final IntArray chunks = this.mVisibleChunks;
+                chunks.clear();
+                index.query(clipBounds, chunks, mChunkStack);
+                int i = 0;
+                while (i < chunks.size()) {
+                    int j = i;
+                    while (j + 1 < chunks.size() && chunks.get(j + 1) == chunks.get(j) + 1) {
+                        j++;
+                    }
+                    needsDrawing |= appendSegments(index.getChunkStart(chunks.get(i)),
+                            index.getChunkEnd(chunks.get(j)), level, levelSize, simplified, scale,
+                            offset, clipBounds);
+                    i = j + 1;
+                }
+                chunks.clear();
+                // The points added since, from the last simplified one
+                tailStart = levelSize - 1;
+            }
+            if (tailStart < count - 1) {
+                needsDrawing |= appendSegments(tailStart, count - 1, level, levelSize, simplified,
+                        scale, offset, clipBounds);
+            }
+        }
+
+        if (needsDrawing) {
+            final float realWidth = this.mPaint.getStrokeWidth();
+            this.mPaint.setStrokeWidth(realWidth / mapView.getScale());
+            canvas.drawPath(mPath, this.mPaint);
+            this.mPaint.setStrokeWidth(realWidth);
+        }
+    }
 
-        for (int i = size - 2; i >= 0; i--) {
+    /**
+     * Add the segments between two points to draw to mPath, the ones outside of the clipping
+     * rectangle left out when optimizing.
+     *
+     * @param first the position of the first point among the points to draw
+     * @param last the position of the last point among the points to draw
+     * @return true if a segment was added
+     */
+    private boolean appendSegments(final int first, final int last, final int[] level,
+            final int levelSize, final int simplified, final double scale, final int offset,
+            final Rect clipBounds) {
+        final int[] projectedX = this.mPoints.getProjectedX();
+        final int[] projectedY = this.mPoints.getProjectedY();
+
+        boolean needsDrawing = false;
+        boolean started = false; // whether screenX0/Y0 are set
+        int screenX0 = 0; // points on screen
+        int screenY0 = 0;
+        int screenX1;
+        int screenY1;
+        int projectedX0; // points from the points list
+        int projectedY0;
+        int projectedX1;
+        int projectedY1;
+
+        int index = pointIndex(last, level, levelSize, simplified);
+        projectedX0 = projectedX[index];
+        projectedY0 = projectedY[index];
+        mLineBounds.set(projectedX0, projectedY0, projectedX0, projectedY0);
+
+        for (int k = last - 1; k >= first; k--) {
             // compute next points
-            projectedPoint1 = this.mPoints.get(i);
+            index = pointIndex(k, level, levelSize, simplified);
+            projectedX1 = projectedX[index];
+            projectedY1 = projectedY[index];
 
             //mLineBounds needs to be computed
-            mLineBounds.union((int) projectedPoint1.x, (int) projectedPoint1.y);
+            mLineBounds.union(projectedX1, projectedY1);
 
             if (mOptimizePath && !Rect.intersects(clipBounds, mLineBounds)) {
                 // skip this line, move to next point
-                projectedPoint0 = projectedPoint1;
-                mLineBounds.set((int) projectedPoint0.x, (int) projectedPoint0.y, (int) projectedPoint0.x,
-                        (int) projectedPoint0.y);
-                screenPoint0 = null;
+                projectedX0 = projectedX1;
+                projectedY0 = projectedY1;
+                mLineBounds.set(projectedX0, projectedY0, projectedX0, projectedY0);
+                started = false;
                 continue;
             }
 
             // the starting point may be not calculated, because previous segment was out of clip
             // bounds
-            if (screenPoint0 == null) {
-                screenPoint0 = pj.toMapPixelsTranslated(projectedPoint0, this.mTempPoint1);
-                mPath.moveTo(screenPoint0.x, screenPoint0.y);
+            if (!started) {
+                screenX0 = (int) (projectedX0 * scale + offset);
+                screenY0 = (int) (projectedY0 * scale + offset);
+                mPath.moveTo(screenX0, screenY0);
+                started = true;
             }
 
-            screenPoint1 = pj.toMapPixelsTranslated(projectedPoint1, this.mTempPoint2);
+            screenX1 = (int) (projectedX1 * scale + offset);
+            screenY1 = (int) (projectedY1 * scale + offset);
 
             // skip this point, too close to previous point
-            if (Math.abs(screenPoint1.x - screenPoint0.x) + Math.abs(
-                    screenPoint1.y - screenPoint0.y) <= 1) {
+            if (Math.abs(screenX1 - screenX0) + Math.abs(screenY1 - screenY0) <= 1) {
                 continue;
             }
 
-            mPath.lineTo(screenPoint1.x, screenPoint1.y);
+            mPath.lineTo(screenX1, screenY1);
             // update starting point to next position
-            projectedPoint0 = projectedPoint1;
-            screenPoint0.x = screenPoint1.x;
-            screenPoint0.y = screenPoint1.y;
+            projectedX0 = projectedX1;
+            projectedY0 = projectedY1;
+            screenX0 = screenX1;
+            screenY0 = screenY1;
             if (mOptimizePath) {
                 needsDrawing = true;
-                mLineBounds.set((int) projectedPoint0.x, (int) projectedPoint0.y, (int) projectedPoint0.x,
-                        (int) projectedPoint0.y);
+                mLineBounds.set(projectedX0, projectedY0, projectedX0, projectedY0);
             }
         }
-        if (!mOptimizePath) {
-            needsDrawing = Rect.intersects(clipBounds, mLineBounds);
+        return needsDrawing;
+    }
+
+    /**
+     * Find the point of the path closest to a point of the screen, on the path as drawn at the
+     * current zoom level.
+     *
+     * @param mapView the map the path is drawn on
+     * @param x the x of the point on screen
+     * @param y the y of the point on screen
+     * @param maxDistance the largest distance to look at, in pixels
+     * @return the closest point of the path, or null if none is within maxDistance
+     */
+    public LatLng getNearestPoint(final MapView mapView, final float x, final float y,
+            final float maxDistance) {
+        final int size = this.mPoints.size();
+        if (size == 0) {
+            return null;
         }
+        final Projection pj = mapView.getProjection();
+        this.mPoints.project();
+
+        final PathSimplification simplification = this.mSimplification;
+        final int simplified = simplification != null ? simplification.getPointCount() : 0;
+        final int[] level = simplification != null ? simplification.getLevel(pj.getZoomLevel()) : null;
+        final int levelSize = level != null ? level.length : simplified;
+        final int count = levelSize + size - simplified;
+
+        // The point in the intermediate projection, screen coordinates being map pixels plus
+        // the offset of the map origin
+        final double scale = Math.pow(2, pj.getZoomLevel() - TileLayerConstants.MAXIMUM_ZOOMLEVEL);
+        final double halfWorldSize = pj.getHalfWorldSize();
+        final PointF origin = this.mOrigin;
+        origin.set(0, 0);
+        pj.toPixels(origin, origin);
+        final double px = (x - origin.x + halfWorldSize) / scale;
+        final double py = (y - origin.y + halfWorldSize) / scale;
+        final double reach = maxDistance / scale;
+
+        // Squared distance, then x and y of the closest point so far
+        final double[] nearest = this.mNearest;
+        nearest[0] = reach * reach;
+        nearest[1] = Double.NaN;
+        nearest[2] = Double.NaN;
+        int tailStart = 0;
+        if (simplification != null) {
+            final PathChunkIndex index = simplification.getIndex(pj.getZoomLevel());
+            final IntArray chunks = this.mNearbyChunks;
+            chunks.clear();
+            this.mNearbyBounds.set((int) Math.floor(px - reach), (int) Math.floor(py - reach),
+                    (int) Math.ceil(px + reach), (int) Math.ceil(py + reach));
+            index.query(this.mNearbyBounds, chunks, mChunkStack);
+            for (int i = 0; i < chunks.size(); i++) {
+                findNearest(index.getChunkStart(chunks.get(i)), index.getChunkEnd(chunks.get(i)),
+                        level, levelSize, simplified, px, py, nearest);
+            }
+            chunks.clear();
+            tailStart = levelSize - 1;
+        }
+        findNearest(tailStart, count - 1, level, levelSize, simplified, px, py, nearest);
 
-        if (needsDrawing) {
-            final float realWidth = this.mPaint.getStrokeWidth();
-            this.mPaint.setStrokeWidth(realWidth / mapView.getScale());
-            canvas.drawPath(mPath, this.mPaint);
-            this.mPaint.setStrokeWidth(realWidth);
+        if (Double.isNaN(nearest[1])) {
+            return null;
+        }
+        return Projection.pixelXYToLatLong(nearest[1], nearest[2],
+                TileLayerConstants.MAXIMUM_ZOOMLEVEL);
+    }
+
+    /**
+     * @return true if a point of the screen is on the path as drawn
+     */
+    public boolean hitTest(final MapView mapView, final float x, final float y) {
+        return getNearestPoint(mapView, x, y,
+                Math.max(this.mPaint.getStrokeWidth() / 2, MINIMUM_HIT_DISTANCE)) != null;
+    }
+
+    /**
+     * Look for a point closer than the closest one so far on the segments between two points to
+     * draw.
+     */
+    private void findNearest(final int first, final int last, final int[] level,
+            final int levelSize, final int simplified, final double px, final double py,
+            final double[] nearest) {
+        final int[] projectedX = this.mPoints.getProjectedX();
+        final int[] projectedY = this.mPoints.getProjectedY();
+        int index = pointIndex(first, level, levelSize, simplified);
+        double x0 = projectedX[index];
+        double y0 = projectedY[index];
+        if (first == last) {
+            updateNearest(x0, y0, px, py, nearest);
+            return;
+        }
+        for (int k = first + 1; k <= last; k++) {
+            index = pointIndex(k, level, levelSize, simplified);
+            final double x1 = projectedX[index];
+            final double y1 = projectedY[index];
+            final double dx = x1 - x0;
+            final double dy = y1 - y0;
+            double t = 0;
+            if (dx != 0 || dy != 0) {
+                t = Math.max(0, Math.min(1, ((px - x0) * dx + (py - y0) * dy) / (dx * dx + dy * dy)));
+            }
+            updateNearest(x0 + t * dx, y0 + t * dy, px, py, nearest);
+            x0 = x1;
+            y0 = y1;
+        }
+    }
+
+    private static void updateNearest(final double x, final double y, final double px,
+            final double py, final double[] nearest) {
+        final double distance = (x - px) * (x - px) + (y - py) * (y - py);
+        if (distance <= nearest[0]) {
+            nearest[0] = distance;
+            nearest[1] = x;
+            nearest[2] = y;
+        }
+    }
+
+    /**
+     * @return the index in mPoints of the k-th point to draw
+     */
+    private static int pointIndex(final int k, final int[] level, final int levelSize,
+            final int simplified) {
+        if (k >= levelSize) {
+            return simplified + k - levelSize;
+        }
+        return level != null ? level[k] : k;
+    }
+
+    /**
+     * Simplify all projected points on a background thread, then draw the path again.
+     */
+    private void startSimplification() {
+        this.mSimplificationRunning = true;
+        final int generation = this.mSimplificationGeneration;
+        final int count = this.mPoints.getProjectedCount();
+        // Copies, the arrays are reused once the path is cleared
+        final int[] xs = Arrays.copyOf(this.mPoints.getProjectedX(), count);
+        final int[] ys = Arrays.copyOf(this.mPoints.getProjectedY(), count);
+
+        getSimplificationExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                PathSimplification simplification = null;
+                try {
+                    simplification = PathSimplification.build(xs, ys, count,
+                            TileLayerConstants.MAXIMUM_ZOOMLEVEL);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Error simplifying path", e);
+                } finally {
+                    final PathSimplification result = simplification;
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSimplificationDone(result, generation);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void onSimplificationDone(final PathSimplification simplification,
+            final int generation) {
+        this.mSimplificationRunning = false;
+        // Unless the path was cleared meanwhile, in which case the next draw starts over
+        if (simplification != null && generation == this.mSimplificationGeneration) {
+            this.mSimplification = simplification;
+        }
+        if (this.mMapView != null) {
+            this.mMapView.invalidate();
+        }
+    }
+
+    private static synchronized ExecutorService getSimplificationExecutor() {
+        if (sSimplificationExecutor == null) {
+            sSimplificationExecutor = Executors.newSingleThreadExecutor(
+                    new ConfigurablePriorityThreadFactory(Thread.MIN_PRIORITY, "PathOverlay simplification"));
+            sMainHandler = new Handler(Looper.getMainLooper());
         }
+        return sSimplificationExecutor;
     }
 
     /**
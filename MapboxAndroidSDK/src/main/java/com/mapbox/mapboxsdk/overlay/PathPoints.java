@@ -0,0 +1,119 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.views.util.Projection;
+import java.util.Arrays;
+
+/**
+ * The points of a path, kept in parallel primitive arrays rather than one object per point: the
+ * latitudes and longitudes as given, and their projection in pixels at the maximum zoom level,
+ * computed when the path is drawn. Points are only ever appended, so projected points stay valid
+ * as more are added.
+ */
+final class PathPoints {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private int[] mProjectedX = new int[INITIAL_CAPACITY];
+    private int[] mProjectedY = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+    private int mProjectedCount = 0;
+
+    int size() {
+        return mSize;
+    }
+
+    void add(final double latitude, final double longitude) {
+        ensureCapacity(mSize + 1);
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mSize++;
+    }
+
+    void addAll(final double[] latitudes, final double[] longitudes, final int offset,
+            final int count) {
+        ensureCapacity(mSize + count);
+        System.arraycopy(latitudes, offset, mLatitudes, mSize, count);
+        System.arraycopy(longitudes, offset, mLongitudes, mSize, count);
+        mSize += count;
+    }
+
+    /**
+     * Remove all points, keeping the arrays for the next ones.
+     */
+    void clear() {
+        mSize = 0;
+        mProjectedCount = 0;
+    }
+
+    double getLatitude(final int index) {
+        return mLatitudes[index];
+    }
+
+    double getLongitude(final int index) {
+        return mLongitudes[index];
+    }
+
+    /**
+     * Project the points added since the last call.
+     */
+    void project() {
+        final double mapSize = (double) Projection.getTileSize() * (1 << TileLayerConstants.MAXIMUM_ZOOMLEVEL);
+        final double max = Math.min(mapSize - 1, Integer.MAX_VALUE);
+        for (; mProjectedCount < mSize; mProjectedCount++) {
+            final double x = MarkerIndex.projectX(wrap(mLongitudes[mProjectedCount], 180)) * mapSize;
+            final double y = MarkerIndex.projectY(wrap(mLatitudes[mProjectedCount], 90)) * mapSize;
+            mProjectedX[mProjectedCount] = (int) Math.min(Math.max(x, 0), max);
+            mProjectedY[mProjectedCount] = (int) Math.min(Math.max(y, 0), max);
+        }
+    }
+
+    /**
+     * Wrap an angle into [-limit, limit], as {@link Projection#latLongToPixelXY} does.
+     */
+    private static double wrap(double angle, final double limit) {
+        while (angle < -limit) {
+            angle += 2 * limit;
+        }
+        while (angle > limit) {
+            angle -= 2 * limit;
+        }
+        return angle;
+    }
+
+    /**
+     * @return the number of points projected so far, the first ones
+     */
+    int getProjectedCount() {
+        return mProjectedCount;
+    }
+
+    /**
+     * @return the x of the projected points in pixels at the maximum zoom level, valid up to
+     * {@link #getProjectedCount()}
+     */
+    int[] getProjectedX() {
+        return mProjectedX;
+    }
+
+    /**
+     * @return the y of the projected points in pixels at the maximum zoom level, valid up to
+     * {@link #getProjectedCount()}
+     */
+    int[] getProjectedY() {
+        return mProjectedY;
+    }
+
+    void ensureCapacity(final int capacity) {
+        if (capacity <= mLatitudes.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mLatitudes.length * 2);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mProjectedX = Arrays.copyOf(mProjectedX, newCapacity);
+        mProjectedY = Arrays.copyOf(mProjectedY, newCapacity);
+    }
+}
@@ -0,0 +1,183 @@
+package com.mapbox.mapboxsdk.overlay;
+
+/**
+ * The Douglas-Peucker simplification of a path for every zoom level, built once from a snapshot
+ * of its points and then only read.
+ * <p/>
+ * A single run of Douglas-Peucker ranks every point by the tolerance under which it is kept:
+ * the distance that made it split its range, capped by the rank of the point that split the
+ * range around it. The points of a zoom level are the ones ranked above the tolerance of that
+ * level, which is a fixed number of pixels at that zoom, so a path drawn from its level strays
+ * less than that from the full path.
+ * <p/>
+ * Each level comes with a {@link PathChunkIndex} of its points, to find the parts of the level
+ * in a viewport.
+ */
+final class PathSimplification {
+
+    /**
+     * The largest distance between a simplified path and the full one, in pixels.
+     */
+    static final float TOLERANCE = 0.5f;
+
+    private final int mPointCount;
+    // The indices of the points of each zoom level, null for levels keeping all of them
+    private final int[][] mLevels;
+    private final PathChunkIndex[] mIndices;
+    // The index of the levels keeping all points
+    private final PathChunkIndex mFullIndex;
+
+    private PathSimplification(final int pointCount, final int[][] levels,
+            final PathChunkIndex[] indices, final PathChunkIndex fullIndex) {
+        mPointCount = pointCount;
+        mLevels = levels;
+        mIndices = indices;
+        mFullIndex = fullIndex;
+    }
+
+    /**
+     * Simplify a path. This is O(n log n) for most paths, so it shouldn't run on the main thread
+     * for long paths.
+     *
+     * @param xs the x of each point, in pixels at the maximum zoom level
+     * @param ys the y of each point, in pixels at the maximum zoom level
+     * @param count the number of points
+     * @param maxZoom the maximum zoom level
+     */
+    static PathSimplification build(final int[] xs, final int[] ys, final int count,
+            final int maxZoom) {
+        final float[] ranks = rank(xs, ys, count);
+        final int[][] levels = new int[maxZoom + 1][];
+        final PathChunkIndex[] indices = new PathChunkIndex[maxZoom + 1];
+        for (int zoom = 0; zoom <= maxZoom; zoom++) {
+            final double tolerance = TOLERANCE * (double) (1L << (maxZoom - zoom));
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (ranks[i] > tolerance) {
+                    size++;
+                }
+            }
+            if (size == count) {
+                // Higher levels keep all points too
+                break;
+            }
+            if (zoom > 0 && levels[zoom - 1] != null && levels[zoom - 1].length == size) {
+                // Levels only ever add points, so this one is the same as the previous
+                levels[zoom] = levels[zoom - 1];
+                indices[zoom] = indices[zoom - 1];
+                continue;
+            }
+            final int[] level = new int[size];
+            size = 0;
+            for (int i = 0; i < count; i++) {
+                if (ranks[i] > tolerance) {
+                    level[size++] = i;
+                }
+            }
+            levels[zoom] = level;
+            indices[zoom] = new PathChunkIndex(xs, ys, level, size);
+        }
+        return new PathSimplification(count, levels, indices,
+                new PathChunkIndex(xs, ys, null, count));
+    }
+
+    /**
+     * Run Douglas-Peucker to the end, without a stack as deep as the path.
+     *
+     * @return the tolerance under which each point is kept
+     */
+    private static float[] rank(final int[] xs, final int[] ys, final int count) {
+        final float[] ranks = new float[count];
+        if (count == 0) {
+            return ranks;
+        }
+        ranks[0] = Float.POSITIVE_INFINITY;
+        ranks[count - 1] = Float.POSITIVE_INFINITY;
+
+        // Ranges still to split, as first and last point
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+
+            double maxDistance = -1;
+            int split = first + 1;
+            for (int i = first + 1; i < last; i++) {
+                final double distance = squareSegmentDistance(xs[i], ys[i], xs[first], ys[first],
+                        xs[last], ys[last]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    split = i;
+                }
+            }
+            // A point is never kept at a tolerance its range was simplified away at
+            ranks[split] = (float) Math.min(Math.sqrt(maxDistance),
+                    Math.min(ranks[first], ranks[last]));
+
+            if (top + 4 > stack.length) {
+                final int[] grown = new int[stack.length * 2];
+                System.arraycopy(stack, 0, grown, 0, top);
+                stack = grown;
+            }
+            stack[top++] = first;
+            stack[top++] = split;
+            stack[top++] = split;
+            stack[top++] = last;
+        }
+        return ranks;
+    }
+
+    private static double squareSegmentDistance(final double px, final double py, double x,
+            double y, final double x2, final double y2) {
+        final double dx = x2 - x;
+        final double dy = y2 - y;
+        if (dx != 0 || dy != 0) {
+            final double t = ((px - x) * dx + (py - y) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x = x2;
+                y = y2;
+            } else if (t > 0) {
+                x += dx * t;
+                y += dy * t;
+            }
+        }
+        final double ex = px - x;
+        final double ey = py - y;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * @return the number of points of the path when it was simplified
+     */
+    int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return the indices of the points to draw at a zoom level, in path order, or null to draw
+     * all of them
+     */
+    int[] getLevel(final float zoom) {
+        final int z = levelFor(zoom);
+        return z < mLevels.length ? mLevels[z] : null;
+    }
+
+    /**
+     * @return the index of the points to draw at a zoom level
+     */
+    PathChunkIndex getIndex(final float zoom) {
+        final int z = levelFor(zoom);
+        return z < mIndices.length && mIndices[z] != null ? mIndices[z] : mFullIndex;
+    }
+
+    private static int levelFor(final float zoom) {
+        // Round up so that the tolerance never exceeds TOLERANCE pixels on screen
+        return Math.max(0, (int) Math.ceil(zoom));
+    }
+}
@@ -22,6 +22,7 @@ import com.mapbox.mapboxsdk.views.safecanvas.ISafeCanvas;
 import com.mapbox.mapboxsdk.views.safecanvas.SafePaint;
 import com.mapbox.mapboxsdk.views.util.Projection;
 import java.util.HashMap;
+import java.util.List;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
@@ -48,10 +49,22 @@ public class TilesOverlay extends SafeDrawOverlay {
     private final Rect mTileRect = new Rect();
     private final Rect mViewPort = new Rect();
     private final Rect mClipRect = new Rect();
+    private final Rect mFallbackSrcRect = new Rect();
+    private final Rect mFallbackDestRect = new Rect();
+    private final Paint mFallbackPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final CacheableBitmapDrawable[] mFallbackChildren = new CacheableBitmapDrawable[4];
     float mCurrentZoomFactor = 1;
     private float mRescaleZoomDiffMax = 4;
     private boolean isAnimating = false;
     private boolean mOptionsMenuEnabled = true;
+    private boolean mUseTileFallback = true;
+    private int mFallbackAncestorLevels = DEFAULT_FALLBACK_ANCESTOR_LEVELS;
+
+    /**
+     * Default number of zoom levels searched upwards for a cached tile to stand in for a missing
+     * one.
+     */
+    public static final int DEFAULT_FALLBACK_ANCESTOR_LEVELS = 4;
 
     private int mWorldSize_2;
 
@@ -118,11 +131,38 @@ public class TilesOverlay extends SafeDrawOverlay {
         mTileProvider.setUseDataConnection(aMode);
     }
 
+    /**
+     * Whether missing tiles are temporarily drawn from cached tiles of other zoom levels.
+     *
+     * @return true if the fallback is used
+     */
+    public boolean useTileFallback() {
+        return mUseTileFallback;
+    }
+
+    /**
+     * Set whether a tile that is not loaded yet is drawn from the part of a cached parent tile
+     * covering it, or from its cached child tiles, instead of the loading placeholder.
+     *
+     * @param useTileFallback true to draw cached tiles of other zoom levels
+     */
+    public void setUseTileFallback(final boolean useTileFallback) {
+        mUseTileFallback = useTileFallback;
+    }
+
+    /**
+     * Set how many zoom levels up a missing tile may be substituted from. Each level halves the
+     * resolution of the substitute.
+     *
+     * @param levels the number of zoom levels, 0 to only use child tiles
+     */
+    public void setFallbackAncestorLevels(final int levels) {
+        mFallbackAncestorLevels = Math.max(0, levels);
+    }
+
     @Override
     protected void drawSafe(final ISafeCanvas c, final MapView mapView, final boolean shadow) {
 
-        Log.d(TAG, "drawSafe() called with shadow = '" + shadow + "'");
-
         if (shadow) {
             return;
         }
@@ -133,7 +173,6 @@ public class TilesOverlay extends SafeDrawOverlay {
         final Projection pj = mapView.getProjection();
 
         c.getClipBounds(mClipRect);
-        float zoomDelta = (float) (Math.log(mapView.getScale()) / Math.log(2d));
         final float zoomLevel = pj.getZoomLevel();
         mWorldSize_2 = pj.getHalfWorldSize();
         GeometryMath.viewPortRectForTileDrawing(pj, mViewPort);
@@ -141,11 +180,9 @@ public class TilesOverlay extends SafeDrawOverlay {
         int tileSize = Projection.getTileSize();
         // Draw the tiles!
         if (tileSize > 0) {
-            Log.d(TAG, "drawSafe(), start drawing tiles!");
             drawLoadingTile(c.getSafeCanvas(), mapView, zoomLevel, mClipRect);
             drawTiles(c.getSafeCanvas(), zoomLevel, tileSize, mViewPort, mClipRect);
-            Log.d(TAG, "drawSafe(), done drawing tiles!");
-        } else {
+        } else if (UtilConstants.DEBUGMODE) {
             Log.d(TAG, "tileSize is not > 0, so not drawing tiles.");
         }
 
@@ -207,6 +244,9 @@ public class TilesOverlay extends SafeDrawOverlay {
         public void initializeLoop(final float pZoomLevel, final int pTileSizePx) {
 
             final int roundedZoom = (int) Math.floor(pZoomLevel);
+            // let the providers prioritize (and drop) pending requests for this viewport
+            mTileProvider.setViewport(roundedZoom, mUpperLeft.x, mUpperLeft.y, mLowerRight.x,
+                    mLowerRight.y);
             if (roundedZoom != pZoomLevel) {
                 final int mapTileUpperBound = 1 << roundedZoom;
                 mCurrentZoomFactor =
@@ -237,6 +277,9 @@ public class TilesOverlay extends SafeDrawOverlay {
                 drawable.setBounds(mTileRect);
                 drawable.draw(pCanvas);
             } else {
+                if (mUseTileFallback) {
+                    drawFallbackTile(pCanvas, pCacheKey, pTile, mTileRect, mBeingUsedDrawables);
+                }
                 mTileProvider.memoryCacheNeedsMoreMemory(mNuberOfTiles);
                 //Log.w(TAG, "tile should have been drawn to canvas, but it was null.  tile = '" + pTile + "'");
             }
@@ -249,6 +292,102 @@ public class TilesOverlay extends SafeDrawOverlay {
         }
     };
 
+    /**
+     * Draw a missing tile using tiles of other zoom levels that are already in the memory cache:
+     * its four children if they are all there, otherwise the matching part of the closest
+     * ancestor, overdrawn with whichever children are available. Only memory cache lookups are
+     * made, so this is cheap enough to run for every missing tile on every frame.
+     *
+     * @param beingUsed the list of drawables to release once the frame is drawn
+     * @return true if anything was drawn
+     */
+    private boolean drawFallbackTile(final Canvas pCanvas, final String pCacheKey,
+            final MapTile pTile, final Rect pTileRect,
+            final List<CacheableBitmapDrawable> beingUsed) {
+        final int z = pTile.getZ();
+        final CacheableBitmapDrawable[] children = mFallbackChildren;
+        int childCount = 0;
+        if (z < (int) mTileProvider.getMaximumZoomLevel()) {
+            final int childX = pTile.getX() << 1;
+            final int childY = pTile.getY() << 1;
+            for (int i = 0; i < 4; i++) {
+                children[i] = getFallbackDrawable(pCacheKey, z + 1, childX + (i & 1),
+                        childY + (i >> 1));
+                if (children[i] != null) {
+                    childCount++;
+                }
+            }
+        }
+
+        boolean drawn = false;
+        if (childCount < 4) {
+            final int minZoom = Math.max(0, (int) mTileProvider.getMinimumZoomLevel());
+            for (int dz = 1; dz <= mFallbackAncestorLevels && z - dz >= minZoom; dz++) {
+                final CacheableBitmapDrawable ancestor = getFallbackDrawable(pCacheKey, z - dz,
+                        pTile.getX() >> dz, pTile.getY() >> dz);
+                if (ancestor == null) {
+                    continue;
+                }
+                // The part of the ancestor covering this tile
+                final Bitmap bitmap = markBeingUsed(ancestor, beingUsed);
+                final int mask = (1 << dz) - 1;
+                final int size = bitmap.getWidth() >> dz;
+                if (size > 0) {
+                    final int left = (pTile.getX() & mask) * size;
+                    final int top = (pTile.getY() & mask) * size;
+                    mFallbackSrcRect.set(left, top, left + size, top + size);
+                    pCanvas.drawBitmap(bitmap, mFallbackSrcRect, pTileRect, mFallbackPaint);
+                    drawn = true;
+                }
+                break;
+            }
+        }
+
+        if (childCount > 0) {
+            final int halfWidth = pTileRect.width() / 2;
+            final int halfHeight = pTileRect.height() / 2;
+            for (int i = 0; i < 4; i++) {
+                if (children[i] == null) {
+                    continue;
+                }
+                final int left = pTileRect.left + (i & 1) * halfWidth;
+                final int top = pTileRect.top + (i >> 1) * halfHeight;
+                mFallbackDestRect.set(left, top,
+                        (i & 1) == 0 ? left + halfWidth : pTileRect.right,
+                        (i >> 1) == 0 ? top + halfHeight : pTileRect.bottom);
+                pCanvas.drawBitmap(markBeingUsed(children[i], beingUsed), null, mFallbackDestRect,
+                        mFallbackPaint);
+                children[i] = null;
+                drawn = true;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Look up a tile in the memory cache only.
+     *
+     * @return the tile, or null if it is not in memory
+     */
+    private CacheableBitmapDrawable getFallbackDrawable(final String pCacheKey, final int z,
+            final int x, final int y) {
+        final CacheableBitmapDrawable drawable =
+                mTileProvider.getMapTileFromMemory(mTileLooper.obtainTile(pCacheKey, z, x, y));
+        return (drawable != null && drawable.isBitmapValid()) ? drawable : null;
+    }
+
+    /**
+     * Keep a tile's bitmap from being recycled until the frame is drawn.
+     *
+     * @return the tile's bitmap
+     */
+    private static Bitmap markBeingUsed(final CacheableBitmapDrawable drawable,
+            final List<CacheableBitmapDrawable> beingUsed) {
+        drawable.setBeingUsed(true);
+        beingUsed.add(drawable);
+        return drawable.getBitmap();
+    }
+
     public int getLoadingBackgroundColor() {
         return mLoadingBackgroundColor;
     }
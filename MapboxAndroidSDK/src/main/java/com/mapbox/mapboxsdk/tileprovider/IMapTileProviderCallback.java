@@ -20,6 +20,14 @@ public interface IMapTileProviderCallback {
      */
     void mapTileRequestFailed(MapTileRequestState aState);
 
+    /**
+     * The map tile request was dropped because the tile is no longer needed. Unlike
+     * {@link #mapTileRequestFailed(MapTileRequestState)}, no other provider should be tried.
+     *
+     * @param aState a state object
+     */
+    void mapTileRequestCancelled(MapTileRequestState aState);
+
     /**
      * The map tile request has produced an expired tile.
      *
@@ -16,13 +16,14 @@ public class MapTile {
     public static final int MAPTILE_FAIL_ID = MAPTILE_SUCCESS_ID + 1;
 
     // This class must be immutable because it's used as the key in the cache hash map
-    // (ie all the fields are final).
+    // (ie all the fields are final, the strings are only derived from them lazily).
     private final int x;
     private final int y;
     private final int z;
-    private final String path;
-    private final String cacheKey;
-    private final int code;
+    private final long id;
+    private final String layerCacheKey;
+    private String path;
+    private String cacheKey;
     private Rect mTileRect;
 
     public MapTile(final int az, final int ax, final int ay) {
@@ -33,11 +34,17 @@ public class MapTile {
         this.z = az;
         this.x = ax;
         this.y = ay;
-        this.path = String.valueOf(z) + "/" +
-                String.valueOf(x) + "/" +
-                String.valueOf(y);
-        this.cacheKey = aCacheKey + "/" + path;
-        this.code = ((17 * (37 + z)) * (37 * x)) * (37 + y);
+        this.layerCacheKey = aCacheKey;
+        this.id = TileId.pack(TileId.getLayerIndex(aCacheKey), az, ax, ay);
+    }
+
+    /**
+     * Get the packed id of this tile, see {@link TileId}.
+     *
+     * @return the tile id
+     */
+    public long getId() {
+        return id;
     }
 
     public int getZ() {
@@ -53,16 +60,23 @@ public class MapTile {
     }
 
     public String getPath() {
+        // Racing threads build equal strings, so no locking is needed
+        if (path == null) {
+            path = String.valueOf(z) + "/" + String.valueOf(x) + "/" + String.valueOf(y);
+        }
         return path;
     }
 
     public String getCacheKey() {
+        if (cacheKey == null) {
+            cacheKey = layerCacheKey + "/" + getPath();
+        }
         return cacheKey;
     }
 
     @Override
     public String toString() {
-        return path;
+        return getPath();
     }
 
     @Override
@@ -77,12 +91,15 @@ public class MapTile {
             return false;
         }
         final MapTile rhs = (MapTile) obj;
-        return z == rhs.z && x == rhs.x && y == rhs.y;
+        return z == rhs.z && x == rhs.x && y == rhs.y
+                && (layerCacheKey == null ? rhs.layerCacheKey == null
+                : layerCacheKey.equals(rhs.layerCacheKey));
     }
 
     @Override
     public int hashCode() {
-        return this.code;
+        // Equal tiles have equal cache keys, so equal layer indices and ids
+        return (int) (id ^ (id >>> 32));
     }
 
     public void setTileRect(final Rect rect) {
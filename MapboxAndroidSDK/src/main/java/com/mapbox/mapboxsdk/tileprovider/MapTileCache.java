@@ -9,10 +9,16 @@ import android.graphics.drawable.Drawable;
 import android.os.Environment;
 import android.util.Log;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.modules.ConfigurablePriorityThreadFactory;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import uk.co.senab.bitmapcache.BitmapLruCache;
+import uk.co.senab.bitmapcache.CacheStats;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
@@ -22,12 +28,19 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 public class MapTileCache implements TileLayerConstants {
 
     protected static BitmapLruCache sCachedTiles = null;
+    protected static SegmentedTileStore sSegmentStore = null;
+    private static boolean sSegmentStoreOpening = false;
+    private static boolean sSegmentStoreFailed = false;
+    // Opens and flushes the segmented disk cache, away from the threads asking for tiles
+    private static ExecutorService sDiskCacheExecutor;
     private Context context;
     static final String TAG = "MapTileCache";
     private static final String DISK_CACHE_SUBDIR = "mapbox_tiles_cache";
+    private static final String SEGMENTED_DISK_CACHE_SUBDIR = "mapbox_tiles_segments";
     private int mMaximumCacheSize;
 
     private boolean mDiskCacheEnabled = false;
+    private boolean mSegmentedDiskCacheEnabled = false;
 
     public MapTileCache(final Context aContext) {
         this(aContext, CACHE_MAPTILEDISKSIZE_DEFAULT);
@@ -58,6 +71,8 @@ public class MapTileCache implements TileLayerConstants {
             }
             sCachedTiles = (new BitmapLruCache.Builder(context)).setMemoryCacheEnabled(true)
                     .setMemoryCacheMaxSize(BitmapUtils.calculateMemoryCacheSize(context))
+                    .setEncodedCacheEnabled(true)
+                    .setEncodedCacheMaxSize(CACHE_MAPTILEENCODEDSIZE_DEFAULT)
                     .setDiskCacheEnabled(mDiskCacheEnabled)
                     .setDiskCacheMaxSize(mMaximumCacheSize)
                     .setDiskCacheLocation(cacheDir)
@@ -67,6 +82,69 @@ public class MapTileCache implements TileLayerConstants {
         return sCachedTiles;
     }
 
+    /**
+     * Get the segmented disk store. Opening it rebuilds its index from the segment files, so
+     * the first call starts opening it on the disk cache thread instead. Until it is open, reads
+     * fall back to the disk tier of the BitmapLruCache and writes are queued behind the open, so
+     * that they don't end up where the store never looks.
+     *
+     * @return the store, or null if the segmented disk cache is not enabled, not open yet or
+     * can't be opened
+     */
+    protected SegmentedTileStore getSegmentStore() {
+        if (!mDiskCacheEnabled || !mSegmentedDiskCacheEnabled) {
+            return null;
+        }
+        synchronized (MapTileCache.class) {
+            if (sSegmentStore == null && !sSegmentStoreOpening && !sSegmentStoreFailed) {
+                sSegmentStoreOpening = true;
+                final File storeDir = getDiskCacheDir(context, SEGMENTED_DISK_CACHE_SUBDIR);
+                final int maximumCacheSize = mMaximumCacheSize;
+                getDiskCacheExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        openSegmentStore(storeDir, maximumCacheSize);
+                    }
+                });
+            }
+            return sSegmentStore;
+        }
+    }
+
+    private static void openSegmentStore(final File storeDir, final int maximumCacheSize) {
+        SegmentedTileStore store = null;
+        try {
+            store = SegmentedTileStore.open(storeDir, maximumCacheSize);
+        } catch (IOException e) {
+            Log.e(TAG, "can't open segmented disk cache in " + storeDir, e);
+        }
+        synchronized (MapTileCache.class) {
+            sSegmentStore = store;
+            sSegmentStoreFailed = store == null;
+            sSegmentStoreOpening = false;
+        }
+    }
+
+    /**
+     * @return true if tiles belong in the segmented disk cache, even if it is not open yet
+     */
+    private boolean isSegmentStoreExpected() {
+        if (!mDiskCacheEnabled || !mSegmentedDiskCacheEnabled) {
+            return false;
+        }
+        synchronized (MapTileCache.class) {
+            return !sSegmentStoreFailed;
+        }
+    }
+
+    private static synchronized ExecutorService getDiskCacheExecutor() {
+        if (sDiskCacheExecutor == null) {
+            sDiskCacheExecutor = Executors.newSingleThreadExecutor(
+                    new ConfigurablePriorityThreadFactory(Thread.NORM_PRIORITY, "MapTileCache disk"));
+        }
+        return sDiskCacheExecutor;
+    }
+
     /**
      * Computes a prefixed key for a tile.
      *
@@ -81,7 +159,10 @@ public class MapTileCache implements TileLayerConstants {
         String key = getCacheKey(aTile);
         CacheableBitmapDrawable result = getCache().getFromMemoryCache(key);
         if (result == null) {
-            result = getCache().getFromDiskCache(key, null);
+            result = getCache().getFromEncodedCache(key, null);
+        }
+        if (result == null) {
+            result = getMapTileFromDisk(aTile);
         }
         return result;
     }
@@ -90,17 +171,77 @@ public class MapTileCache implements TileLayerConstants {
         return getCache().getFromMemoryCache(getCacheKey(aTile));
     }
 
+    /**
+     * Decode a tile from the encoded bytes kept in memory, without touching the disk.
+     *
+     * @param aTile the tile
+     * @return the decoded drawable, or null if the tile's bytes are not in memory
+     */
+    public CacheableBitmapDrawable getMapTileFromEncodedCache(final MapTile aTile) {
+        return getCache().getFromEncodedCache(getCacheKey(aTile), null);
+    }
+
     public CacheableBitmapDrawable getMapTileFromDisk(final MapTile aTile) {
-        return getCache().getFromDiskCache(getCacheKey(aTile), null);
+        final SegmentedTileStore store = getSegmentStore();
+        if (store == null) {
+            return getCache().getFromDiskCache(getCacheKey(aTile), null);
+        }
+        final String key = getCacheKey(aTile);
+        final byte[] data = store.get(key);
+        if (data == null) {
+            return null;
+        }
+        // Decodes into the memory caches, the segment store already is the disk copy
+        final CacheableBitmapDrawable result = getCache().putInMemoryCache(key, data, null);
+        if (result == null) {
+            removeFromSegmentStore(store, key);
+        }
+        return result;
     }
 
     public CacheableBitmapDrawable putTileStream(final MapTile aTile, final InputStream inputStream,
             final BitmapFactory.Options decodeOpts) {
-        return getCache().put(getCacheKey(aTile), inputStream, decodeOpts);
+        if (getSegmentStore() == null && !isSegmentStoreExpected()) {
+            return getCache().put(getCacheKey(aTile), inputStream, decodeOpts);
+        }
+        try {
+            return putTileData(aTile, readFully(inputStream), decodeOpts);
+        } catch (IOException e) {
+            Log.e(TAG, "can't read tile " + aTile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decode the encoded tile {@code data} into a (reused, if possible) bitmap for the memory
+     * cache and store the untouched bytes in the disk cache, avoiding a second encode.
+     *
+     * @param aTile the tile
+     * @param data the encoded tile image, as received
+     * @param decodeOpts optional decoding options
+     * @return the cached drawable, or null if the data could not be decoded
+     */
+    public CacheableBitmapDrawable putTileData(final MapTile aTile, final byte[] data,
+            final BitmapFactory.Options decodeOpts) {
+        final String key = getCacheKey(aTile);
+        if (getSegmentStore() == null && !isSegmentStoreExpected()) {
+            return getCache().put(key, data, decodeOpts);
+        }
+        final CacheableBitmapDrawable result = getCache().putInMemoryCache(key, data, decodeOpts);
+        if (result != null) {
+            putInSegmentStore(key, data);
+        }
+        return result;
     }
 
     public CacheableBitmapDrawable putTileBitmap(final MapTile aTile, final Bitmap bitmap) {
-        return getCache().put(getCacheKey(aTile), bitmap);
+        final String key = getCacheKey(aTile);
+        if (getSegmentStore() == null && !isSegmentStoreExpected()) {
+            return getCache().put(key, bitmap);
+        }
+        final CacheableBitmapDrawable result = getCache().putInMemoryCache(key, bitmap);
+        putInSegmentStore(key, compress(bitmap));
+        return result;
     }
 
     public CacheableBitmapDrawable putTile(final MapTile aTile, final Drawable aDrawable) {
@@ -111,7 +252,12 @@ public class MapTileCache implements TileLayerConstants {
                 drawable = getCache().putInMemoryCache(getCacheKey(aTile),
                         ((BitmapDrawable) aDrawable).getBitmap());
             }
-            if (getCache().isDiskCacheEnabled() && !getCache().containsInDiskCache(key)) {
+            final SegmentedTileStore store = getSegmentStore();
+            if (store != null || isSegmentStoreExpected()) {
+                if (store == null || !store.contains(key)) {
+                    putInSegmentStore(key, compress(((BitmapDrawable) aDrawable).getBitmap()));
+                }
+            } else if (getCache().isDiskCacheEnabled() && !getCache().containsInDiskCache(key)) {
                 if (drawable != null) {
                     getCache().putInDiskCache(getCacheKey(aTile), drawable);
                 } else {
@@ -148,7 +294,14 @@ public class MapTileCache implements TileLayerConstants {
             final Drawable aDrawable) {
         if (aDrawable != null && aDrawable instanceof BitmapDrawable) {
             String key = getCacheKey(aTile);
-            if (getCache().isDiskCacheEnabled() && !getCache().containsInDiskCache(key)) {
+            final SegmentedTileStore store = getSegmentStore();
+            if (store != null || isSegmentStoreExpected()) {
+                if (store == null || !store.contains(key)) {
+                    final Bitmap bitmap = ((BitmapDrawable) aDrawable).getBitmap();
+                    putInSegmentStore(key, compress(bitmap));
+                    return createCacheableBitmapDrawable(bitmap, aTile);
+                }
+            } else if (getCache().isDiskCacheEnabled() && !getCache().containsInDiskCache(key)) {
                 return getCache().putInDiskCache(getCacheKey(aTile),
                         ((BitmapDrawable) aDrawable).getBitmap());
             }
@@ -157,15 +310,30 @@ public class MapTileCache implements TileLayerConstants {
     }
 
     public boolean containsTile(final MapTile aTile) {
-        return getCache().contains(getCacheKey(aTile));
+        final String key = getCacheKey(aTile);
+        final SegmentedTileStore store = getSegmentStore();
+        if (store == null) {
+            return getCache().contains(key);
+        }
+        return getCache().containsInMemoryCache(key) || getCache().containsInEncodedCache(key)
+                || store.contains(key);
     }
 
     public boolean containsTileInDiskCache(final MapTile aTile) {
+        final SegmentedTileStore store = getSegmentStore();
+        if (store != null) {
+            return store.contains(getCacheKey(aTile));
+        }
         return getCache().isDiskCacheEnabled() && getCache().containsInDiskCache(getCacheKey(aTile));
     }
 
     public void removeTile(final MapTile aTile) {
-        getCache().remove(getCacheKey(aTile));
+        final String key = getCacheKey(aTile);
+        getCache().remove(key);
+        final SegmentedTileStore store = getSegmentStore();
+        if (store != null) {
+            removeFromSegmentStore(store, key);
+        }
     }
 
     public void removeTileFromMemory(final MapTile aTile) {
@@ -179,6 +347,92 @@ public class MapTileCache implements TileLayerConstants {
 
     public void purgeDiskCache() {
         getCache().purgeDiskCache();
+        final SegmentedTileStore store = getSegmentStore();
+        if (store != null) {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                Log.e(TAG, "can't clear segmented disk cache", e);
+            }
+        }
+    }
+
+    public CacheStats getMemoryCacheStats() {
+        return getCache().getMemoryCacheStats();
+    }
+
+    public CacheStats getEncodedCacheStats() {
+        return getCache().getEncodedCacheStats();
+    }
+
+    public CacheStats getDiskCacheStats() {
+        final SegmentedTileStore store = getSegmentStore();
+        return store != null ? store.getStats() : getCache().getDiskCacheStats();
+    }
+
+    private void putInSegmentStore(final String key, final byte[] data) {
+        if (data == null) {
+            return;
+        }
+        final SegmentedTileStore store = getSegmentStore();
+        if (store != null) {
+            writeToSegmentStore(store, key, data);
+            return;
+        }
+        // Still opening: queue the write behind the open on the disk cache thread, rather than
+        // writing to the disk tier of the BitmapLruCache where the store never looks
+        getDiskCacheExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final SegmentedTileStore openedStore;
+                synchronized (MapTileCache.class) {
+                    openedStore = sSegmentStore;
+                }
+                if (openedStore != null) {
+                    writeToSegmentStore(openedStore, key, data);
+                }
+            }
+        });
+    }
+
+    private static void writeToSegmentStore(final SegmentedTileStore store, final String key,
+            final byte[] data) {
+        try {
+            store.put(key, data);
+        } catch (IOException e) {
+            if (store.isClosed()) {
+                Log.d(TAG, "segmented disk cache closed, not writing tile " + key);
+            } else {
+                Log.e(TAG, "can't write tile " + key + " to segmented disk cache", e);
+            }
+        }
+    }
+
+    private static void removeFromSegmentStore(final SegmentedTileStore store, final String key) {
+        try {
+            store.remove(key);
+        } catch (IOException e) {
+            Log.e(TAG, "can't remove tile " + key + " from segmented disk cache", e);
+        }
+    }
+
+    private static byte[] compress(final Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] readFully(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
     }
 
     public CacheableBitmapDrawable createCacheableBitmapDrawable(Bitmap bitmap, MapTile aTile) {
@@ -226,4 +480,39 @@ public class MapTileCache implements TileLayerConstants {
     public boolean isDiskCacheEnabled() {
         return mDiskCacheEnabled;
     }
+
+    /**
+     * Store tiles on disk in a few large memory-mapped segment files instead of one file per
+     * tile. Only used when the disk cache is enabled. The tiles in memory are kept, and the
+     * store is opened or closed on the disk cache thread, so a store is only opened once the
+     * previous one is closed.
+     *
+     * @param enabled whether to use the segmented disk cache
+     */
+    public void setSegmentedDiskCacheEnabled(final boolean enabled) {
+        if (mSegmentedDiskCacheEnabled != enabled) {
+            mSegmentedDiskCacheEnabled = enabled;
+            if (enabled) {
+                return;
+            }
+            final SegmentedTileStore store;
+            synchronized (MapTileCache.class) {
+                store = sSegmentStore;
+                sSegmentStore = null;
+                sSegmentStoreFailed = false;
+            }
+            if (store != null) {
+                getDiskCacheExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        store.close();
+                    }
+                });
+            }
+        }
+    }
+
+    public boolean isSegmentedDiskCacheEnabled() {
+        return mSegmentedDiskCacheEnabled;
+    }
 }
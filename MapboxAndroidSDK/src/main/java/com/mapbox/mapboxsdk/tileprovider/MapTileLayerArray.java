@@ -9,9 +9,9 @@ import com.mapbox.mapboxsdk.tileprovider.modules.MapTileModuleLayerBase;
 import com.mapbox.mapboxsdk.tileprovider.modules.NetworkAvailabilityCheck;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
+import com.mapbox.mapboxsdk.util.LongHashMap;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
@@ -33,11 +33,13 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
  */
 public class MapTileLayerArray extends MapTileLayerBase {
 
-    protected final HashMap<MapTile, MapTileRequestState> mWorking;
+    // Keyed by tile id
+    protected final LongHashMap<MapTileRequestState> mWorking;
 
     protected final List<MapTileModuleLayerBase> mTileProviderList;
 
-    protected final List<MapTile> mUnaccessibleTiles;
+    // Keyed by tile id
+    protected final LongHashMap<MapTile> mUnaccessibleTiles;
 
     protected final NetworkAvailabilityCheck mNetworkAvailabilityCheck;
 
@@ -62,8 +64,8 @@ public class MapTileLayerArray extends MapTileLayerBase {
             final MapTileModuleLayerBase[] pTileProviderArray) {
         super(context, pTileSource);
 
-        mWorking = new HashMap<MapTile, MapTileRequestState>();
-        mUnaccessibleTiles = new ArrayList<MapTile>();
+        mWorking = new LongHashMap<MapTileRequestState>();
+        mUnaccessibleTiles = new LongHashMap<MapTile>();
 
         mNetworkAvailabilityCheck = new NetworkAvailabilityCheck(context);
 
@@ -102,11 +104,13 @@ public class MapTileLayerArray extends MapTileLayerBase {
      * @return whether the tile is unavailable
      */
     private boolean tileUnavailable(final MapTile pTile) {
-        if (mUnaccessibleTiles.size() > 0) {
-            if (networkAvailable()) {
-                mUnaccessibleTiles.clear();
-            } else if (mUnaccessibleTiles.contains(pTile)) {
-                return true;
+        synchronized (mUnaccessibleTiles) {
+            if (mUnaccessibleTiles.size() > 0) {
+                if (networkAvailable()) {
+                    mUnaccessibleTiles.clear();
+                } else if (mUnaccessibleTiles.containsKey(pTile.getId())) {
+                    return true;
+                }
             }
         }
         return false;
@@ -130,7 +134,7 @@ public class MapTileLayerArray extends MapTileLayerBase {
 //            Log.d(TAG, "Tile not found in memory so will load from remote.");
             boolean alreadyInProgress = false;
             synchronized (mWorking) {
-                alreadyInProgress = mWorking.containsKey(pTile);
+                alreadyInProgress = mWorking.containsKey(pTile.getId());
             }
 
             if (!alreadyInProgress) {
@@ -145,11 +149,11 @@ public class MapTileLayerArray extends MapTileLayerBase {
 
                 synchronized (mWorking) {
                     // Check again
-                    alreadyInProgress = mWorking.containsKey(pTile);
+                    alreadyInProgress = mWorking.containsKey(pTile.getId());
                     if (alreadyInProgress) {
                         return null;
                     }
-                    mWorking.put(pTile, state);
+                    mWorking.put(pTile.getId(), state);
                 }
 
                 final MapTileModuleLayerBase provider = findNextAppropriateProvider(state);
@@ -174,7 +178,7 @@ public class MapTileLayerArray extends MapTileLayerBase {
     public void mapTileRequestCompleted(final MapTileRequestState aState,
             final Drawable aDrawable) {
         synchronized (mWorking) {
-            mWorking.remove(aState.getMapTile());
+            mWorking.remove(aState.getMapTile().getId());
         }
         super.mapTileRequestCompleted(aState, aDrawable);
     }
@@ -186,15 +190,36 @@ public class MapTileLayerArray extends MapTileLayerBase {
             nextProvider.loadMapTileAsync(aState);
         } else {
             synchronized (mWorking) {
-                mWorking.remove(aState.getMapTile());
+                mWorking.remove(aState.getMapTile().getId());
             }
             if (!networkAvailable()) {
-                mUnaccessibleTiles.add(aState.getMapTile());
+                synchronized (mUnaccessibleTiles) {
+                    mUnaccessibleTiles.put(aState.getMapTile().getId(), aState.getMapTile());
+                }
             }
             super.mapTileRequestFailed(aState);
         }
     }
 
+    @Override
+    public void mapTileRequestCancelled(final MapTileRequestState aState) {
+        synchronized (mWorking) {
+            mWorking.remove(aState.getMapTile().getId());
+        }
+        super.mapTileRequestCancelled(aState);
+    }
+
+    @Override
+    public void setViewport(final int zoom, final int left, final int top, final int right,
+            final int bottom) {
+        synchronized (mTileProviderList) {
+            // Called on every frame: an indexed loop does not allocate an iterator
+            for (int i = 0; i < mTileProviderList.size(); i++) {
+                mTileProviderList.get(i).setViewport(zoom, left, top, right, bottom);
+            }
+        }
+    }
+
     @Override
     public void mapTileRequestExpiredTile(MapTileRequestState aState,
             CacheableBitmapDrawable aDrawable) {
@@ -208,7 +233,7 @@ public class MapTileLayerArray extends MapTileLayerBase {
             nextProvider.loadMapTileAsync(aState);
         } else {
             synchronized (mWorking) {
-                mWorking.remove(aState.getMapTile());
+                mWorking.remove(aState.getMapTile().getId());
             }
         }
     }
@@ -275,7 +300,9 @@ public class MapTileLayerArray extends MapTileLayerBase {
     @Override
     public void setTileSource(final ITileLayer aTileSource) {
         super.setTileSource(aTileSource);
-        mUnaccessibleTiles.clear();
+        synchronized (mUnaccessibleTiles) {
+            mUnaccessibleTiles.clear();
+        }
         synchronized (mTileProviderList) {
             mTileProviderList.clear();
         }
@@ -195,6 +195,35 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
         }
     }
 
+    /**
+     * Called by implementation class methods indicating that the request was dropped because the
+     * tile is no longer needed.
+     *
+     * @param pState the map tile request state object
+     */
+    @Override
+    public void mapTileRequestCancelled(final MapTileRequestState pState) {
+        if (DEBUG_TILE_PROVIDERS) {
+            Log.d(TAG, "MapTileLayerBase.mapTileRequestCancelled(): " + pState.getMapTile());
+        }
+    }
+
+    /**
+     * Tell the tile provider which tiles are currently shown, so that it can load the most
+     * useful ones first and drop requests for tiles that scrolled out of view. The coordinates
+     * are in tiles at the given zoom level and are not wrapped around the date line.
+     *
+     * @param zoom the zoom level the map is drawn at
+     * @param left the left-most visible tile column
+     * @param top the top-most visible tile row
+     * @param right the right-most visible tile column
+     * @param bottom the bottom-most visible tile row
+     */
+    public void setViewport(final int zoom, final int left, final int top, final int right,
+            final int bottom) {
+        // Providers without a request queue have nothing to prioritize
+    }
+
     /**
      * Called by implementation class methods indicating that they have produced an expired result
      * that can be used but better results may be delivered later. The tile is added to the cache,
@@ -278,6 +307,10 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
         mTileCache.setDiskCacheEnabled(enabled);
     }
 
+    public void setSegmentedDiskCacheEnabled(final boolean enabled) {
+        mTileCache.setSegmentedDiskCacheEnabled(enabled);
+    }
+
     /**
      * Whether to use the network connection if it's available.
      */
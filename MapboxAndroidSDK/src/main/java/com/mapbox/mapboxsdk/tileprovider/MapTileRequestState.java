@@ -15,6 +15,8 @@ public class MapTileRequestState {
     private final MapTile mMapTile;
     private final IMapTileProviderCallback mCallback;
     private MapTileModuleLayerBase mCurrentProvider;
+    private volatile boolean mCancelled = false;
+    private Runnable mCancelAction;
 
     /**
      * Initialize a new state to keep track of a map tile
@@ -47,6 +49,56 @@ public class MapTileRequestState {
         return mCallback;
     }
 
+    /**
+     * Cancel this request: the current provider should stop loading the tile as soon as
+     * possible and skip decoding it. Runs the cancel action registered with
+     * {@link #setCancelAction(Runnable)}, if any.
+     *
+     * @return true if the request was not already cancelled
+     */
+    public boolean cancel() {
+        final Runnable action;
+        synchronized (this) {
+            if (mCancelled) {
+                return false;
+            }
+            mCancelled = true;
+            action = mCancelAction;
+            mCancelAction = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+        return true;
+    }
+
+    /**
+     * Whether this request was cancelled
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Register the action that aborts the work currently being done for this request, such as an
+     * open network transfer. If the request is already cancelled the action runs immediately.
+     *
+     * @param action the action to run on cancel, or null to clear it once the work is done
+     */
+    public void setCancelAction(final Runnable action) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mCancelAction = action;
+                return;
+            }
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
     public MapTileModuleLayerBase getNextProvider() {
         mCurrentProvider = mProviderQueue.poll();
         return mCurrentProvider;
@@ -0,0 +1,551 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import android.util.Log;
+import com.mapbox.mapboxsdk.util.LongHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import uk.co.senab.bitmapcache.CacheStats;
+
+/**
+ * A disk cache for encoded tiles that appends them to a few large memory-mapped segment files,
+ * instead of keeping one file per tile. An in-memory index maps a 64-bit hash of each tile's
+ * cache key to its record. The index is rebuilt on open by scanning the segment files, so
+ * there is no journal to replay or to let grow.
+ * <p/>
+ * Space is reclaimed one segment at a time: when the store is over its budget, the oldest
+ * segment is compacted. Tiles read since they were written are copied to the newest segment,
+ * the others are evicted, and the segment file is deleted.
+ * <p/>
+ * Records are checksummed, so a record torn by a crash ends the scan of its segment instead
+ * of being served. Segments are only forced to disk when they fill up, after a compaction and
+ * on {@link #flush()} and {@link #close()}.
+ */
+public class SegmentedTileStore {
+
+    private static final String TAG = "SegmentedTileStore";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MINIMUM_SEGMENT_SIZE = 64 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_MAGIC = 0x4d425347;
+    private static final int RECORD_MAGIC = 0x4d425452;
+    private static final int VERSION = 1;
+
+    // magic, version, sequence, reserved
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    // magic, key length, data length, crc, key hash
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int TOMBSTONE = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    // Oldest first, the last one is the head that records are appended to
+    private final ArrayList<Segment> mSegments = new ArrayList<Segment>();
+    private final LongHashMap<Location> mIndex = new LongHashMap<Location>();
+    private final CRC32 mCrc = new CRC32();
+    private byte[] mScratch = new byte[16 * 1024];
+    private Segment mHead;
+    private boolean mCompacting;
+    private boolean mClosed;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private SegmentedTileStore(final File directory, final long maxSize, final int segmentSize) {
+        mDirectory = directory;
+        mSegmentSize = (int) Math.max(MINIMUM_SEGMENT_SIZE, Math.min(segmentSize, maxSize / 4));
+        mMaxSegments = (int) Math.max(2, maxSize / mSegmentSize);
+    }
+
+    /**
+     * Open the store in {@code directory}, creating it if needed, and rebuild its index. This
+     * reads the whole store, so it should not be called from the main thread.
+     *
+     * @param directory the directory holding the segment files
+     * @param maxSize the maximum number of bytes to use on disk
+     * @return the store
+     * @throws IOException if the directory can't be created or a segment can't be mapped
+     */
+    public static SegmentedTileStore open(final File directory, final long maxSize)
+            throws IOException {
+        return open(directory, maxSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static SegmentedTileStore open(final File directory, final long maxSize,
+            final int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+        final SegmentedTileStore store = new SegmentedTileStore(directory, maxSize, segmentSize);
+        store.load();
+        return store;
+    }
+
+    /**
+     * @param key the cache key of a tile
+     * @return the encoded tile, or null if it is not in the store
+     */
+    public synchronized byte[] get(final String key) {
+        final Location location = find(key);
+        if (location == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        location.mAccessed = true;
+
+        final MappedByteBuffer buffer = location.mSegment.mBuffer;
+        final int keyLength = buffer.getInt(location.mOffset + 4);
+        final byte[] data = new byte[buffer.getInt(location.mOffset + 8)];
+        buffer.position(location.mOffset + RECORD_HEADER_SIZE + keyLength);
+        buffer.get(data);
+        return data;
+    }
+
+    public synchronized boolean contains(final String key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Store an encoded tile, replacing any previous version.
+     *
+     * @param key the cache key of a tile
+     * @param data the encoded tile
+     * @return false if the tile is too large to be stored, or if another tile whose key has the
+     * same hash is stored already
+     * @throws IOException if the store is closed, or a new segment is needed and can't be created
+     */
+    public synchronized boolean put(final String key, final byte[] data) throws IOException {
+        checkOpen();
+        if (data == null || data.length == 0) {
+            return false;
+        }
+        final byte[] keyBytes = key.getBytes(UTF8);
+        if (recordLength(keyBytes.length, data.length) > mSegmentSize - SEGMENT_HEADER_SIZE) {
+            return false;
+        }
+        final long hash = hash(key);
+        final Location existing = mIndex.get(hash);
+        if (existing != null && !hasKey(existing, keyBytes)) {
+            // The index holds one record per hash, keep the tile already there
+            return false;
+        }
+        final int offset = append(hash, keyBytes, data);
+        final Location previous = mIndex.put(hash, new Location(mHead, offset));
+        if (previous != null) {
+            previous.mSegment.mLiveCount--;
+        }
+        mHead.mLiveCount++;
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * @param key the cache key of a tile
+     * @return true if the tile was in the store
+     * @throws IOException if the store is closed, or a new segment is needed and can't be created
+     */
+    public synchronized boolean remove(final String key) throws IOException {
+        checkOpen();
+        final Location location = find(key);
+        if (location == null) {
+            return false;
+        }
+        final long hash = hash(key);
+        mIndex.remove(hash);
+        location.mSegment.mLiveCount--;
+        // Older segments still hold the record, so write down that it's gone
+        append(hash, key.getBytes(UTF8), null);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Remove every tile and delete all segment files.
+     *
+     * @throws IOException if the store is closed, or a new, empty segment can't be created
+     */
+    public synchronized void clear() throws IOException {
+        checkOpen();
+        final int sequence = mHead.mSequence + 1;
+        for (final Segment segment : mSegments) {
+            deleteSegmentFile(segment);
+        }
+        mSegments.clear();
+        mIndex.clear();
+        mHead = createSegment(sequence);
+    }
+
+    /**
+     * Force the head segment to disk.
+     */
+    public synchronized void flush() {
+        if (!mClosed) {
+            mHead.mBuffer.force();
+        }
+    }
+
+    /**
+     * Force the head segment to disk and drop the index. Once closed, the store holds no tiles
+     * and writes to it fail, so another store can be opened on the same directory.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mHead.mBuffer.force();
+        mClosed = true;
+        mIndex.clear();
+        mSegments.clear();
+        mHead = null;
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return the number of bytes used in the segment files, including records that were
+     * replaced or removed but not compacted yet
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (final Segment segment : mSegments) {
+            size += segment.mEnd;
+        }
+        return size;
+    }
+
+    public long getMaxSize() {
+        return (long) mMaxSegments * mSegmentSize;
+    }
+
+    public synchronized int getTileCount() {
+        return mIndex.size();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(mHitCount, mMissCount, mEvictionCount, size(), getMaxSize(),
+                mIndex.size());
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Store in " + mDirectory + " is closed");
+        }
+    }
+
+    private void load() throws IOException {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(final File lhs, final File rhs) {
+                    final int l = getSequence(lhs);
+                    final int r = getSequence(rhs);
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (final File file : files) {
+                final int sequence = getSequence(file);
+                if (sequence <= 0) {
+                    continue;
+                }
+                final Segment segment = mapSegment(file, sequence);
+                if (segment.mBuffer.getInt(0) != SEGMENT_MAGIC
+                        || segment.mBuffer.getInt(4) != VERSION) {
+                    Log.w(TAG, "Deleting unreadable segment " + file);
+                    deleteSegmentFile(segment);
+                    continue;
+                }
+                mSegments.add(segment);
+                scan(segment);
+            }
+        }
+
+        if (mSegments.isEmpty()) {
+            mHead = createSegment(1);
+        } else {
+            mHead = mSegments.get(mSegments.size() - 1);
+        }
+        Log.i(TAG, "Loaded " + mIndex.size() + " tiles from " + mSegments.size() + " segments");
+        compactIfNeeded();
+    }
+
+    /**
+     * Add the records of a segment to the index. Segments must be scanned oldest first, so
+     * that newer records replace older ones.
+     */
+    private void scan(final Segment segment) {
+        final MappedByteBuffer buffer = segment.mBuffer;
+        final int limit = buffer.capacity();
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= limit
+                && buffer.getInt(offset) == RECORD_MAGIC) {
+            final int keyLength = buffer.getInt(offset + 4);
+            final int dataLength = buffer.getInt(offset + 8);
+            if (keyLength < 0 || dataLength < TOMBSTONE
+                    || (long) offset + RECORD_HEADER_SIZE + keyLength + Math.max(0, dataLength)
+                    > limit) {
+                break;
+            }
+            if (checksum(buffer, offset, keyLength, dataLength) != buffer.getInt(offset + 12)) {
+                Log.w(TAG, "Torn record at " + offset + " in " + segment.mFile);
+                break;
+            }
+
+            final long hash = buffer.getLong(offset + 16);
+            final Location previous = dataLength == TOMBSTONE
+                    ? mIndex.remove(hash)
+                    : mIndex.put(hash, new Location(segment, offset));
+            if (previous != null) {
+                previous.mSegment.mLiveCount--;
+            }
+            if (dataLength != TOMBSTONE) {
+                segment.mLiveCount++;
+            }
+            offset += recordLength(keyLength, dataLength);
+        }
+        segment.mEnd = offset;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (mCompacting) {
+            return;
+        }
+        mCompacting = true;
+        try {
+            while (mSegments.size() > mMaxSegments) {
+                compactOldest();
+            }
+        } finally {
+            mCompacting = false;
+        }
+    }
+
+    /**
+     * Copy the tiles of the oldest segment that were read since they were written to the head,
+     * evict the others and delete the segment.
+     */
+    private void compactOldest() throws IOException {
+        final Segment oldest = mSegments.get(0);
+        final MappedByteBuffer buffer = oldest.mBuffer;
+        int kept = 0;
+        int evicted = 0;
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset < oldest.mEnd && oldest.mLiveCount > 0) {
+            final int keyLength = buffer.getInt(offset + 4);
+            final int dataLength = buffer.getInt(offset + 8);
+            final long hash = buffer.getLong(offset + 16);
+            final Location location = dataLength == TOMBSTONE ? null : mIndex.get(hash);
+            if (location != null && location.mSegment == oldest && location.mOffset == offset) {
+                oldest.mLiveCount--;
+                if (location.mAccessed) {
+                    final byte[] keyBytes = new byte[keyLength];
+                    final byte[] data = new byte[dataLength];
+                    buffer.position(offset + RECORD_HEADER_SIZE);
+                    buffer.get(keyBytes);
+                    buffer.get(data);
+                    location.mOffset = append(hash, keyBytes, data);
+                    location.mSegment = mHead;
+                    location.mAccessed = false;
+                    mHead.mLiveCount++;
+                    kept++;
+                } else {
+                    mIndex.remove(hash);
+                    evicted++;
+                }
+            }
+            offset += recordLength(keyLength, dataLength);
+        }
+        mEvictionCount += evicted;
+
+        // The copies must be on disk before the originals go
+        if (kept > 0) {
+            mHead.mBuffer.force();
+        }
+        mSegments.remove(oldest);
+        deleteSegmentFile(oldest);
+        Log.d(TAG, "Compacted segment " + oldest.mSequence + ", kept " + kept + ", evicted "
+                + evicted);
+    }
+
+    /**
+     * Append a record to the head segment, moving on to a new one if it is full.
+     *
+     * @param data the encoded tile, or null for a tombstone
+     * @return the offset of the record in the head segment
+     */
+    private int append(final long hash, final byte[] keyBytes, final byte[] data)
+            throws IOException {
+        final int dataLength = data != null ? data.length : TOMBSTONE;
+        final int length = recordLength(keyBytes.length, dataLength);
+        if (mHead.mEnd + length > mHead.mBuffer.capacity()) {
+            mHead.mBuffer.force();
+            mHead = createSegment(mHead.mSequence + 1);
+        }
+
+        final MappedByteBuffer buffer = mHead.mBuffer;
+        final int offset = mHead.mEnd;
+        mCrc.reset();
+        mCrc.update(keyBytes);
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(keyBytes);
+        if (data != null) {
+            mCrc.update(data);
+            buffer.put(data);
+        }
+        buffer.putInt(offset + 4, keyBytes.length);
+        buffer.putInt(offset + 8, dataLength);
+        buffer.putInt(offset + 12, (int) mCrc.getValue());
+        buffer.putLong(offset + 16, hash);
+        buffer.putInt(offset, RECORD_MAGIC);
+        mHead.mEnd = offset + length;
+        return offset;
+    }
+
+    /**
+     * @return the location of the tile, or null if it's not in the store or the record found
+     * belongs to another key with the same hash
+     */
+    private Location find(final String key) {
+        final Location location = mIndex.get(hash(key));
+        if (location == null) {
+            return null;
+        }
+        return hasKey(location, key.getBytes(UTF8)) ? location : null;
+    }
+
+    /**
+     * @return true if the record at a location is the one of a key, not of another key with
+     * the same hash
+     */
+    private static boolean hasKey(final Location location, final byte[] keyBytes) {
+        final MappedByteBuffer buffer = location.mSegment.mBuffer;
+        if (buffer.getInt(location.mOffset + 4) != keyBytes.length) {
+            return false;
+        }
+        final int start = location.mOffset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(start + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checksum(final MappedByteBuffer buffer, final int offset, final int keyLength,
+            final int dataLength) {
+        final int length = keyLength + Math.max(0, dataLength);
+        if (mScratch.length < length) {
+            mScratch = new byte[length];
+        }
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.get(mScratch, 0, length);
+        mCrc.reset();
+        mCrc.update(mScratch, 0, length);
+        return (int) mCrc.getValue();
+    }
+
+    private Segment createSegment(final int sequence) throws IOException {
+        final Segment segment = mapSegment(new File(mDirectory,
+                String.format(Locale.US, "%08d%s", sequence, SEGMENT_SUFFIX)), sequence);
+        segment.mBuffer.putInt(0, SEGMENT_MAGIC);
+        segment.mBuffer.putInt(4, VERSION);
+        segment.mBuffer.putInt(8, sequence);
+        segment.mEnd = SEGMENT_HEADER_SIZE;
+        mSegments.add(segment);
+        return segment;
+    }
+
+    private Segment mapSegment(final File file, final int sequence) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long size = Math.max(mSegmentSize, raf.length());
+            // The mapping stays valid once the file is closed
+            return new Segment(file, sequence,
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void deleteSegmentFile(final Segment segment) {
+        if (!segment.mFile.delete()) {
+            Log.w(TAG, "Can't delete segment " + segment.mFile);
+        }
+    }
+
+    /**
+     * @return the sequence number in the name of a segment file, or 0 if it isn't one
+     */
+    private static int getSequence(final File file) {
+        final String name = file.getName();
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int recordLength(final int keyLength, final int dataLength) {
+        // Keep records 8-byte aligned
+        return (RECORD_HEADER_SIZE + keyLength + Math.max(0, dataLength) + 7) & ~7;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a cache key. Tile ids are not used here because their layer index
+     * is only stable for the lifetime of the process.
+     */
+    static long hash(final String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class Segment {
+        final File mFile;
+        final int mSequence;
+        final MappedByteBuffer mBuffer;
+        int mEnd;
+        int mLiveCount;
+
+        Segment(final File file, final int sequence, final MappedByteBuffer buffer) {
+            mFile = file;
+            mSequence = sequence;
+            mBuffer = buffer;
+        }
+    }
+
+    private static final class Location {
+        Segment mSegment;
+        int mOffset;
+        boolean mAccessed;
+
+        Location(final Segment segment, final int offset) {
+            mSegment = segment;
+            mOffset = offset;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import com.cocoahero.android.geojson.Geometry;
+import com.cocoahero.android.geojson.LineString;
+import com.cocoahero.android.geojson.MultiPolygon;
+import com.cocoahero.android.geojson.Polygon;
+import com.cocoahero.android.geojson.Position;
+import com.cocoahero.android.geojson.Ring;
+import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+import com.mapbox.mapboxsdk.geometry.CoordinateSpan;
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The tiles of an area over one or more zoom levels, kept as a list of {@link TileRange}s instead
+ * of one entry per tile. Tiles are produced one at a time by {@link #iterator()}, so covers of
+ * millions of tiles take no more memory than their ranges, and a cover is persisted as the short
+ * string of its ranges.
+ */
+public final class TileCover {
+
+    private static final String RANGE_SEPARATOR = ";";
+
+    private final ArrayList<TileRange> mRanges = new ArrayList<TileRange>();
+    private long mSize;
+
+    public TileCover() {
+        super();
+    }
+
+    /**
+     * @return the tiles covering a region at every zoom level from minimumZ to maximumZ
+     */
+    public static TileCover forRegion(final CoordinateRegion region, final int minimumZ,
+            final int maximumZ) {
+        final TileCover cover = new TileCover();
+        for (int z = minimumZ; z <= maximumZ; z++) {
+            cover.add(TileRange.forRegion(region, z));
+        }
+        return cover;
+    }
+
+    /**
+     * @return the tiles intersecting a polygon at every zoom level from minimumZ to maximumZ
+     */
+    public static TileCover forPolygon(final Polygon polygon, final int minimumZ,
+            final int maximumZ) {
+        final TileCover cover = new TileCover();
+        for (int z = minimumZ; z <= maximumZ; z++) {
+            final TileCoverRasterizer rasterizer = new TileCoverRasterizer(z);
+            addPolygon(rasterizer, polygon);
+            rasterizer.addTo(cover);
+        }
+        return cover;
+    }
+
+    /**
+     * @return the tiles intersecting any of the polygons at every zoom level from minimumZ to
+     * maximumZ
+     */
+    public static TileCover forMultiPolygon(final MultiPolygon multiPolygon, final int minimumZ,
+            final int maximumZ) {
+        final TileCover cover = new TileCover();
+        for (int z = minimumZ; z <= maximumZ; z++) {
+            final TileCoverRasterizer rasterizer = new TileCoverRasterizer(z);
+            for (final Polygon polygon : multiPolygon.getPolygons()) {
+                addPolygon(rasterizer, polygon);
+            }
+            rasterizer.addTo(cover);
+        }
+        return cover;
+    }
+
+    /**
+     * @param bufferMeters the width of the corridor on either side of the line
+     * @return the tiles within bufferMeters of a line, such as a route, at every zoom level
+     * from minimumZ to maximumZ
+     */
+    public static TileCover forLineString(final LineString lineString, final double bufferMeters,
+            final int minimumZ, final int maximumZ) {
+        final TileCover cover = new TileCover();
+        for (int z = minimumZ; z <= maximumZ; z++) {
+            final TileCoverRasterizer rasterizer = new TileCoverRasterizer(z);
+            rasterizer.addLine(lineString.getPositions(), bufferMeters);
+            rasterizer.addTo(cover);
+        }
+        return cover;
+    }
+
+    /**
+     * @return the cover of a {@link Polygon} or {@link MultiPolygon}, see
+     * {@link #forPolygon(Polygon, int, int)}
+     * @throws IllegalArgumentException for other geometries
+     */
+    public static TileCover forGeometry(final Geometry geometry, final int minimumZ,
+            final int maximumZ) {
+        if (geometry instanceof Polygon) {
+            return forPolygon((Polygon) geometry, minimumZ, maximumZ);
+        } else if (geometry instanceof MultiPolygon) {
+            return forMultiPolygon((MultiPolygon) geometry, minimumZ, maximumZ);
+        }
+        throw new IllegalArgumentException("Can't cover a " + geometry.getType()
+                + ", only a Polygon or MultiPolygon");
+    }
+
+    private static void addPolygon(final TileCoverRasterizer rasterizer, final Polygon polygon) {
+        final List<List<Position>> rings = new ArrayList<List<Position>>();
+        for (final Ring ring : polygon.getRings()) {
+            rings.add(ring.getPositions());
+        }
+        rasterizer.addPolygon(rings);
+    }
+
+    /**
+     * Parse a cover written by {@link #toString()}.
+     *
+     * @throws IllegalArgumentException if the string is not a tile cover
+     */
+    public static TileCover parse(final String cover) {
+        final TileCover result = new TileCover();
+        for (final String range : cover.split(RANGE_SEPARATOR)) {
+            if (range.trim().length() > 0) {
+                result.add(TileRange.parse(range));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add a range. Ranges are expected not to overlap, or their common tiles are produced twice.
+     */
+    public void add(final TileRange range) {
+        mRanges.add(range);
+        mSize += range.size();
+    }
+
+    public List<TileRange> getRanges() {
+        return Collections.unmodifiableList(mRanges);
+    }
+
+    /**
+     * @return the number of tiles in the cover
+     */
+    public long size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return the lowest zoom level of the cover, or -1 if it is empty
+     */
+    public int getMinimumZ() {
+        int result = -1;
+        for (final TileRange range : mRanges) {
+            if (result < 0 || range.getZ() < result) {
+                result = range.getZ();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the highest zoom level of the cover, or -1 if it is empty
+     */
+    public int getMaximumZ() {
+        int result = -1;
+        for (final TileRange range : mRanges) {
+            result = Math.max(result, range.getZ());
+        }
+        return result;
+    }
+
+    /**
+     * @return the smallest region containing every tile of the cover, or null if it is empty
+     */
+    public CoordinateRegion getRegion() {
+        if (mRanges.isEmpty()) {
+            return null;
+        }
+        double north = -90;
+        double south = 90;
+        double east = -180;
+        double west = 180;
+        for (final TileRange range : mRanges) {
+            final double tilesPerSide = 1 << range.getZ();
+            north = Math.max(north, tileYToLatitude(range.getMinY(), tilesPerSide));
+            south = Math.min(south, tileYToLatitude(range.getMaxY() + 1, tilesPerSide));
+            west = Math.min(west, range.getMinX() / tilesPerSide * 360.0 - 180.0);
+            east = Math.max(east, (range.getMaxX() + 1) / tilesPerSide * 360.0 - 180.0);
+        }
+        return new CoordinateRegion(new LatLng((north + south) / 2, (east + west) / 2),
+                new CoordinateSpan(north - south, east - west));
+    }
+
+    private static double tileYToLatitude(final int y, final double tilesPerSide) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / tilesPerSide))));
+    }
+
+    public boolean contains(final int z, final int x, final int y) {
+        for (final TileRange range : mRanges) {
+            if (range.contains(z, x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return an iterator over the tiles of the cover, range by range and column by column
+     */
+    public TileIterator iterator() {
+        return new TileIterator();
+    }
+
+    /**
+     * @return the ranges separated by ';', see {@link TileRange#toString()}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final TileRange range : mRanges) {
+            if (builder.length() > 0) {
+                builder.append(RANGE_SEPARATOR);
+            }
+            builder.append(range);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Produces the tiles of a cover as {@link TileId}s with layer 0, without allocating.
+     */
+    public final class TileIterator {
+        private int mRange = -1;
+        private int mX;
+        private int mY;
+        private boolean mHasNext;
+
+        TileIterator() {
+            nextRange();
+        }
+
+        public boolean hasNext() {
+            return mHasNext;
+        }
+
+        /**
+         * @return the id of the next tile
+         * @throws NoSuchElementException if there are no more tiles
+         */
+        public long next() {
+            if (!mHasNext) {
+                throw new NoSuchElementException();
+            }
+            final TileRange range = mRanges.get(mRange);
+            final long id = TileId.pack(0, range.getZ(), mX, mY);
+            if (mY < range.getMaxY()) {
+                mY++;
+            } else if (mX < range.getMaxX()) {
+                mX++;
+                mY = range.getMinY();
+            } else {
+                nextRange();
+            }
+            return id;
+        }
+
+        private void nextRange() {
+            mRange++;
+            mHasNext = mRange < mRanges.size();
+            if (mHasNext) {
+                final TileRange range = mRanges.get(mRange);
+                mX = range.getMinX();
+                mY = range.getMinY();
+            }
+        }
+    }
+}
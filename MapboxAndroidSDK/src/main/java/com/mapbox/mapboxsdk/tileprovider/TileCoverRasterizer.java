@@ -0,0 +1,321 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import com.cocoahero.android.geojson.Position;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the tiles of one zoom level that intersect polygons, by scanline rasterization in
+ * spherical mercator tile coordinates.
+ * <p/>
+ * The tiles crossed by the edges are found by walking each edge from tile to tile, and the
+ * interior is filled between the crossings of the edges with a horizontal line through the
+ * middle of each tile row, with the even-odd rule so holes stay empty. Polygons added one after
+ * the other are merged, and the result is turned into as few {@link TileRange}s as possible by
+ * joining identical column spans of consecutive rows.
+ * <p/>
+ * Geometries crossing the antimeridian are not split, their tiles are clamped to the map.
+ */
+final class TileCoverRasterizer {
+
+    private static final double MAXIMUM_LATITUDE = 85.05112878;
+    private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+
+    private static final Comparator<Edge> BY_TOP = new Comparator<Edge>() {
+        @Override
+        public int compare(final Edge lhs, final Edge rhs) {
+            return Double.compare(lhs.mMinY, rhs.mMinY);
+        }
+    };
+
+    private final int mZ;
+    private final int mTilesPerSide;
+
+    // Column spans of each row, as pairs of first and last column
+    private final TreeMap<Integer, Row> mRows = new TreeMap<Integer, Row>();
+
+    TileCoverRasterizer(final int z) {
+        if (z < 0 || z > TileId.MAXIMUM_ZOOM) {
+            throw new IllegalArgumentException("Zoom level out of range: " + z);
+        }
+        mZ = z;
+        mTilesPerSide = 1 << z;
+    }
+
+    /**
+     * Add the tiles of a polygon.
+     *
+     * @param rings the outer ring followed by the holes, each as longitude/latitude positions
+     */
+    void addPolygon(final List<? extends List<Position>> rings) {
+        final ArrayList<Edge> edges = new ArrayList<Edge>();
+        for (final List<Position> ring : rings) {
+            final int count = ring.size();
+            if (count == 0) {
+                continue;
+            }
+            final double[] xs = new double[count];
+            final double[] ys = new double[count];
+            for (int i = 0; i < count; i++) {
+                xs[i] = longitudeToX(ring.get(i).getLongitude());
+                ys[i] = latitudeToY(ring.get(i).getLatitude());
+            }
+            addRingEdges(xs, ys, edges);
+        }
+        fill(edges);
+    }
+
+    /**
+     * Add the tiles within {@code bufferMeters} of a line. Each segment is widened into a
+     * rectangle that also extends {@code bufferMeters} past its ends, which covers the round
+     * joins and caps of a true buffer.
+     */
+    void addLine(final List<Position> positions, final double bufferMeters) {
+        final int count = positions.size();
+        if (count == 1) {
+            addSegment(positions.get(0), positions.get(0), bufferMeters);
+        }
+        for (int i = 0; i + 1 < count; i++) {
+            addSegment(positions.get(i), positions.get(i + 1), bufferMeters);
+        }
+    }
+
+    private void addSegment(final Position from, final Position to, final double bufferMeters) {
+        final double x0 = longitudeToX(from.getLongitude());
+        final double y0 = latitudeToY(from.getLatitude());
+        final double x1 = longitudeToX(to.getLongitude());
+        final double y1 = latitudeToY(to.getLatitude());
+
+        // Mercator is conformal, so the buffer is the same in both directions. Tiles are
+        // smallest in meters at the latitude farthest from the equator, use that one.
+        final double latitude = Math.min(MAXIMUM_LATITUDE,
+                Math.max(Math.abs(from.getLatitude()), Math.abs(to.getLatitude())));
+        final double metersPerTile = EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(latitude)) / mTilesPerSide;
+        final double radius = Math.max(0, bufferMeters) / metersPerTile;
+
+        final double length = Math.hypot(x1 - x0, y1 - y0);
+        final double dx = (length > 0) ? (x1 - x0) / length : 1;
+        final double dy = (length > 0) ? (y1 - y0) / length : 0;
+        final double ax = dx * radius;
+        final double ay = dy * radius;
+
+        final double[] xs = {x0 - ax - ay, x1 + ax - ay, x1 + ax + ay, x0 - ax + ay};
+        final double[] ys = {y0 - ay + ax, y1 + ay + ax, y1 + ay - ax, y0 - ay - ax};
+        final ArrayList<Edge> edges = new ArrayList<Edge>(4);
+        addRingEdges(xs, ys, edges);
+        fill(edges);
+    }
+
+    /**
+     * Add the ranges of the tiles found so far to a cover.
+     */
+    void addTo(final TileCover cover) {
+        // Open rectangles keyed by their column span, extended while the next rows have it too
+        HashMap<Long, int[]> open = new HashMap<Long, int[]>();
+        int previousRow = Integer.MIN_VALUE;
+        for (final Map.Entry<Integer, Row> entry : mRows.entrySet()) {
+            final int row = entry.getKey();
+            final Row spans = entry.getValue();
+            spans.merge();
+
+            final HashMap<Long, int[]> next = new HashMap<Long, int[]>();
+            for (int i = 0; i < spans.mCount; i += 2) {
+                final long key = ((long) spans.mSpans[i] << 32) | (spans.mSpans[i + 1] & 0xffffffffL);
+                final int[] rectangle = (row == previousRow + 1) ? open.remove(key) : null;
+                next.put(key, (rectangle != null) ? rectangle : new int[] {row});
+            }
+            close(open, previousRow, cover);
+            open = next;
+            previousRow = row;
+        }
+        close(open, previousRow, cover);
+    }
+
+    private void close(final HashMap<Long, int[]> rectangles, final int lastRow, final TileCover cover) {
+        for (final Map.Entry<Long, int[]> entry : rectangles.entrySet()) {
+            final long key = entry.getKey();
+            cover.add(new TileRange(mZ, (int) (key >> 32), entry.getValue()[0], (int) key, lastRow));
+        }
+    }
+
+    private double longitudeToX(final double longitude) {
+        return (longitude + 180.0) / 360.0 * mTilesPerSide;
+    }
+
+    private double latitudeToY(final double latitude) {
+        final double radians = Math.toRadians(Math.max(-MAXIMUM_LATITUDE, Math.min(MAXIMUM_LATITUDE, latitude)));
+        return (1.0 - Math.log(Math.tan(radians) + 1.0 / Math.cos(radians)) / Math.PI) / 2.0 * mTilesPerSide;
+    }
+
+    /**
+     * Mark the tiles crossed by the edges of a ring and collect the edges for the fill.
+     */
+    private void addRingEdges(final double[] xs, final double[] ys, final List<Edge> edges) {
+        final int count = xs.length;
+        for (int i = 0; i < count; i++) {
+            final int j = (i + 1) % count;
+            walk(xs[i], ys[i], xs[j], ys[j]);
+            if (ys[i] != ys[j]) {
+                edges.add(new Edge(xs[i], ys[i], xs[j], ys[j]));
+            }
+        }
+    }
+
+    /**
+     * Mark every tile a segment passes through, stepping to whichever tile border the segment
+     * reaches first.
+     */
+    private void walk(final double x0, final double y0, final double x1, final double y1) {
+        int x = (int) Math.floor(x0);
+        int y = (int) Math.floor(y0);
+        final int endX = (int) Math.floor(x1);
+        final int endY = (int) Math.floor(y1);
+        final double dx = Math.abs(x1 - x0);
+        final double dy = Math.abs(y1 - y0);
+        final int stepX = (x1 > x0) ? 1 : -1;
+        final int stepY = (y1 > y0) ? 1 : -1;
+        double nextX = (dx > 0) ? ((stepX > 0) ? (x + 1 - x0) : (x0 - x)) / dx : Double.POSITIVE_INFINITY;
+        double nextY = (dy > 0) ? ((stepY > 0) ? (y + 1 - y0) : (y0 - y)) / dy : Double.POSITIVE_INFINITY;
+        final double deltaX = (dx > 0) ? 1 / dx : Double.POSITIVE_INFINITY;
+        final double deltaY = (dy > 0) ? 1 / dy : Double.POSITIVE_INFINITY;
+
+        mark(x, x, y);
+        for (int steps = Math.abs(endX - x) + Math.abs(endY - y); steps > 0; steps--) {
+            if (nextX < nextY) {
+                nextX += deltaX;
+                x += stepX;
+            } else {
+                nextY += deltaY;
+                y += stepY;
+            }
+            mark(x, x, y);
+        }
+    }
+
+    /**
+     * Fill the rows between the edges of a polygon with an active edge list.
+     */
+    private void fill(final List<Edge> edges) {
+        if (edges.isEmpty()) {
+            return;
+        }
+        Collections.sort(edges, BY_TOP);
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (final Edge edge : edges) {
+            maxY = Math.max(maxY, edge.mMaxY);
+        }
+
+        final ArrayList<Edge> active = new ArrayList<Edge>();
+        double[] crossings = new double[8];
+        int nextEdge = 0;
+        final int firstRow = Math.max(0, (int) Math.floor(edges.get(0).mMinY));
+        final int lastRow = Math.min(mTilesPerSide - 1, (int) Math.floor(maxY));
+        for (int row = firstRow; row <= lastRow; row++) {
+            final double y = row + 0.5;
+            while (nextEdge < edges.size() && edges.get(nextEdge).mMinY <= y) {
+                active.add(edges.get(nextEdge++));
+            }
+            int count = 0;
+            for (final Iterator<Edge> it = active.iterator(); it.hasNext(); ) {
+                final Edge edge = it.next();
+                if (edge.mMaxY <= y) {
+                    it.remove();
+                    continue;
+                }
+                if (count == crossings.length) {
+                    crossings = Arrays.copyOf(crossings, count * 2);
+                }
+                crossings[count++] = edge.xAt(y);
+            }
+            Arrays.sort(crossings, 0, count);
+            for (int i = 0; i + 1 < count; i += 2) {
+                // Tiles whose middle is inside, the others were marked by their edges
+                final int from = (int) Math.ceil(crossings[i] - 0.5);
+                final int to = (int) Math.floor(crossings[i + 1] - 0.5);
+                if (from <= to) {
+                    mark(from, to, row);
+                }
+            }
+        }
+    }
+
+    private void mark(final int fromX, final int toX, final int y) {
+        if (y < 0 || y >= mTilesPerSide || toX < 0 || fromX >= mTilesPerSide) {
+            return;
+        }
+        Row row = mRows.get(y);
+        if (row == null) {
+            row = new Row();
+            mRows.put(y, row);
+        }
+        row.add(Math.max(0, fromX), Math.min(mTilesPerSide - 1, toX));
+    }
+
+    private static final class Edge {
+        final double mX0;
+        final double mY0;
+        final double mSlope;
+        final double mMinY;
+        final double mMaxY;
+
+        Edge(final double x0, final double y0, final double x1, final double y1) {
+            mX0 = x0;
+            mY0 = y0;
+            mSlope = (x1 - x0) / (y1 - y0);
+            mMinY = Math.min(y0, y1);
+            mMaxY = Math.max(y0, y1);
+        }
+
+        double xAt(final double y) {
+            return mX0 + (y - mY0) * mSlope;
+        }
+    }
+
+    private static final class Row {
+        int[] mSpans = new int[8];
+        int mCount;
+
+        void add(final int from, final int to) {
+            if (mCount > 0 && mSpans[mCount - 1] + 1 >= from && mSpans[mCount - 2] <= from) {
+                // Extends the last span, the common case when walking along a row
+                mSpans[mCount - 1] = Math.max(mSpans[mCount - 1], to);
+                return;
+            }
+            if (mCount == mSpans.length) {
+                mSpans = Arrays.copyOf(mSpans, mCount * 2);
+            }
+            mSpans[mCount++] = from;
+            mSpans[mCount++] = to;
+        }
+
+        /**
+         * Sort the spans and join the ones that overlap or touch.
+         */
+        void merge() {
+            final int pairs = mCount / 2;
+            final long[] sorted = new long[pairs];
+            for (int i = 0; i < pairs; i++) {
+                sorted[i] = ((long) mSpans[2 * i] << 32) | (mSpans[2 * i + 1] & 0xffffffffL);
+            }
+            Arrays.sort(sorted);
+            mCount = 0;
+            for (final long span : sorted) {
+                final int from = (int) (span >> 32);
+                final int to = (int) span;
+                if (mCount > 0 && from <= mSpans[mCount - 1] + 1) {
+                    mSpans[mCount - 1] = Math.max(mSpans[mCount - 1], to);
+                } else {
+                    mSpans[mCount++] = from;
+                    mSpans[mCount++] = to;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import android.util.Log;
+import java.util.HashMap;
+
+/**
+ * Packs the layer, zoom level and coordinates of a tile into a single {@code long}, so tiles
+ * can be identified and used as map keys without allocating.
+ * <p/>
+ * Layout, from the most significant bit: 11 bits of layer index, 5 bits of zoom level and 24
+ * bits each for x and y. That covers every zoom level up to 24, beyond the
+ * {@link com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants#MAXIMUM_ZOOMLEVEL}
+ * supported by the tile providers.
+ */
+public final class TileId {
+
+    public static final int MAXIMUM_ZOOM = 24;
+    public static final int MAXIMUM_LAYERS = 1 << 11;
+
+    private static final int COORD_BITS = 24;
+    private static final int ZOOM_BITS = 5;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final long ZOOM_MASK = (1L << ZOOM_BITS) - 1;
+    private static final long LAYER_MASK = MAXIMUM_LAYERS - 1;
+    private static final int Y_SHIFT = 0;
+    private static final int X_SHIFT = COORD_BITS;
+    private static final int ZOOM_SHIFT = 2 * COORD_BITS;
+    private static final int LAYER_SHIFT = ZOOM_SHIFT + ZOOM_BITS;
+
+    private static final String TAG = "TileId";
+
+    private static final HashMap<String, Integer> sLayers = new HashMap<String, Integer>();
+    private static boolean sLayersExhausted = false;
+
+    private TileId() {
+    }
+
+    /**
+     * Pack a tile into an id.
+     *
+     * @param layer the layer index, see {@link #getLayerIndex(String)}
+     * @param z the zoom level, between 0 and {@link #MAXIMUM_ZOOM}
+     * @param x the column, between 0 and 2^z - 1
+     * @param y the row, between 0 and 2^z - 1
+     * @return the tile id
+     */
+    public static long pack(final int layer, final int z, final int x, final int y) {
+        return ((layer & LAYER_MASK) << LAYER_SHIFT)
+                | ((z & ZOOM_MASK) << ZOOM_SHIFT)
+                | ((x & COORD_MASK) << X_SHIFT)
+                | ((y & COORD_MASK) << Y_SHIFT);
+    }
+
+    public static int getLayer(final long id) {
+        return (int) ((id >>> LAYER_SHIFT) & LAYER_MASK);
+    }
+
+    public static int getZ(final long id) {
+        return (int) ((id >>> ZOOM_SHIFT) & ZOOM_MASK);
+    }
+
+    public static int getX(final long id) {
+        return (int) ((id >>> X_SHIFT) & COORD_MASK);
+    }
+
+    public static int getY(final long id) {
+        return (int) ((id >>> Y_SHIFT) & COORD_MASK);
+    }
+
+    /**
+     * The id of the same tile in another layer.
+     *
+     * @param id a tile id
+     * @param layer the layer index
+     * @return the id with its layer replaced
+     */
+    public static long withLayer(final long id, final int layer) {
+        return (id & ~(LAYER_MASK << LAYER_SHIFT)) | ((layer & LAYER_MASK) << LAYER_SHIFT);
+    }
+
+    /**
+     * The id of the ancestor of a tile a number of zoom levels up.
+     *
+     * @param id a tile id
+     * @param levels the number of zoom levels to go up, at most the tile's zoom level
+     * @return the ancestor's id
+     */
+    public static long getAncestor(final long id, final int levels) {
+        return pack(getLayer(id), getZ(id) - levels, getX(id) >> levels, getY(id) >> levels);
+    }
+
+    /**
+     * Get the small integer that stands for a layer cache key in tile ids. The same key always
+     * gets the same index for the lifetime of the process. The first {@link #MAXIMUM_LAYERS}
+     * keys get distinct indices; keys beyond that share an index derived from their hash, so
+     * their tiles may share ids with those of another layer. Ids are only used as keys within a
+     * single layer's provider, and {@link MapTile#equals(Object)} compares the cache key itself.
+     *
+     * @param cacheKey the cache key of a tile layer
+     * @return the layer index
+     */
+    public static int getLayerIndex(final String cacheKey) {
+        final String key = cacheKey != null ? cacheKey : "";
+        synchronized (sLayers) {
+            Integer index = sLayers.get(key);
+            if (index == null) {
+                if (sLayers.size() < MAXIMUM_LAYERS) {
+                    index = sLayers.size();
+                    sLayers.put(key, index);
+                } else {
+                    if (!sLayersExhausted) {
+                        sLayersExhausted = true;
+                        Log.w(TAG, "More than " + MAXIMUM_LAYERS
+                                + " tile layers, further layers share indices");
+                    }
+                    // Not remembered, so the table stays bounded
+                    index = (key.hashCode() & Integer.MAX_VALUE) % MAXIMUM_LAYERS;
+                }
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import com.mapbox.mapboxsdk.constants.GeoConstants;
+import com.mapbox.mapboxsdk.constants.MathConstants;
+import com.mapbox.mapboxsdk.geometry.CoordinateRegion;
+
+/**
+ * A rectangle of tiles at one zoom level, from {@code (minX, minY)} to {@code (maxX, maxY)}
+ * inclusive.
+ */
+public final class TileRange {
+
+    private final int mZ;
+    private final int mMinX;
+    private final int mMinY;
+    private final int mMaxX;
+    private final int mMaxY;
+
+    public TileRange(final int z, final int minX, final int minY, final int maxX, final int maxY) {
+        if (z < 0 || z > TileId.MAXIMUM_ZOOM) {
+            throw new IllegalArgumentException("Zoom level out of range: " + z);
+        }
+        if (minX > maxX || minY > maxY) {
+            throw new IllegalArgumentException("Empty tile range: " + minX + "/" + minY + "/" + maxX + "/" + maxY);
+        }
+        mZ = z;
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = maxX;
+        mMaxY = maxY;
+    }
+
+    /**
+     * @return the tiles covering a region at a zoom level, clamped to the map, so that regions
+     * reaching the poles or the antimeridian don't count tiles that don't exist
+     */
+    public static TileRange forRegion(final CoordinateRegion region, final int z) {
+        final double minLat = region.getCenter().getLatitude() - (region.getSpan().getLatitudeSpan() / 2.0);
+        final double maxLat = minLat + region.getSpan().getLatitudeSpan();
+        final double minLon = region.getCenter().getLongitude() - (region.getSpan().getLongitudeSpan() / 2.0);
+        final double maxLon = minLon + region.getSpan().getLongitudeSpan();
+        final int tilesPerSide = 1 << z;
+        return new TileRange(z, longitudeToTileX(minLon, tilesPerSide), latitudeToTileY(maxLat, tilesPerSide),
+                longitudeToTileX(maxLon, tilesPerSide), latitudeToTileY(minLat, tilesPerSide));
+    }
+
+    static int longitudeToTileX(final double longitude, final int tilesPerSide) {
+        return clampTile((int) Math.floor(((longitude + 180.0) / 360.0) * tilesPerSide), tilesPerSide);
+    }
+
+    static int latitudeToTileY(final double latitude, final int tilesPerSide) {
+        final double clamped = Math.max(GeoConstants.MIN_LATITUDE, Math.min(GeoConstants.MAX_LATITUDE, latitude));
+        final double radians = clamped * MathConstants.PI / 180.0;
+        return clampTile((int) Math.floor((1.0 - (Math.log(Math.tan(radians) + 1.0 / Math.cos(radians)) / MathConstants.PI)) / 2.0 * tilesPerSide), tilesPerSide);
+    }
+
+    private static int clampTile(final int tile, final int tilesPerSide) {
+        return Math.max(0, Math.min(tilesPerSide - 1, tile));
+    }
+
+    /**
+     * Parse a range written by {@link #toString()}.
+     *
+     * @throws IllegalArgumentException if the string is not a tile range
+     */
+    public static TileRange parse(final String range) {
+        final String[] parts = range.trim().split("/");
+        if (parts.length != 5) {
+            throw new IllegalArgumentException("Not a tile range: " + range);
+        }
+        try {
+            return new TileRange(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a tile range: " + range, e);
+        }
+    }
+
+    public int getZ() {
+        return mZ;
+    }
+
+    public int getMinX() {
+        return mMinX;
+    }
+
+    public int getMinY() {
+        return mMinY;
+    }
+
+    public int getMaxX() {
+        return mMaxX;
+    }
+
+    public int getMaxY() {
+        return mMaxY;
+    }
+
+    /**
+     * @return the number of tiles in the range
+     */
+    public long size() {
+        return (long) (mMaxX - mMinX + 1) * (mMaxY - mMinY + 1);
+    }
+
+    public boolean contains(final int z, final int x, final int y) {
+        return z == mZ && x >= mMinX && x <= mMaxX && y >= mMinY && y <= mMaxY;
+    }
+
+    /**
+     * @return the range as "z/minX/minY/maxX/maxY"
+     */
+    @Override
+    public String toString() {
+        return mZ + "/" + mMinX + "/" + mMinY + "/" + mMaxX + "/" + mMaxY;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileRange)) {
+            return false;
+        }
+        final TileRange other = (TileRange) o;
+        return mZ == other.mZ && mMinX == other.mMinX && mMinY == other.mMinY
+                && mMaxX == other.mMaxX && mMaxY == other.mMaxY;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mZ;
+        result = 31 * result + mMinX;
+        result = 31 * result + mMinY;
+        result = 31 * result + mMaxX;
+        result = 31 * result + mMaxY;
+        return result;
+    }
+}
@@ -33,6 +33,12 @@ public interface TileLayerConstants {
     public static final int CACHE_MAPTILECOUNT_DEFAULT = 9;
 
     public static final int CACHE_MAPTILEDISKSIZE_DEFAULT = 100 * 1024 * 1024;
+
+    /**
+     * Size of the in-memory cache of encoded tile images, kept outside of the Java heap
+     * between the bitmap memory cache and the disk cache.
+     */
+    public static final int CACHE_MAPTILEENCODEDSIZE_DEFAULT = 8 * 1024 * 1024;
     /**
      * number of tile download threads, conforming to OSM policy:
      * http://wiki.openstreetmap.org/wiki/Tile_usage_policy
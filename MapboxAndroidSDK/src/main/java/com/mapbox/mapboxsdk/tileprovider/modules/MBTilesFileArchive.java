@@ -1,23 +1,40 @@
 package com.mapbox.mapboxsdk.tileprovider.modules;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.os.Build;
 import android.util.Log;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
+import com.mapbox.mapboxsdk.tileprovider.TileRange;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import com.mapbox.mapboxsdk.util.LongHashMap;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 
 /**
  * An access layer to the MBTiles format. This is useful for offline tiles
  * that one would pre-package with an app.
+ * <p/>
+ * Tiles are read with constant SQL and integer arguments, so each connection compiles the
+ * queries once and SQLite compares the arguments with the integer columns directly. Tile
+ * loader threads read in parallel through a small pool of read-only connections to the file.
  */
 public class MBTilesFileArchive implements IArchiveFile {
 
+    /**
+     * The most connections open to the file at once, including the one given to the archive
+     */
+    public static final int MAXIMUM_CONNECTIONS = 4;
+
     private final SQLiteDatabase mDatabase;
 
     // TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB);
@@ -26,45 +43,151 @@ public class MBTilesFileArchive implements IArchiveFile {
     public static final String COL_TILES_TILE_DATA = "tile_data";
     public static final String COL_VALUE = "value";
 
+    private static final String QUERY_TILE = "SELECT " + COL_TILES_TILE_DATA + " FROM " + TABLE_TILES
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?;";
+    private static final String QUERY_TILE_RANGE = "SELECT tile_column, tile_row, " + COL_TILES_TILE_DATA + " FROM " + TABLE_TILES
+            + " WHERE zoom_level = ? AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?;";
+
+    // Further connections can only be opened to a database file
+    private final String mPath;
+    private final ArrayDeque<Connection> mIdleConnections = new ArrayDeque<Connection>(MAXIMUM_CONNECTIONS);
+    private int mOpenConnections;
+    private boolean mClosed = false;
+
     public MBTilesFileArchive(final SQLiteDatabase pDatabase) {
         mDatabase = pDatabase;
+        final String path = pDatabase.getPath();
+        mPath = (path != null && new File(path).isFile()) ? path : null;
+        mIdleConnections.add(new Connection(pDatabase));
+        mOpenConnections = 1;
     }
 
     public static MBTilesFileArchive getDatabaseFileArchive(final File pFile)
             throws SQLiteException {
-        return new MBTilesFileArchive(SQLiteDatabase.openDatabase(pFile.getAbsolutePath(), null,
-                SQLiteDatabase.NO_LOCALIZED_COLLATORS | SQLiteDatabase.OPEN_READONLY)
-        );
+        return new MBTilesFileArchive(openDatabase(pFile.getAbsolutePath()));
+    }
+
+    private static SQLiteDatabase openDatabase(final String path) throws SQLiteException {
+        return SQLiteDatabase.openDatabase(path, null,
+                SQLiteDatabase.NO_LOCALIZED_COLLATORS | SQLiteDatabase.OPEN_READONLY);
     }
 
     @Override
     public InputStream getInputStream(final ITileLayer pTileSource, final MapTile pTile) {
+        final byte[] data = getTileData(pTile.getZ(), pTile.getX(), pTile.getY());
+        return (data != null) ? new ByteArrayInputStream(data) : null;
+    }
 
+    /**
+     * @param z the zoom level
+     * @param x the column
+     * @param y the row, counted from the top as in tile URLs
+     * @return the image of the tile, or null if the archive doesn't have it
+     */
+    public byte[] getTileData(final int z, final int x, final int y) {
+        final Connection connection = acquireConnection();
+        if (connection == null) {
+            return null;
+        }
+        Cursor cur = null;
         try {
-            InputStream ret = null;
-            final String[] tile = { COL_TILES_TILE_DATA };
-            final String[] xyz = {
-                    Integer.toString(pTile.getX()),
-                    Double.toString(Math.pow(2, pTile.getZ()) - pTile.getY() - 1),
-                    Integer.toString(pTile.getZ())
-            };
-
-            final Cursor cur = mDatabase.query(TABLE_TILES, tile,
-                    "tile_column=? and tile_row=? and zoom_level=?", xyz, null, null, null);
-
-            if (cur.getCount() != 0) {
-                cur.moveToFirst();
-                ret = new ByteArrayInputStream(cur.getBlob(0));
+            cur = connection.query(QUERY_TILE, z, x, flipRow(z, y));
+            return cur.moveToFirst() ? cur.getBlob(0) : null;
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error getting tile " + z + "/" + x + "/" + y, e);
+            return null;
+        } finally {
+            if (cur != null) {
+                cur.close();
             }
-            cur.close();
-            if (ret != null) {
-                return ret;
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Read all tiles of a range, such as those of a viewport, with a single query.
+     *
+     * @param range the tiles, with rows counted from the top as in tile URLs
+     * @return the images of the tiles the archive has, keyed by {@link TileId} with layer 0
+     */
+    public LongHashMap<byte[]> getTileData(final TileRange range) {
+        final LongHashMap<byte[]> tiles = new LongHashMap<byte[]>();
+        final Connection connection = acquireConnection();
+        if (connection == null) {
+            return tiles;
+        }
+        final int z = range.getZ();
+        Cursor cur = null;
+        try {
+            // The bottom row of the range is the lowest one counted from the south
+            cur = connection.query(QUERY_TILE_RANGE, z, range.getMinX(), range.getMaxX(),
+                    flipRow(z, range.getMaxY()), flipRow(z, range.getMinY()));
+            while (cur.moveToNext()) {
+                final byte[] data = cur.getBlob(2);
+                if (data != null) {
+                    tiles.put(TileId.pack(0, z, cur.getInt(0), flipRow(z, cur.getInt(1))), data);
+                }
             }
         } catch (final Throwable e) {
-            Log.e(TAG, "Error getting db stream: " + pTile, e);
+            Log.e(TAG, "Error getting tiles " + range, e);
+        } finally {
+            if (cur != null) {
+                cur.close();
+            }
+            releaseConnection(connection);
         }
+        return tiles;
+    }
 
-        return null;
+    /**
+     * MBTiles counts rows from the south, tile URLs from the north. The conversion is its own
+     * inverse.
+     */
+    private static int flipRow(final int z, final int y) {
+        return (1 << z) - 1 - y;
+    }
+
+    /**
+     * @return an idle connection, a new one if all are busy and the pool isn't full, or null
+     * once the archive is closed
+     */
+    private Connection acquireConnection() {
+        synchronized (mIdleConnections) {
+            while (!mClosed) {
+                if (!mIdleConnections.isEmpty()) {
+                    return mIdleConnections.pop();
+                }
+                if (mPath != null && mOpenConnections < MAXIMUM_CONNECTIONS) {
+                    try {
+                        final Connection connection = new Connection(openDatabase(mPath));
+                        mOpenConnections++;
+                        return connection;
+                    } catch (final SQLiteException e) {
+                        Log.w(TAG, "Can't open another connection to " + mPath, e);
+                        // Stick to the connections already open
+                        mOpenConnections = MAXIMUM_CONNECTIONS;
+                    }
+                }
+                try {
+                    mIdleConnections.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void releaseConnection(final Connection connection) {
+        synchronized (mIdleConnections) {
+            if (mClosed) {
+                connection.mDatabase.close();
+            } else {
+                mIdleConnections.push(connection);
+                mIdleConnections.notify();
+            }
+        }
     }
 
     @Override
@@ -145,9 +268,52 @@ public class MBTilesFileArchive implements IArchiveFile {
         return null;
     }
 
+    /**
+     * Close the archive. Connections in use are closed once their read is done.
+     */
     public void close() {
-        if (mDatabase != null) {
-            mDatabase.close();
+        synchronized (mIdleConnections) {
+            mClosed = true;
+            for (final Connection connection : mIdleConnections) {
+                connection.mDatabase.close();
+            }
+            mIdleConnections.clear();
+            mIdleConnections.notifyAll();
+        }
+    }
+
+    /**
+     * A connection of the pool. Its cursor factory binds the arguments of a query as integers,
+     * which {@link SQLiteDatabase#rawQuery(String, String[])} would bind as strings.
+     */
+    private static final class Connection implements SQLiteDatabase.CursorFactory {
+        final SQLiteDatabase mDatabase;
+        private long[] mArgs;
+
+        Connection(final SQLiteDatabase database) {
+            mDatabase = database;
+        }
+
+        Cursor query(final String sql, final long... args) {
+            mArgs = args;
+            try {
+                return mDatabase.rawQueryWithFactory(this, sql, null, null);
+            } finally {
+                mArgs = null;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public Cursor newCursor(final SQLiteDatabase db, final SQLiteCursorDriver masterQuery,
+                final String editTable, final SQLiteQuery query) {
+            for (int i = 0; i < mArgs.length; i++) {
+                query.bindLong(i + 1, mArgs[i]);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return new SQLiteCursor(masterQuery, editTable, query);
+            }
+            return new SQLiteCursor(db, masterQuery, editTable, query);
         }
     }
 
@@ -146,14 +146,22 @@ public class MapTileDownloader extends MapTileModuleLayerBase {
         public Drawable loadTile(final MapTileRequestState aState) throws CantContinueException {
             final MapTile tile = aState.getMapTile();
             Log.d(TAG, "loadTile() with tile = '" + tile + "'");
-            if (mTileCache != null && mTileCache.get().containsTileInDiskCache(tile)) {
-                Log.d(TAG, "tile found in Disk Cache, so returning it. tile = '" + tile + "'");
-                return mTileCache.get().getMapTileFromDisk(tile);
+            // Null when the downloader was created without a cache
+            final MapTileCache tileCache = mTileCache.get();
+            if (tileCache != null) {
+                final CacheableBitmapDrawable encoded = tileCache.getMapTileFromEncodedCache(tile);
+                if (encoded != null) {
+                    return encoded;
+                }
+                if (tileCache.containsTileInDiskCache(tile)) {
+                    Log.d(TAG, "tile found in Disk Cache, so returning it. tile = '" + tile + "'");
+                    return tileCache.getMapTileFromDisk(tile);
+                }
             }
             TileLayer tileLayer = mTileSource.get();
             Drawable result =
                     (tileLayer != null) ? tileLayer.getDrawableFromTile(MapTileDownloader.this,
-                            tile, hdpi) : null;
+                            aState, hdpi) : null;
             Log.d(TAG, "tileLayer.getDrawable() returning result = '" + result + "'");
             return result;
         }
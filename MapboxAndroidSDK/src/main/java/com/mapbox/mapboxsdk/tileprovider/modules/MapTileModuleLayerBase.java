@@ -10,12 +10,13 @@ import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import com.mapbox.mapboxsdk.util.LongHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
@@ -114,14 +115,17 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
     private final ExecutorService mExecutor;
 
     protected final Object mQueueLockObject = new Object();
-    protected final HashMap<MapTile, MapTileRequestState> mWorking;
-    protected final LinkedHashMap<MapTile, MapTileRequestState> mPending;
+    // Keyed by tile id
+    protected final LongHashMap<MapTileRequestState> mWorking;
+    protected TileRequestScheduler mPending;
+    private final int mPendingQueueSize;
+    private final AtomicInteger mCancelledPendingCount = new AtomicInteger(0);
+    private final AtomicInteger mCancelledWorkingCount = new AtomicInteger(0);
 
     public MapTileRequestState popFirstPending() {
-        for (MapTile tile : mPending.keySet()) {
-            return mPending.remove(tile);
+        synchronized (mQueueLockObject) {
+            return mPending.poll();
         }
-        return null;
     }
 
     /**
@@ -138,43 +142,115 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
         mExecutor = Executors.newFixedThreadPool(pThreadPoolSize,
                 new ConfigurablePriorityThreadFactory(Thread.NORM_PRIORITY, getThreadGroupName()));
 
-        mWorking = new HashMap<MapTile, MapTileRequestState>();
-        mPending =
-                new LinkedHashMap<MapTile, MapTileRequestState>(pPendingQueueSize + 2, 0.1f, true) {
+        mWorking = new LongHashMap<MapTileRequestState>();
+        mPending = new ViewportTileRequestScheduler();
+        mPendingQueueSize = pPendingQueueSize;
+    }
 
-                    private static final long serialVersionUID = 6455337315681858866L;
+    /**
+     * Replace the scheduler that orders the pending requests. Requests already pending are moved
+     * to the new scheduler.
+     *
+     * @param scheduler the new scheduler
+     */
+    public void setTileRequestScheduler(final TileRequestScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("The tile request scheduler can not be null");
+        }
+        synchronized (mQueueLockObject) {
+            MapTileRequestState state;
+            while ((state = mPending.poll()) != null) {
+                scheduler.put(state);
+            }
+            mPending = scheduler;
+        }
+    }
+
+    public TileRequestScheduler getTileRequestScheduler() {
+        synchronized (mQueueLockObject) {
+            return mPending;
+        }
+    }
 
-                    @Override
-                    protected boolean removeEldestEntry(
-                            final Map.Entry<MapTile, MapTileRequestState> pEldest) {
-                        while (size() > pPendingQueueSize) {
-                            MapTileRequestState state = popFirstPending();
-                            state.getCallback().mapTileRequestFailed(state);
+    /**
+     * Tell this provider which tiles are currently shown, see
+     * {@link TileRequestScheduler#setViewport(int, int, int, int, int)}. Pending requests that
+     * are no longer wanted are dropped before they reach a worker, and the ones a worker is
+     * already loading are cancelled.
+     */
+    public void setViewport(final int zoom, final int left, final int top, final int right,
+            final int bottom) {
+        List<MapTileRequestState> unwanted = null;
+        List<MapTileRequestState> stale = null;
+        synchronized (mQueueLockObject) {
+            if (mPending.setViewport(zoom, left, top, right, bottom)) {
+                unwanted = mPending.removeUnwanted();
+                for (int i = 0; i < mWorking.capacity(); i++) {
+                    final MapTileRequestState state = mWorking.valueAt(i);
+                    if (state != null && !mPending.isWanted(state.getMapTile())) {
+                        if (stale == null) {
+                            stale = new ArrayList<MapTileRequestState>();
                         }
-                        return false;
+                        stale.add(state);
                     }
-                };
+                }
+            }
+        }
+        if (unwanted != null) {
+            mCancelledPendingCount.addAndGet(unwanted.size());
+            for (final MapTileRequestState state : unwanted) {
+                state.getCallback().mapTileRequestCancelled(state);
+            }
+        }
+        if (stale != null) {
+            // The worker reports the cancellation once loadTile() gives up on the tile
+            for (final MapTileRequestState state : stale) {
+                if (state.cancel()) {
+                    mCancelledWorkingCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of queued requests dropped before a worker picked them up
+     */
+    public int getCancelledPendingCount() {
+        return mCancelledPendingCount.get();
+    }
+
+    /**
+     * @return the number of requests cancelled while a worker was loading them
+     */
+    public int getCancelledWorkingCount() {
+        return mCancelledWorkingCount.get();
     }
 
     /**
      * Loads a map tile asynchronously, adding it to the queue and calling getTileLoader.
      */
     public void loadMapTileAsync(final MapTileRequestState pState) {
+        List<MapTileRequestState> overflow = null;
         synchronized (mQueueLockObject) {
+            if (DEBUG_TILE_PROVIDERS) {
                 Log.d(TAG, "MapTileModuleLayerBase.loadMaptileAsync() on provider: "
                         + getName()
                         + " for tile: "
                         + pState.getMapTile());
-                if (mPending.containsKey(pState.getMapTile())) {
-                    Log.d(TAG,
-                            "MapTileModuleLayerBase.loadMaptileAsync() tile already exists in request queue for modular provider. Moving to front of queue.");
-                } else {
-                    Log.d(TAG,
-                            "MapTileModuleLayerBase.loadMaptileAsync() adding tile to request queue for modular provider.");
+            }
+            // this will put the tile in the queue, or refresh it if it's already present
+            mPending.put(pState);
+            while (mPending.size() > mPendingQueueSize) {
+                if (overflow == null) {
+                    overflow = new ArrayList<MapTileRequestState>();
                 }
-            // this will put the tile in the queue, or move it to the front of
-            // the queue if it's already present
-            mPending.put(pState.getMapTile(), pState);
+                overflow.add(mPending.pollWorst());
+            }
+        }
+        if (overflow != null) {
+            for (final MapTileRequestState state : overflow) {
+                state.getCallback().mapTileRequestFailed(state);
+            }
         }
 
         try {
@@ -214,7 +290,7 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
                         + mapTile);
             }
             mPending.remove(mapTile);
-            mWorking.remove(mapTile);
+            mWorking.remove(mapTile.getId());
         }
     }
 
@@ -246,12 +322,10 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
         protected MapTileRequestState nextTile() {
 
             synchronized (mQueueLockObject) {
-                // get the most recently accessed tile
-                // - the last item in the iterator that's not already being
-                // processed
-                MapTileRequestState state = popFirstPending();
+                // get the tile the scheduler ranks highest
+                MapTileRequestState state = mPending.poll();
                 if (state != null) {
-                    mWorking.put(state.getMapTile(), state);
+                    mWorking.put(state.getMapTile().getId(), state);
                     if (DEBUG_TILE_PROVIDERS) {
                         Log.d(TAG, "TileLoader.nextTile() on provider: "
                                 + getName()
@@ -298,6 +372,20 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
             pState.getCallback().mapTileRequestFailed(pState);
         }
 
+        /**
+         * A tile was cancelled while being loaded and nothing usable came out of it.
+         */
+        protected void tileLoadedCancelled(final MapTileRequestState pState) {
+            if (DEBUG_TILE_PROVIDERS) {
+                Log.d(TAG, "TileLoader.tileLoadedCancelled() on provider: "
+                        + getName()
+                        + " with tile: "
+                        + pState.getMapTile());
+            }
+            removeTileFromQueues(pState.getMapTile());
+            pState.getCallback().mapTileRequestCancelled(pState);
+        }
+
         /**
          * This is a functor class of type Runnable. The run method is the encapsulated function.
          */
@@ -313,7 +401,9 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
             while ((state = nextTile()) != null) {
                 try {
                     result = null;
-                    result = loadTile(state);
+                    if (!state.isCancelled()) {
+                        result = loadTile(state);
+                    }
                 } catch (final CantContinueException e) {
                     Log.e(TAG, "Tile loader can't continue: " + state.getMapTile(), e);
                     clearQueue();
@@ -321,7 +411,10 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
                     Log.e(TAG, "Error downloading tile: " + state.getMapTile(), e);
                 }
 
-                if (result == null) {
+                state.setCancelAction(null);
+                if (result == null && state.isCancelled()) {
+                    tileLoadedCancelled(state);
+                } else if (result == null) {
                     tileLoadedFailed(state);
                 } else if (BitmapUtils.isCacheDrawableExpired(result)) {
                     tileLoadedExpired(state, (CacheableBitmapDrawable) result);
@@ -0,0 +1,89 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import java.util.List;
+
+/**
+ * Decides in which order the pending tile requests of a {@link MapTileModuleLayerBase} are
+ * handed to its workers, and which of them are no longer worth loading.
+ * <p/>
+ * All methods are called while holding the queue lock of the owning provider, so
+ * implementations do not need to be thread-safe.
+ */
+public interface TileRequestScheduler {
+
+    /**
+     * Update the area currently shown on screen, in tile coordinates of the given zoom level.
+     * The coordinates are not wrapped around the date line, so {@code left} may be negative and
+     * {@code right} may exceed the number of tiles per side.
+     *
+     * @param zoom the zoom level the map is drawn at
+     * @param left the left-most visible tile column
+     * @param top the top-most visible tile row
+     * @param right the right-most visible tile column
+     * @param bottom the bottom-most visible tile row
+     * @return true if the viewport is different from the previous one
+     */
+    boolean setViewport(int zoom, int left, int top, int right, int bottom);
+
+    /**
+     * Whether a tile is still worth loading for the current viewport.
+     *
+     * @param tile the tile
+     * @return true if the tile is needed, or if no viewport is known yet
+     */
+    boolean isWanted(MapTile tile);
+
+    /**
+     * Add a request, or refresh it if a request for the same tile is already pending.
+     *
+     * @param state the request
+     */
+    void put(MapTileRequestState state);
+
+    /**
+     * Remove and return the request that should be loaded next.
+     *
+     * @return the next request, or null if nothing is pending
+     */
+    MapTileRequestState poll();
+
+    /**
+     * Remove and return the request that is least worth loading. Used to bound the queue.
+     *
+     * @return the least useful request, or null if nothing is pending
+     */
+    MapTileRequestState pollWorst();
+
+    /**
+     * Remove and return all pending requests that {@link #isWanted(MapTile)} rejects.
+     *
+     * @return the removed requests, never null
+     */
+    List<MapTileRequestState> removeUnwanted();
+
+    /**
+     * @param tile the tile
+     * @return true if a request for the tile is pending
+     */
+    boolean contains(MapTile tile);
+
+    /**
+     * Remove the pending request for a tile.
+     *
+     * @param tile the tile
+     * @return the removed request, or null if there was none
+     */
+    MapTileRequestState remove(MapTile tile);
+
+    /**
+     * @return the number of pending requests
+     */
+    int size();
+
+    /**
+     * Drop all pending requests.
+     */
+    void clear();
+}
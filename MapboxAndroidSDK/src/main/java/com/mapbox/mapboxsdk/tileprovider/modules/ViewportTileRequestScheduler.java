@@ -0,0 +1,243 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.util.LongHashMap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The default {@link TileRequestScheduler}. Requests are ordered by:
+ * <ol>
+ * <li>how far their zoom level is from the one currently drawn,</li>
+ * <li>whether they intersect the viewport,</li>
+ * <li>their distance from the center of the viewport,</li>
+ * <li>how recently they were requested.</li>
+ * </ol>
+ * Tiles that no longer intersect the viewport, or whose zoom level is too far from the drawn
+ * one, are reported as unwanted. Until a viewport is known, the most recently requested tile
+ * is loaded first.
+ */
+public class ViewportTileRequestScheduler implements TileRequestScheduler {
+
+    /**
+     * Default number of zoom levels a tile may be away from the drawn zoom level before it is
+     * considered unwanted.
+     */
+    public static final int DEFAULT_MAX_ZOOM_DELTA = 2;
+
+    // Keyed by tile id
+    private final LongHashMap<Pending> mPending = new LongHashMap<Pending>();
+    private final int mMaxZoomDelta;
+    private long mSequence = 0;
+
+    private boolean mHasViewport = false;
+    private int mZoom;
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+
+    // Scratch values filled in by rank(), to avoid allocating while scanning
+    private int mRankZoomDelta;
+    private boolean mRankVisible;
+    private double mRankDistance;
+
+    public ViewportTileRequestScheduler() {
+        this(DEFAULT_MAX_ZOOM_DELTA);
+    }
+
+    /**
+     * @param maxZoomDelta number of zoom levels a tile may be away from the drawn zoom level
+     * before it is considered unwanted
+     */
+    public ViewportTileRequestScheduler(final int maxZoomDelta) {
+        mMaxZoomDelta = maxZoomDelta;
+    }
+
+    @Override
+    public boolean setViewport(final int zoom, final int left, final int top, final int right,
+            final int bottom) {
+        if (mHasViewport && zoom == mZoom && left == mLeft && top == mTop && right == mRight
+                && bottom == mBottom) {
+            return false;
+        }
+        mHasViewport = true;
+        mZoom = zoom;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        return true;
+    }
+
+    @Override
+    public boolean isWanted(final MapTile tile) {
+        if (!mHasViewport) {
+            return true;
+        }
+        rank(tile);
+        return mRankVisible && mRankZoomDelta <= mMaxZoomDelta;
+    }
+
+    @Override
+    public void put(final MapTileRequestState state) {
+        // A refreshed request counts as the most recent one
+        final long id = state.getMapTile().getId();
+        Pending pending = mPending.get(id);
+        if (pending == null) {
+            pending = new Pending();
+            mPending.put(id, pending);
+        }
+        pending.mState = state;
+        pending.mSequence = mSequence++;
+    }
+
+    @Override
+    public MapTileRequestState poll() {
+        return pollBest(true);
+    }
+
+    @Override
+    public MapTileRequestState pollWorst() {
+        return pollBest(false);
+    }
+
+    @Override
+    public List<MapTileRequestState> removeUnwanted() {
+        final List<MapTileRequestState> result = new ArrayList<MapTileRequestState>();
+        if (!mHasViewport) {
+            return result;
+        }
+        for (int i = 0; i < mPending.capacity(); i++) {
+            final Pending pending = mPending.valueAt(i);
+            if (pending != null && !isWanted(pending.mState.getMapTile())) {
+                result.add(pending.mState);
+            }
+        }
+        for (final MapTileRequestState state : result) {
+            mPending.remove(state.getMapTile().getId());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(final MapTile tile) {
+        return mPending.containsKey(tile.getId());
+    }
+
+    @Override
+    public MapTileRequestState remove(final MapTile tile) {
+        final Pending pending = mPending.remove(tile.getId());
+        return pending != null ? pending.mState : null;
+    }
+
+    @Override
+    public int size() {
+        return mPending.size();
+    }
+
+    @Override
+    public void clear() {
+        mPending.clear();
+    }
+
+    /**
+     * Remove the best (or worst) ranked request. The pending queue is bounded by
+     * {@link com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants#TILE_DOWNLOAD_MAXIMUM_QUEUE_SIZE},
+     * so a linear scan is cheap and always reflects the latest viewport.
+     */
+    private MapTileRequestState pollBest(final boolean best) {
+        Pending selected = null;
+        int selectedZoomDelta = 0;
+        boolean selectedVisible = false;
+        double selectedDistance = 0;
+
+        for (int i = 0; i < mPending.capacity(); i++) {
+            final Pending pending = mPending.valueAt(i);
+            if (pending == null) {
+                continue;
+            }
+            if (mHasViewport) {
+                rank(pending.mState.getMapTile());
+            }
+            if (selected != null) {
+                int cmp = mHasViewport ? compare(mRankZoomDelta, mRankVisible, mRankDistance,
+                        selectedZoomDelta, selectedVisible, selectedDistance) : 0;
+                if (cmp == 0) {
+                    // Ties go to the newest request when polling, the oldest when evicting
+                    cmp = pending.mSequence > selected.mSequence ? -1 : 1;
+                }
+                if (best ? cmp > 0 : cmp < 0) {
+                    continue;
+                }
+            }
+            selected = pending;
+            selectedZoomDelta = mRankZoomDelta;
+            selectedVisible = mRankVisible;
+            selectedDistance = mRankDistance;
+        }
+
+        if (selected == null) {
+            return null;
+        }
+        mPending.remove(selected.mState.getMapTile().getId());
+        return selected.mState;
+    }
+
+    private static int compare(final int zoomDeltaA, final boolean visibleA,
+            final double distanceA, final int zoomDeltaB, final boolean visibleB,
+            final double distanceB) {
+        if (zoomDeltaA != zoomDeltaB) {
+            return zoomDeltaA < zoomDeltaB ? -1 : 1;
+        }
+        if (visibleA != visibleB) {
+            return visibleA ? -1 : 1;
+        }
+        return Double.compare(distanceA, distanceB);
+    }
+
+    /**
+     * Compute the zoom distance, visibility and squared center distance of a tile against the
+     * current viewport, storing them in the mRank* fields.
+     */
+    private void rank(final MapTile tile) {
+        final int dz = mZoom - tile.getZ();
+        mRankZoomDelta = Math.abs(dz);
+
+        // Extent of the tile in tile units of the viewport zoom level
+        long minX, maxX, minY, maxY;
+        if (dz >= 0) {
+            minX = (long) tile.getX() << dz;
+            maxX = (((long) tile.getX() + 1) << dz) - 1;
+            minY = (long) tile.getY() << dz;
+            maxY = (((long) tile.getY() + 1) << dz) - 1;
+        } else {
+            minX = maxX = tile.getX() >> -dz;
+            minY = maxY = tile.getY() >> -dz;
+        }
+
+        final long worldSize = 1L << mZoom;
+        final boolean visibleY = maxY >= mTop && minY <= mBottom;
+        boolean visibleX;
+        if (mRight - mLeft + 1 >= worldSize) {
+            visibleX = true;
+        } else {
+            final long left = ((mLeft % worldSize) + worldSize) % worldSize;
+            final long right = left + (mRight - mLeft);
+            visibleX = (maxX >= left && minX <= right)
+                    || (maxX + worldSize >= left && minX + worldSize <= right);
+        }
+        mRankVisible = visibleX && visibleY;
+
+        double dx = (minX + maxX + 1) / 2.0 - (mLeft + mRight + 1) / 2.0;
+        dx -= worldSize * Math.rint(dx / worldSize);
+        final double dy = (minY + maxY + 1) / 2.0 - (mTop + mBottom + 1) / 2.0;
+        mRankDistance = dx * dx + dy * dy;
+    }
+
+    private static final class Pending {
+        private MapTileRequestState mState;
+        private long mSequence;
+    }
+}
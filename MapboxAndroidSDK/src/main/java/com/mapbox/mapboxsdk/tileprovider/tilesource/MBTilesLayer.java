@@ -7,8 +7,10 @@ import android.os.Environment;
 import android.util.Log;
 import com.mapbox.mapboxsdk.constants.MapboxConstants;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.TileRange;
 import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesFileArchive;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
+import com.mapbox.mapboxsdk.util.LongHashMap;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewConstants;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -170,6 +172,19 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
         }
     }
 
+    /**
+     * Read all tiles of a range, such as those of a viewport, with a single query.
+     *
+     * @return the images of the tiles the file has, keyed by tile id with layer 0
+     * @see MBTilesFileArchive#getTileData(TileRange)
+     */
+    public LongHashMap<byte[]> getTileData(final TileRange range) {
+        if (mbTilesFileArchive == null) {
+            return new LongHashMap<byte[]>();
+        }
+        return mbTilesFileArchive.getTileData(range);
+    }
+
     @Override
     public void detach() {
         if (mbTilesFileArchive != null) {
@@ -182,10 +197,10 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
     public CacheableBitmapDrawable getDrawableFromTile(final MapTileDownloader downloader,
             final MapTile aTile, boolean hdpi) {
         if (mbTilesFileArchive != null) {
-            InputStream stream = mbTilesFileArchive.getInputStream(this, aTile);
-            if (stream != null) {
+            byte[] data = mbTilesFileArchive.getTileData(aTile.getZ(), aTile.getX(), aTile.getY());
+            if (data != null) {
                 CacheableBitmapDrawable result =
-                        downloader.getCache().putTileStream(aTile, stream, null);
+                        downloader.getCache().putTileData(aTile, data, null);
                 if (result == null) {
                     Log.d(TAG, "error reading stream from mbtiles");
                 }
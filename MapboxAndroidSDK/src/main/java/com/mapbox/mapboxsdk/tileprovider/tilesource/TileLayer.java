@@ -4,6 +4,7 @@ import android.graphics.drawable.Drawable;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewConstants;
@@ -81,6 +82,21 @@ public class TileLayer implements ITileLayer, TileLayerConstants, MapViewConstan
         return null;
     }
 
+    /**
+     * Load the tile of a request. Layers that can abort a load in progress override this to
+     * honour {@link MapTileRequestState#cancel()}; by default the request's tile is loaded
+     * with {@link #getDrawableFromTile(MapTileDownloader, MapTile, boolean)}.
+     *
+     * @param downloader the downloader loading the tile
+     * @param aState the request, which may be cancelled while loading
+     * @param hdpi whether the tile should be at 2x or retina size
+     * @return the tile, or null if it could not be loaded or the request was cancelled
+     */
+    public Drawable getDrawableFromTile(final MapTileDownloader downloader,
+            final MapTileRequestState aState, boolean hdpi) {
+        return getDrawableFromTile(downloader, aState.getMapTile(), hdpi);
+    }
+
     @Override
     public void detach() {
 
@@ -1,19 +1,17 @@
 package com.mapbox.mapboxsdk.tileprovider.tilesource;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.text.TextUtils;
 import android.util.Log;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
 import com.mapbox.mapboxsdk.tileprovider.MapTileCache;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
-import com.mapbox.mapboxsdk.util.NetworkUtils;
+import com.mapbox.mapboxsdk.util.CoalescingHttpFetcher;
 import com.mapbox.mapboxsdk.views.util.TileLoadedListener;
 import com.mapbox.mapboxsdk.views.util.TilesLoadedListener;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.concurrent.atomic.AtomicInteger;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
@@ -23,6 +21,9 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 public class WebSourceTileLayer extends TileLayer {
     private static final String TAG = "WebSourceTileLayer";
 
+    // Shared by all web layers so concurrent requests for the same tile URL are coalesced.
+    private static final CoalescingHttpFetcher sFetcher = new CoalescingHttpFetcher();
+
     // Tracks the number of threads active in the getBitmapFromURL method.
     private AtomicInteger activeThreads = new AtomicInteger(0);
     protected boolean mEnableSSL = false;
@@ -100,6 +101,17 @@ public class WebSourceTileLayer extends TileLayer {
     @Override
     public CacheableBitmapDrawable getDrawableFromTile(final MapTileDownloader downloader,
             final MapTile aTile, boolean hdpi) {
+        return getDrawableFromTile(downloader, aTile, null, hdpi);
+    }
+
+    @Override
+    public CacheableBitmapDrawable getDrawableFromTile(final MapTileDownloader downloader,
+            final MapTileRequestState aState, boolean hdpi) {
+        return getDrawableFromTile(downloader, aState.getMapTile(), aState, hdpi);
+    }
+
+    private CacheableBitmapDrawable getDrawableFromTile(final MapTileDownloader downloader,
+            final MapTile aTile, final MapTileRequestState aState, boolean hdpi) {
         if (downloader.isNetworkAvailable()) {
             TilesLoadedListener listener = downloader.getTilesLoadedListener();
 
@@ -111,20 +123,33 @@ public class WebSourceTileLayer extends TileLayer {
                 if (listener != null) {
                     listener.onTilesLoadStarted();
                 }
-                for (final String url : urls) {
-                    Bitmap bitmap = getBitmapFromURL(aTile, url, cache);
-                    if (bitmap == null) {
-                        continue;
+                if (urls.length == 1) {
+                    // Single source: keep the encoded bytes so the disk cache gets them as-is
+                    byte[] data = getDataFromURL(urls[0], aState);
+                    // A cancelled tile is not decoded, whatever made it over the wire
+                    if (data != null && !isCancelled(aState)) {
+                        result = cache.putTileData(aTile, data, null);
                     }
-                    if (resultBitmap == null) {
-                        resultBitmap = bitmap;
-                    } else {
-                        resultBitmap = compositeBitmaps(bitmap, resultBitmap);
+                } else {
+                    for (final String url : urls) {
+                        if (isCancelled(aState)) {
+                            resultBitmap = null;
+                            break;
+                        }
+                        Bitmap bitmap = getBitmapFromURL(aTile, url, cache, aState);
+                        if (bitmap == null) {
+                            continue;
+                        }
+                        if (resultBitmap == null) {
+                            resultBitmap = bitmap;
+                        } else {
+                            resultBitmap = compositeBitmaps(bitmap, resultBitmap);
+                        }
+                    }
+                    if (resultBitmap != null) {
+                        //get drawable by putting it into cache (memory and disk)
+                        result = cache.putTileBitmap(aTile, resultBitmap);
                     }
-                }
-                if (resultBitmap != null) {
-                    //get drawable by putting it into cache (memory and disk)
-                    result = cache.putTileBitmap(aTile, resultBitmap);
                 }
                 if (checkThreadControl()) {
                     if (listener != null) {
@@ -155,8 +180,44 @@ public class WebSourceTileLayer extends TileLayer {
      * @return the tile if valid, otherwise null
      */
     public Bitmap getBitmapFromURL(MapTile mapTile, final String url, final MapTileCache aCache) {
+        return getBitmapFromURL(mapTile, url, aCache, null);
+    }
+
+    private Bitmap getBitmapFromURL(final MapTile mapTile, final String url,
+            final MapTileCache aCache, final MapTileRequestState aState) {
+        byte[] data = getDataFromURL(url, aState);
+        if (data == null || isCancelled(aState)) {
+            return null;
+        }
+        // Decoding through the cache lets it reuse a recently evicted bitmap
+        Bitmap bitmap = aCache.decodeBitmap(data, null);
+        if (bitmap != null) {
+            aCache.putTileInMemoryCache(mapTile, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Requests the encoded image data of a tile from a given URL.
+     *
+     * @param url the map tile url. should refer to a valid bitmap resource.
+     * @return the raw response bytes, or null if the download failed
+     */
+    public byte[] getDataFromURL(final String url) {
+        return getDataFromURL(url, null);
+    }
+
+    /**
+     * Requests the encoded image data of a tile from a given URL, aborting the download if the
+     * request gets cancelled.
+     *
+     * @param url the map tile url. should refer to a valid bitmap resource.
+     * @param aState the request the data is loaded for, may be null
+     * @return the raw response bytes, or null if the download failed or was cancelled
+     */
+    public byte[] getDataFromURL(final String url, final MapTileRequestState aState) {
         // We track the active threads here, every exit point should decrement this value.
-        Log.d(getClass().getCanonicalName(), "getBitmapFormURL() called with url = '" + url + "'");
+        Log.d(getClass().getCanonicalName(), "getDataFromURL() called with url = '" + url + "'");
         activeThreads.incrementAndGet();
 
         if (TextUtils.isEmpty(url)) {
@@ -165,17 +226,39 @@ public class WebSourceTileLayer extends TileLayer {
         }
 
         try {
-            HttpURLConnection connection = NetworkUtils.getHttpURLConnection(new URL(url));
-            Bitmap bitmap = BitmapFactory.decodeStream(connection.getInputStream());
-            if (bitmap != null) {
-                aCache.putTileInMemoryCache(mapTile, bitmap);
+            final CoalescingHttpFetcher.Handle handle = sFetcher.open(url);
+            if (aState != null) {
+                aState.setCancelAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle.cancel();
+                    }
+                });
             }
-            return bitmap;
+            return handle.get();
         } catch (final Throwable e) {
-            Log.e(TAG, "Error downloading MapTile: " + url + ":" + e);
+            if (isCancelled(aState)) {
+                Log.d(TAG, "Cancelled download of MapTile: " + url);
+            } else {
+                Log.e(TAG, "Error downloading MapTile: " + url + ":" + e);
+            }
         } finally {
+            if (aState != null) {
+                aState.setCancelAction(null);
+            }
             activeThreads.decrementAndGet();
         }
         return null;
     }
+
+    /**
+     * @return the number of tile downloads aborted because their requests were cancelled
+     */
+    public static int getCancelledDownloadCount() {
+        return sFetcher.getCancelledCount();
+    }
+
+    private static boolean isCancelled(final MapTileRequestState aState) {
+        return aState != null && aState.isCancelled();
+    }
 }
@@ -0,0 +1,294 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.util.Log;
+import com.mapbox.mapboxsdk.constants.MapboxConstants;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the body of a URL through the shared client of {@link HttpClientRegistry}.
+ * <p/>
+ * Requests for a URL that is already in flight are coalesced: the later callers wait for the
+ * first request to finish and all receive the same bytes, so only one request goes over the
+ * wire. The request is executed synchronously on the thread of the first caller that blocks in
+ * {@link Handle#get()}, so no dispatcher thread is involved and the number of requests in flight
+ * is bounded by the callers' own thread pool. The shared client still lets them multiplex over a
+ * single HTTP/2 or SPDY connection when the server supports it.
+ */
+public class CoalescingHttpFetcher {
+
+    private static final String TAG = "CoalescingHttpFetcher";
+
+    private final HashMap<String, InFlight> mInFlight = new HashMap<String, InFlight>();
+    private final AtomicInteger mRequestCount = new AtomicInteger(0);
+    private final AtomicInteger mCoalescedCount = new AtomicInteger(0);
+    private final AtomicInteger mCancelledCount = new AtomicInteger(0);
+
+    /**
+     * Fetch the body of {@code url}, blocking until it is available. The returned array is
+     * shared between every caller that asked for the same URL at the same time and must not be
+     * modified.
+     *
+     * @param url the URL to fetch
+     * @return the response body
+     * @throws IOException if the request failed or returned a non-2xx status
+     */
+    public byte[] fetch(final String url) throws IOException {
+        return open(url).get();
+    }
+
+    /**
+     * Register interest in {@code url}, joining the request already in flight for it if there is
+     * one. Nothing is sent until a caller blocks in {@link Handle#get()}. The returned handle can
+     * be cancelled from any thread; the network request itself is only aborted once
+     * every caller waiting for it has cancelled.
+     *
+     * @param url the URL to fetch
+     * @return a handle on the fetch
+     */
+    public Handle open(final String url) {
+        InFlight inFlight;
+        synchronized (mInFlight) {
+            inFlight = mInFlight.get(url);
+            if (inFlight == null) {
+                inFlight = new InFlight(url);
+                mInFlight.put(url, inFlight);
+            } else {
+                mCoalescedCount.incrementAndGet();
+            }
+            inFlight.mWaiters++;
+        }
+        return new Handle(inFlight);
+    }
+
+    /**
+     * @return the number of URLs currently being fetched
+     */
+    public int getInFlightCount() {
+        synchronized (mInFlight) {
+            return mInFlight.size();
+        }
+    }
+
+    /**
+     * @return the number of requests sent over the network since creation
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the number of fetches that were satisfied by an already running request
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * @return the number of network requests aborted because nobody waited for them anymore
+     */
+    public int getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    private void finished(final InFlight inFlight) {
+        synchronized (mInFlight) {
+            if (mInFlight.get(inFlight.mUrl) == inFlight) {
+                mInFlight.remove(inFlight.mUrl);
+            }
+        }
+    }
+
+    /**
+     * Drop one waiter of a request, aborting it if it was the last one.
+     */
+    private void release(final InFlight inFlight) {
+        boolean abort = false;
+        synchronized (mInFlight) {
+            inFlight.mWaiters--;
+            if (inFlight.mWaiters == 0 && mInFlight.get(inFlight.mUrl) == inFlight) {
+                // Later callers for the same URL must start a new request
+                mInFlight.remove(inFlight.mUrl);
+                abort = true;
+            }
+        }
+        if (abort) {
+            mCancelledCount.incrementAndGet();
+            inFlight.cancel();
+        }
+    }
+
+    /**
+     * One caller's interest in a fetch.
+     */
+    public final class Handle {
+        private final InFlight mRequest;
+        private boolean mCancelled = false;
+
+        private Handle(final InFlight inFlight) {
+            mRequest = inFlight;
+        }
+
+        /**
+         * Block until the body is available. If nobody has started the request yet, it is
+         * executed on the calling thread.
+         *
+         * @return the response body, shared with the other callers and not to be modified
+         * @throws IOException if the request failed, returned a non-2xx status or the handle was
+         * cancelled
+         */
+        public byte[] get() throws IOException {
+            if (mRequest.claim(this)) {
+                mRequest.execute();
+            }
+            return mRequest.await(this);
+        }
+
+        /**
+         * Stop waiting for the body. A thread blocked in {@link #get()} returns with an
+         * {@link IOException}; if it is the one executing the request, it does so once the
+         * request is aborted or has finished for the remaining callers.
+         */
+        public void cancel() {
+            synchronized (mRequest) {
+                if (mCancelled || mRequest.mDone) {
+                    return;
+                }
+                mCancelled = true;
+                mRequest.notifyAll();
+            }
+            release(mRequest);
+        }
+    }
+
+    /**
+     * A single network request and the callers waiting for it.
+     */
+    private final class InFlight {
+        private final String mUrl;
+        private Call mCall;
+        private boolean mStarted = false;
+        private boolean mAborted = false;
+        private boolean mDone = false;
+        private byte[] mBody;
+        private IOException mError;
+        // Guarded by the fetcher's map lock
+        private int mWaiters = 0;
+
+        InFlight(final String url) {
+            mUrl = url;
+        }
+
+        /**
+         * @return true if the caller should run the request itself
+         */
+        synchronized boolean claim(final Handle handle) {
+            if (mStarted || mDone || handle.mCancelled) {
+                return false;
+            }
+            mStarted = true;
+            return true;
+        }
+
+        /**
+         * Run the request on the calling thread and hand the result to every waiter.
+         */
+        void execute() {
+            mRequestCount.incrementAndGet();
+            final Call call;
+            try {
+                Request request = new Request.Builder()
+                        .url(mUrl)
+                        .header("User-Agent", MapboxConstants.USER_AGENT)
+                        .build();
+                call = HttpClientRegistry.getClient().newCall(request);
+            } catch (IllegalArgumentException e) {
+                complete(null, new IOException("Invalid url: " + mUrl));
+                return;
+            }
+            final boolean aborted;
+            synchronized (this) {
+                aborted = mAborted;
+                mCall = call;
+            }
+            if (aborted) {
+                complete(null, new InterruptedIOException("Cancelled fetch of " + mUrl));
+                return;
+            }
+            Response response = null;
+            try {
+                response = call.execute();
+                if (!response.isSuccessful()) {
+                    complete(null, new IOException(
+                            "HTTP Status Error " + response.code() + ", for url = " + mUrl));
+                } else {
+                    complete(response.body().bytes(), null);
+                }
+            } catch (IOException e) {
+                complete(null, e);
+            } catch (RuntimeException e) {
+                complete(null, new IOException("Fetch of " + mUrl + " failed: " + e));
+            } finally {
+                if (response != null) {
+                    try {
+                        response.body().close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to close response body for " + mUrl);
+                    }
+                }
+            }
+        }
+
+        void cancel() {
+            final Call call;
+            synchronized (this) {
+                mAborted = true;
+                call = mCall;
+            }
+            if (call != null) {
+                // Closes the socket; the executing thread then fails with an IOException
+                call.cancel();
+            }
+        }
+
+        synchronized byte[] await(final Handle handle) throws IOException {
+            while (!mDone) {
+                if (handle.mCancelled) {
+                    throw new InterruptedIOException("Cancelled fetch of " + mUrl);
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while fetching " + mUrl);
+                }
+            }
+            if (mError != null) {
+                throw mError;
+            }
+            return mBody;
+        }
+
+        private void complete(final byte[] body, final IOException error) {
+            finished(this);
+            final boolean aborted;
+            synchronized (this) {
+                aborted = mAborted;
+            }
+            if (error != null && !aborted) {
+                Log.w(TAG, "Fetch failed for " + mUrl + ": " + error.getMessage());
+            }
+            synchronized (this) {
+                mBody = body;
+                mError = error;
+                mDone = true;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -55,7 +55,13 @@ public class DataLoadingUtils {
             is = new URL(url).openStream();
         }
         BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
-        String jsonText = readAll(rd);
+        String jsonText;
+        try {
+            jsonText = readAll(rd);
+        } finally {
+            // Closing the stream hands the pooled connection back for reuse
+            rd.close();
+        }
 
         FeatureCollection parsed = (FeatureCollection) GeoJSON.parse(jsonText);
         if (UtilConstants.DEBUGMODE) {
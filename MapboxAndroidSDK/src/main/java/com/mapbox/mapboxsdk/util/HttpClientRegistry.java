@@ -0,0 +1,246 @@
+package com.mapbox.mapboxsdk.util;
+
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Process-wide holder of the {@link OkHttpClient} used for every tile, icon and metadata fetch.
+ * All clients handed out share a single {@link ConnectionPool} and {@link Dispatcher}, so
+ * connections are kept alive and reused across requests instead of paying a new TCP/TLS
+ * handshake each time.
+ * <p/>
+ * Configuration changes only affect clients handed out after the change; the shared client is
+ * rebuilt lazily on the next call to {@link #getClient()}.
+ */
+public final class HttpClientRegistry {
+
+    /**
+     * Default number of idle connections kept in the shared pool.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS =
+            TileLayerConstants.NUMBER_OF_TILE_DOWNLOAD_THREADS;
+
+    /**
+     * Default time an idle connection is kept alive, in milliseconds.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000L;
+
+    /**
+     * Default maximum number of concurrent requests to a single host.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST =
+            TileLayerConstants.NUMBER_OF_TILE_DOWNLOAD_THREADS;
+
+    /**
+     * Default maximum number of concurrent requests overall.
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+
+    private static final Object LOCK = new Object();
+
+    private static OkHttpClient sClient = null;
+    private static int sMaxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private static long sKeepAliveDurationMs = DEFAULT_KEEP_ALIVE_DURATION_MS;
+    private static int sMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private static int sMaxRequests = DEFAULT_MAX_REQUESTS;
+    private static final List<Interceptor> sInterceptors = new ArrayList<Interceptor>();
+    private static final List<Interceptor> sNetworkInterceptors = new ArrayList<Interceptor>();
+
+    private HttpClientRegistry() {
+    }
+
+    /**
+     * Get the shared client, creating it with the current configuration if needed.
+     *
+     * @return the shared client
+     */
+    public static OkHttpClient getClient() {
+        synchronized (LOCK) {
+            if (sClient == null) {
+                sClient = buildClient();
+            }
+            return sClient;
+        }
+    }
+
+    /**
+     * Get a client that uses the given response cache and/or socket factory while still sharing
+     * the connection pool, dispatcher and interceptors of the shared client.
+     *
+     * @param cache an optional response cache, may be null
+     * @param sslSocketFactory an optional socket factory, may be null
+     * @return a client sharing the process-wide connection pool
+     */
+    public static OkHttpClient getClient(final Cache cache,
+            final SSLSocketFactory sslSocketFactory) {
+        OkHttpClient shared = getClient();
+        if (cache == null && sslSocketFactory == null) {
+            return shared;
+        }
+        // clone() is shallow, so the pool and the dispatcher are shared with the original.
+        OkHttpClient client = shared.clone();
+        if (cache != null) {
+            client.setCache(cache);
+        }
+        if (sslSocketFactory != null) {
+            client.setSslSocketFactory(sslSocketFactory);
+        }
+        return client;
+    }
+
+    /**
+     * Set the number of idle connections kept alive in the shared pool.
+     *
+     * @param maxIdleConnections the number of idle connections, must be >= 0
+     */
+    public static void setMaxIdleConnections(final int maxIdleConnections) {
+        if (maxIdleConnections < 0) {
+            throw new IllegalArgumentException("maxIdleConnections < 0: " + maxIdleConnections);
+        }
+        synchronized (LOCK) {
+            sMaxIdleConnections = maxIdleConnections;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set how long an idle connection is kept alive in the shared pool.
+     *
+     * @param keepAliveDurationMs the keep-alive duration in milliseconds, must be >= 0
+     */
+    public static void setKeepAliveDuration(final long keepAliveDurationMs) {
+        if (keepAliveDurationMs < 0) {
+            throw new IllegalArgumentException("keepAliveDurationMs < 0: " + keepAliveDurationMs);
+        }
+        synchronized (LOCK) {
+            sKeepAliveDurationMs = keepAliveDurationMs;
+            invalidate();
+        }
+    }
+
+    /**
+     * Set the maximum number of asynchronous requests running concurrently against one host.
+     * Synchronous calls, such as tile fetches, are bounded by their callers' threads instead.
+     *
+     * @param maxRequestsPerHost the per-host limit, must be >= 1
+     */
+    public static void setMaxRequestsPerHost(final int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        }
+        synchronized (LOCK) {
+            sMaxRequestsPerHost = maxRequestsPerHost;
+            if (sClient != null) {
+                sClient.getDispatcher().setMaxRequestsPerHost(maxRequestsPerHost);
+            }
+        }
+    }
+
+    /**
+     * Set the maximum number of asynchronous requests running concurrently overall.
+     * Synchronous calls, such as tile fetches, are bounded by their callers' threads instead.
+     *
+     * @param maxRequests the overall limit, must be >= 1
+     */
+    public static void setMaxRequests(final int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        }
+        synchronized (LOCK) {
+            sMaxRequests = maxRequests;
+            if (sClient != null) {
+                sClient.getDispatcher().setMaxRequests(maxRequests);
+            }
+        }
+    }
+
+    /**
+     * Add an application interceptor to every client handed out from now on.
+     *
+     * @param interceptor the interceptor
+     */
+    public static void addInterceptor(final Interceptor interceptor) {
+        synchronized (LOCK) {
+            sInterceptors.add(interceptor);
+            invalidate();
+        }
+    }
+
+    /**
+     * Add a network interceptor to every client handed out from now on.
+     *
+     * @param interceptor the interceptor
+     */
+    public static void addNetworkInterceptor(final Interceptor interceptor) {
+        synchronized (LOCK) {
+            sNetworkInterceptors.add(interceptor);
+            invalidate();
+        }
+    }
+
+    /**
+     * Remove a previously added application or network interceptor.
+     *
+     * @param interceptor the interceptor
+     * @return true if the interceptor was registered
+     */
+    public static boolean removeInterceptor(final Interceptor interceptor) {
+        synchronized (LOCK) {
+            boolean removed = sInterceptors.remove(interceptor);
+            removed |= sNetworkInterceptors.remove(interceptor);
+            if (removed) {
+                invalidate();
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Restore the default configuration and drop the shared client.
+     */
+    public static void reset() {
+        synchronized (LOCK) {
+            sMaxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+            sKeepAliveDurationMs = DEFAULT_KEEP_ALIVE_DURATION_MS;
+            sMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+            sMaxRequests = DEFAULT_MAX_REQUESTS;
+            sInterceptors.clear();
+            sNetworkInterceptors.clear();
+            invalidate();
+        }
+    }
+
+    private static void invalidate() {
+        if (sClient != null) {
+            // Idle sockets of the old pool would otherwise linger until their keep-alive expires.
+            sClient.getConnectionPool().evictAll();
+            sClient = null;
+        }
+    }
+
+    private static OkHttpClient buildClient() {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectionPool(new ConnectionPool(sMaxIdleConnections, sKeepAliveDurationMs));
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(sMaxRequests);
+        dispatcher.setMaxRequestsPerHost(sMaxRequestsPerHost);
+        client.setDispatcher(dispatcher);
+
+        // Prefer multiplexed protocols so concurrent tile requests to one host share a socket
+        client.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.SPDY_3, Protocol.HTTP_1_1));
+
+        client.interceptors().addAll(sInterceptors);
+        client.networkInterceptors().addAll(sNetworkInterceptors);
+        return client;
+    }
+}
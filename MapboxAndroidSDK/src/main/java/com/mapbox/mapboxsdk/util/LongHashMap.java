@@ -0,0 +1,195 @@
+package com.mapbox.mapboxsdk.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive {@code long} keys to non-null values, using open addressing so
+ * that lookups, insertions of existing keys and removals never allocate. Used for tile ids,
+ * see {@link com.mapbox.mapboxsdk.tileprovider.TileId}.
+ * <p/>
+ * Entries can be walked without an iterator: slots go from 0 to {@link #capacity()} - 1 and
+ * {@link #valueAt(int)} returns null for empty ones. The map must not be modified while doing
+ * so. This class is not thread-safe.
+ *
+ * @param <V> the value type
+ */
+public class LongHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    private int mMask;
+
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize the number of entries expected, to size the table up front
+     */
+    public LongHashMap(final int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        int slot = hash(key) & mMask;
+        Object value;
+        while ((value = mValues[slot]) != null) {
+            if (mKeys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key the key
+     * @param value the value, must not be null
+     * @return the previous value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("LongHashMap does not accept null values");
+        }
+        int slot = hash(key) & mMask;
+        Object current;
+        while ((current = mValues[slot]) != null) {
+            if (mKeys[slot] == key) {
+                mValues[slot] = value;
+                return (V) current;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize * 2 > mValues.length) {
+            rehash(mValues.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        int slot = hash(key) & mMask;
+        Object value;
+        while ((value = mValues[slot]) != null) {
+            if (mKeys[slot] == key) {
+                removeSlot(slot);
+                return (V) value;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        if (mSize > 0) {
+            Arrays.fill(mValues, null);
+            mSize = 0;
+        }
+    }
+
+    /**
+     * @return the number of slots, to walk the entries with {@link #keyAt(int)} and
+     * {@link #valueAt(int)}
+     */
+    public int capacity() {
+        return mValues.length;
+    }
+
+    /**
+     * @param slot a slot between 0 and {@link #capacity()} - 1
+     * @return the key in the slot, only meaningful if {@link #valueAt(int)} is not null
+     */
+    public long keyAt(final int slot) {
+        return mKeys[slot];
+    }
+
+    /**
+     * @param slot a slot between 0 and {@link #capacity()} - 1
+     * @return the value in the slot, or null if the slot is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(final int slot) {
+        return (V) mValues[slot];
+    }
+
+    private void allocate(final int capacity) {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mMask = capacity - 1;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = mKeys;
+        final Object[] oldValues = mValues;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mMask;
+                while (mValues[slot] != null) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = oldKeys[i];
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Empty a slot and shift back the entries of its probe sequence, so that lookups never
+     * need tombstones.
+     */
+    private void removeSlot(int slot) {
+        mValues[slot] = null;
+        mSize--;
+        int next = (slot + 1) & mMask;
+        while (mValues[next] != null) {
+            final int home = hash(mKeys[next]) & mMask;
+            // Move the entry back if its home slot is not between the hole and its position
+            final boolean movable = slot <= next
+                    ? (home <= slot || home > next)
+                    : (home <= slot && home > next);
+            if (movable) {
+                mKeys[slot] = mKeys[next];
+                mValues[slot] = mValues[next];
+                mValues[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & mMask;
+        }
+    }
+
+    private static int hash(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
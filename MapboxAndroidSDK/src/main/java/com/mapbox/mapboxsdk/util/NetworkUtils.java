@@ -35,14 +35,12 @@ public class NetworkUtils {
         return getHttpURLConnection(url, cache, null);
     }
 
+    /**
+     * Open a connection through the shared client of {@link HttpClientRegistry}, so that
+     * connections are pooled and kept alive across requests.
+     */
     public static HttpURLConnection getHttpURLConnection(final URL url, final Cache cache, final SSLSocketFactory sslSocketFactory) {
-        OkHttpClient client = new OkHttpClient();
-        if (cache != null) {
-            client.setCache(cache);
-        }
-        if (sslSocketFactory != null) {
-            client.setSslSocketFactory(sslSocketFactory);
-        }
+        OkHttpClient client = HttpClientRegistry.getClient(cache, sslSocketFactory);
         HttpURLConnection connection = new OkUrlFactory(client).open(url);
         connection.setRequestProperty("User-Agent", MapboxConstants.USER_AGENT);
         return connection;
@@ -5,6 +5,7 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Handler;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.TileId;
 import com.mapbox.mapboxsdk.views.util.Projection;
 import java.util.ArrayList;
 import java.util.List;
@@ -15,12 +16,35 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
  */
 public abstract class TileLooper {
 
+    private static final int MIN_RECYCLED_TILES = 256;
+    // Once frames stop coming, the drawables of the last ones are released after this delay
+    private static final long RELEASE_DELAY_MS = 100;
+
     protected final Point mUpperLeft = new Point();
     protected final Point mLowerRight = new Point();
     protected final Point center = new Point();
     protected List<CacheableBitmapDrawable> mBeingUsedDrawables =
             new ArrayList<CacheableBitmapDrawable>();
 
+    // The drawables of the previous frame, and of the one before it
+    private List<CacheableBitmapDrawable> mPreviousDrawables =
+            new ArrayList<CacheableBitmapDrawable>();
+    private List<CacheableBitmapDrawable> mDrawablesToRelease =
+            new ArrayList<CacheableBitmapDrawable>();
+    private Handler mHandler;
+    private final Runnable mReleaseDrawables = new Runnable() {
+        @Override
+        public void run() {
+            releaseDrawables(mDrawablesToRelease);
+            releaseDrawables(mPreviousDrawables);
+        }
+    };
+
+    // Tiles handed out recently, by id, so that a steady view allocates no tiles or keys
+    private final LongHashMap<MapTile> mTiles = new LongHashMap<MapTile>();
+    private String mLayerCacheKey;
+    private int mLayer;
+
     public final int loop(final Canvas pCanvas, final String pCacheKey, final float pZoomLevel,
             final int pTileSizePx, final Rect pViewPort, final Rect pClipRect) {
         // Calculate the amount of tiles needed for each side around the center one.
@@ -42,14 +66,43 @@ public abstract class TileLooper {
             for (int x = mUpperLeft.x; x <= mLowerRight.x; x++) {
                 tileY = GeometryMath.mod(y, mapTileUpperBound);
                 tileX = GeometryMath.mod(x, mapTileUpperBound);
-                final MapTile tile = new MapTile(pCacheKey, roundedZoom, tileX, tileY);
+                final MapTile tile = obtainTile(pCacheKey, roundedZoom, tileX, tileY);
                 handleTile(pCanvas, pCacheKey, pTileSizePx, tile, x, y, pClipRect);
             }
         }
         finalizeLoop();
 
+        final int tileCount = (mLowerRight.y - mUpperLeft.y) * (mLowerRight.x - mUpperLeft.x);
+        if (mTiles.size() > Math.max(MIN_RECYCLED_TILES, tileCount * 4)) {
+            mTiles.clear();
+        }
+
         /* return number of tiles looped */
-        return  (mLowerRight.y - mUpperLeft.y) * (mLowerRight.x - mUpperLeft.x);
+        return tileCount;
+    }
+
+    /**
+     * Get the tile for the given coordinates, reusing the instance handed out for it recently.
+     *
+     * @param pCacheKey the cache key of the tile layer
+     * @param z the zoom level
+     * @param x the column
+     * @param y the row
+     * @return the tile
+     */
+    public MapTile obtainTile(final String pCacheKey, final int z, final int x, final int y) {
+        // The provider hands out the same key instance every frame, so identity is enough here
+        if (pCacheKey != mLayerCacheKey) {
+            mLayerCacheKey = pCacheKey;
+            mLayer = TileId.getLayerIndex(pCacheKey);
+        }
+        final long id = TileId.pack(mLayer, z, x, y);
+        MapTile tile = mTiles.get(id);
+        if (tile == null) {
+            tile = new MapTile(pCacheKey, z, x, y);
+            mTiles.put(id, tile);
+        }
+        return tile;
     }
 
     public abstract void initializeLoop(float pZoomLevel, int pTileSizePx);
@@ -58,15 +111,32 @@ public abstract class TileLooper {
             MapTile pTile, int pX, int pY, final Rect pClipRect);
 
     public void finalizeLoop() {
-        //we delay just to make sure drawable bitmaps are not reused while being drawn.
-        (new Handler()).postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                for (CacheableBitmapDrawable drawable : mBeingUsedDrawables) {
-                    drawable.setBeingUsed(false);
-                }
-                mBeingUsedDrawables.clear();
-            }
-        }, 1);
+        if (mBeingUsedDrawables.isEmpty() && mPreviousDrawables.isEmpty()
+                && mDrawablesToRelease.isEmpty()) {
+            return;
+        }
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        mHandler.removeCallbacks(mReleaseDrawables);
+        // With hardware acceleration the render thread may still be drawing the previous frame
+        // while this one is recorded, so only the frame before it is released here.
+        releaseDrawables(mDrawablesToRelease);
+
+        // Rotate the lists rather than copying, so the next frame fills the emptied one
+        final List<CacheableBitmapDrawable> released = mDrawablesToRelease;
+        mDrawablesToRelease = mPreviousDrawables;
+        mPreviousDrawables = mBeingUsedDrawables;
+        mBeingUsedDrawables = released;
+
+        mHandler.postDelayed(mReleaseDrawables, RELEASE_DELAY_MS);
+    }
+
+    private static void releaseDrawables(final List<CacheableBitmapDrawable> drawables) {
+        // Indexed loop: no iterator is allocated
+        for (int i = 0; i < drawables.size(); i++) {
+            drawables.get(i).setBeingUsed(false);
+        }
+        drawables.clear();
     }
 }
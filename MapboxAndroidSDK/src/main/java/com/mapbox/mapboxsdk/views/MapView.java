@@ -116,6 +116,11 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
     private final OverlayManager mOverlayManager;
 
     private Projection mProjection;
+    private boolean mProjectionStale = false;
+    // The projection of the frame being drawn, recomputed in place every frame. Handed out by
+    // getProjection() only while drawing, so instances given to other callers never change.
+    private Projection mDrawProjection;
+    private boolean mDrawing = false;
     private boolean mLayedOut;
 
     private final TilesOverlay mTilesOverlay;
@@ -650,8 +655,12 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
      * for more than one draw, since the projection of the map could change.
      */
     public Projection getProjection() {
-        if (mProjection == null) {
+        if (mDrawing) {
+            return mDrawProjection;
+        }
+        if (mProjection == null || mProjectionStale) {
             mProjection = new Projection(this);
+            mProjectionStale = false;
         }
         return mProjection;
     }
@@ -778,7 +787,7 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
         }
 
 
-        mProjection = new Projection(this);
+        mProjectionStale = true;
         // snap for all snappables
         snapItems();
 
@@ -1064,7 +1073,7 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
      */
     public void setMapOrientation(float degrees) {
         this.mapOrientation = degrees % 360.0f;
-        this.mProjection = null;
+        this.mProjectionStale = true;
         this.invalidate();
     }
 
@@ -1388,7 +1397,7 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         if (w != 0 && h != 0) {
-            mProjection = null;
+            mProjectionStale = true;
             if (!mLayedOut) {
                 mLayedOut = true;
                 //first layout: if some actions were triggered before, they were enqueued
@@ -1692,7 +1701,7 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
 
         // make sure the next time someone wants the projection it is the
         // correct one!
-        mProjection = null;
+        mProjectionStale = true;
 
         super.scrollTo(intX, intY);
 
@@ -1715,7 +1724,7 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
     protected void onDraw(final Canvas c) {
         super.onDraw(c);
 
-        mProjection = updateProjection();
+        final Projection projection = updateProjection();
 
         // Save the current canvas matrix
         c.save();
@@ -1725,11 +1734,16 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
                 mMultiTouchScalePoint.y);
 
         // rotate Canvas
-        c.rotate(mapOrientation, mProjection.getScreenRect().exactCenterX(),
-                mProjection.getScreenRect().exactCenterY());
+        c.rotate(mapOrientation, projection.getScreenRect().exactCenterX(),
+                projection.getScreenRect().exactCenterY());
 
         // Draw all Overlays.
-        this.getOverlayManager().draw(c, this);
+        mDrawing = true;
+        try {
+            this.getOverlayManager().draw(c, this);
+        } finally {
+            mDrawing = false;
+        }
 
         c.restore();
     }
@@ -1737,10 +1751,15 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
     /**
      * Private Helper Method for onDraw().
      *
-     * @return New Projection object
+     * @return the Projection for this frame, the same instance every frame
      */
     private Projection updateProjection() {
-        return new Projection(this);
+        if (mDrawProjection == null) {
+            mDrawProjection = new Projection(this);
+        } else {
+            mDrawProjection.update();
+        }
+        return mDrawProjection;
     }
 
     /**
@@ -1886,6 +1905,15 @@ public class MapView extends ViewGroup implements MapViewConstants, MapEventsRec
         }
     }
 
+    /**
+     * Store disk cached tiles in a few large segment files instead of one file per tile
+     */
+    public void setSegmentedDiskCacheEnabled(final boolean enabled) {
+        if (mTileProvider != null) {
+            mTileProvider.setSegmentedDiskCacheEnabled(enabled);
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         this.onDetach();
@@ -40,23 +40,31 @@ public class Projection implements GeoConstants {
     private int viewWidth2;
     private int viewHeight2;
     private int worldSize2;
-    private final int offsetX;
-    private final int offsetY;
-    private final int centerX;
-    private final int centerY;
+    private int offsetX;
+    private int offsetY;
+    private int centerX;
+    private int centerY;
     private BoundingBox mBoundingBoxProjection;
-    private final float mZoomLevelProjection;
-    private final Rect mScreenRectProjection;
-    private final RectF mTransformedScreenRectProjection;
-    private final Rect mIntrinsicScreenRectProjection;
-    private final float mMapOrientation;
+    private float mZoomLevelProjection;
+    private final Rect mScreenRectProjection = new Rect();
+    private final RectF mTransformedScreenRectProjection = new RectF();
+    private final Rect mIntrinsicScreenRectProjection = new Rect();
+    private float mMapOrientation;
     private final Matrix mRotateMatrix = new Matrix();
     protected static int mTileSize = 256;
 
     public Projection(final MapView mv) {
         super();
         this.mapView = mv;
+        update();
+    }
 
+    /**
+     * Recompute this projection from the current state of its map view. The map view uses this
+     * for the projection of the frame being drawn only, so that it doesn't allocate one per
+     * frame; projections it hands out otherwise are never updated.
+     */
+    public void update() {
         viewWidth2 = mapView.getMeasuredWidth() >> 1;
         viewHeight2 = mapView.getMeasuredHeight() >> 1;
         mZoomLevelProjection = mapView.getZoomLevel(false);
@@ -65,24 +73,25 @@ public class Projection implements GeoConstants {
         offsetX = -worldSize2;
         offsetY = -worldSize2;
 
-        centerX = mv.getScrollX();
-        centerY = mv.getScrollY();
+        centerX = mapView.getScrollX();
+        centerY = mapView.getScrollY();
+        mBoundingBoxProjection = null;
 
         //TODO: optimize because right now each line re-compute the previous value
-        mIntrinsicScreenRectProjection = mapView.getIntrinsicScreenRect(null);
-        if (mapView.getMapOrientation() % 180 != 0) {
+        mapView.getIntrinsicScreenRect(mIntrinsicScreenRectProjection);
+        mMapOrientation = mapView.getMapOrientation();
+        if (mMapOrientation % 180 != 0) {
             // Since the canvas is shifted by getWidth/2, we can just return our
             // natural scrollX/Y
             // value since that is the same as the shifted center.
             PointF scrollPoint = mapView.getScrollPoint();
-            mScreenRectProjection = GeometryMath.getBoundingBoxForRotatedRectangle(mIntrinsicScreenRectProjection,
-                    scrollPoint.x, scrollPoint.y, this.getMapOrientation(), null);
+            GeometryMath.getBoundingBoxForRotatedRectangle(mIntrinsicScreenRectProjection,
+                    scrollPoint.x, scrollPoint.y, mMapOrientation, mScreenRectProjection);
         } else {
-            mScreenRectProjection = mIntrinsicScreenRectProjection;
+            mScreenRectProjection.set(mIntrinsicScreenRectProjection);
         }
-        mTransformedScreenRectProjection = new RectF(mScreenRectProjection);
+        mTransformedScreenRectProjection.set(mScreenRectProjection);
         mapView.getInversedTransformMatrix().mapRect(mTransformedScreenRectProjection);
-        mMapOrientation = mapView.getMapOrientation();
         mRotateMatrix.setRotate(-mMapOrientation, viewWidth2, viewHeight2);
     }
 
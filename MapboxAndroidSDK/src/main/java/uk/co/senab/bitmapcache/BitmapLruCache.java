@@ -148,11 +148,20 @@ public class BitmapLruCache {
 
     private RecyclePolicy mRecyclePolicy;
 
+    /**
+     * Encoded Cache Variables
+     */
+    private EncodedMemoryCache mEncodedCache;
+
     /**
      * Disk Cache Variables
      */
     private DiskLruCache mDiskCache;
 
+    private final AtomicInteger mDiskHitCount = new AtomicInteger();
+
+    private final AtomicInteger mDiskMissCount = new AtomicInteger();
+
     // Variables which are only used when the Disk Cache is enabled
     private HashMap<String, ReentrantLock> mDiskCacheEditLocks;
 
@@ -182,7 +191,20 @@ public class BitmapLruCache {
      *         otherwise.
      */
     public boolean contains(String url) {
-        return containsInMemoryCache(url) || containsInDiskCache(url);
+        return containsInMemoryCache(url) || containsInEncodedCache(url)
+                || containsInDiskCache(url);
+    }
+
+    /**
+     * Returns whether the Encoded Cache contains the specified URL. This method is safe to be
+     * called from the main thread.
+     *
+     * @param url the URL to search for.
+     * @return {@code true} if the Encoded Cache is enabled and contains the specified URL, {@code
+     *         false} otherwise.
+     */
+    public boolean containsInEncodedCache(String url) {
+        return null != mEncodedCache && mEncodedCache.contains(url);
     }
 
     /**
@@ -243,7 +265,12 @@ public class BitmapLruCache {
         result = getFromMemoryCache(url);
 
         if (null == result) {
-            // Memory Cache failed, so try Disk Cache
+            // Memory Cache failed, so try the encoded bytes kept in memory
+            result = getFromEncodedCache(url, decodeOpts);
+        }
+
+        if (null == result) {
+            // Encoded Cache failed, so try Disk Cache
             result = getFromDiskCache(url, decodeOpts);
         }
 
@@ -270,16 +297,34 @@ public class BitmapLruCache {
 
             try {
                 final String key = transformUrlForDiskCacheKey(url);
+                final InputStreamProvider provider;
+                if (null != mEncodedCache) {
+                    // Read the file once, to decode it and to keep it in the Encoded Cache
+                    final byte[] data = readFromDiskCache(key);
+                    if (null == data) {
+                        mDiskMissCount.incrementAndGet();
+                        return null;
+                    }
+                    mEncodedCache.put(url, data);
+                    provider = new ByteArrayInputStreamProvider(data);
+                } else {
+                    provider = new SnapshotInputStreamProvider(key);
+                }
                 // Try and decode bitmap
-                result = decodeBitmapToDrawable(new SnapshotInputStreamProvider(key), url, decodeOpts);
+                result = decodeBitmapToDrawable(provider, url, decodeOpts);
 
                 if (null != result) {
+                    mDiskHitCount.incrementAndGet();
                     if (null != mMemoryCache) {
                         mMemoryCache.put(result);
                     }
                 } else {
                     // If we get here, the file in the cache can't be
                     // decoded. Remove it and schedule a flush.
+                    mDiskMissCount.incrementAndGet();
+                    if (null != mEncodedCache) {
+                        mEncodedCache.remove(url);
+                    }
                     mDiskCache.remove(key);
                     scheduleDiskCacheFlush();
                 }
@@ -318,6 +363,40 @@ public class BitmapLruCache {
         return result;
     }
 
+    /**
+     * Returns the value for {@code url} decoded from the Encoded Cache only. You should not call
+     * this method from main/UI thread. <p/> If enabled, the result of this method will be cached
+     * in the memory cache.
+     *
+     * @param url        - String representing the URL of the image
+     * @param decodeOpts - Options used for decoding the contents of the encoded cache.
+     * @return Value for {@code url} from the encoded cache, or {@code null} if the encoded cache
+     *         is not enabled.
+     */
+    public CacheableBitmapDrawable getFromEncodedCache(final String url,
+            final BitmapFactory.Options decodeOpts) {
+        if (null == mEncodedCache) {
+            return null;
+        }
+
+        final byte[] data = mEncodedCache.get(url);
+        if (null == data) {
+            return null;
+        }
+
+        final CacheableBitmapDrawable result =
+                decodeBitmapToDrawable(new ByteArrayInputStreamProvider(data), url, decodeOpts);
+        if (null != result) {
+            if (null != mMemoryCache) {
+                synchronized (mMemoryCache) {
+                    mMemoryCache.put(result);
+                }
+            }
+        } else {
+            mEncodedCache.remove(url);
+        }
+        return result;
+    }
 
     public Bitmap getBitmapFromRemoved(final int width, final int height) {
         if (null != mMemoryCache) {
@@ -342,6 +421,47 @@ public class BitmapLruCache {
         return null != mMemoryCache;
     }
 
+    /**
+     * @return true if the Encoded Cache is enabled.
+     */
+    public boolean isEncodedCacheEnabled() {
+        return null != mEncodedCache;
+    }
+
+    /**
+     * @return the counters of the Memory Cache, or {@code null} if it is not enabled.
+     */
+    public CacheStats getMemoryCacheStats() {
+        if (null == mMemoryCache) {
+            return null;
+        }
+        synchronized (mMemoryCache) {
+            return new CacheStats(mMemoryCache.hitCount(), mMemoryCache.missCount(),
+                    mMemoryCache.evictionCount(), mMemoryCache.size(), mMemoryCache.maxSize(),
+                    -1);
+        }
+    }
+
+    /**
+     * @return the counters of the Encoded Cache, or {@code null} if it is not enabled.
+     */
+    public CacheStats getEncodedCacheStats() {
+        return null != mEncodedCache ? mEncodedCache.getStats() : null;
+    }
+
+    /**
+     * @return the counters of the Disk Cache, or {@code null} if it is not enabled. Evictions
+     *         are not tracked by the Disk Cache and are always 0.
+     */
+    public CacheStats getDiskCacheStats() {
+        final DiskLruCache diskCache = mDiskCache;
+        if (null == diskCache) {
+            return null;
+        }
+        return new CacheStats(mDiskHitCount.get(), mDiskMissCount.get(), 0, diskCache.size(),
+                diskCache.getMaxSize(), -1);
+    }
+
     /**
      * Caches {@code bitmap} for {@code url} into all enabled caches. If the disk cache is enabled,
      * the bitmap will be compressed losslessly. <p/> If you have the disk cache enabled, you should
@@ -494,22 +614,82 @@ public class BitmapLruCache {
      */
     public CacheableBitmapDrawable put(final String url, final byte[] data,
             final BitmapFactory.Options decodeOpts) {
+        CacheableBitmapDrawable d = putInMemoryCache(url, data, decodeOpts);
+        if (null != d) {
+            putInDiskCache(url, data);
+        }
+        return d;
+    }
+
+    /**
+     * Decodes the encoded {@code data} for {@code url} into the memory cache, and keeps the data
+     * in the encoded cache, without touching the disk cache. <p/> You should not call this method
+     * from the main/UI thread.
+     *
+     * @param url - String representing the URL of the image
+     * @param data - Raw data opened from {@code url}
+     * @param decodeOpts - Options used for decoding.
+     * @return CacheableBitmapDrawable which can be used to display the bitmap.
+     */
+    public CacheableBitmapDrawable putInMemoryCache(final String url, final byte[] data,
+            final BitmapFactory.Options decodeOpts) {
         checkNotOnMainThread();
 
-        if (null == mDiskCache) {
-            // shortcut to avoid temporary storage on disk
-            CacheableBitmapDrawable d = decodeBitmapToDrawable(new ByteArrayInputStreamProvider(data), url,
-                    decodeOpts);
-            if (null != d) {
-                if (null != mMemoryCache) {
-                    d.setCached(true);
+        // The bytes are already in memory, so decode them directly (reusing a removed bitmap
+        // when possible) instead of going through a temporary file
+        CacheableBitmapDrawable d = decodeBitmapToDrawable(new ByteArrayInputStreamProvider(data), url,
+                decodeOpts);
+        if (null != d) {
+            if (null != mMemoryCache) {
+                d.setCached(true);
+                synchronized (mMemoryCache) {
                     mMemoryCache.put(d.getUrl(), d);
                 }
-                return d;
+            }
+            if (null != mEncodedCache) {
+                mEncodedCache.put(url, data);
             }
         }
+        return d;
+    }
 
-        return put(url, new ByteArrayInputStream(data), decodeOpts);
+    /**
+     * Caches the original encoded {@code data} for {@code url} in the disk cache, without
+     * decoding or re-compressing it. <p/> You should not call this method from the main/UI thread.
+     *
+     * @param url  - String representing the URL of the image
+     * @param data - Raw encoded data opened from {@code url}
+     * @return true if the data was written to the disk cache.
+     */
+    public boolean putInDiskCache(final String url, final byte[] data) {
+        if (null == mDiskCache || null == data) {
+            return false;
+        }
+        checkNotOnMainThread();
+
+        final String key = transformUrlForDiskCacheKey(url);
+        final ReentrantLock lock = getLockForDiskCacheEdit(key);
+        lock.lock();
+
+        OutputStream os = null;
+        boolean written = false;
+        try {
+            DiskLruCache.Editor editor = mDiskCache.edit(key);
+            if (null != editor) {
+                os = editor.newOutputStream(0);
+                os.write(data);
+                os.flush();
+                editor.commit();
+                written = true;
+            }
+        } catch (IOException e) {
+            Log.e(Constants.LOG_TAG, "Error while writing to disk cache. URL: " + url, e);
+        } finally {
+            IoUtils.closeStream(os);
+            lock.unlock();
+            scheduleDiskCacheFlush();
+        }
+        return written;
     }
 
     /**
@@ -597,11 +777,7 @@ public class BitmapLruCache {
      * disk cache enabled, you should not call this method from main/UI thread.
      */
     public void remove(String url) {
-        if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.remove(url);
-            }
-        }
+        removeFromMemoryCache(url);
 
         if (null != mDiskCache) {
             checkNotOnMainThread();
@@ -616,7 +792,8 @@ public class BitmapLruCache {
     }
 
     /**
-     * Removes the entry for {@code url} from memory, if it exists. <p/>
+     * Removes the entry for {@code url} from memory, including the Encoded Cache, if it exists.
+     * <p/>
      */
     public void removeFromMemoryCache(String url) {
         if (null != mMemoryCache) {
@@ -624,6 +801,9 @@ public class BitmapLruCache {
                 mMemoryCache.remove(url);
             }
         }
+        if (null != mEncodedCache) {
+            mEncodedCache.remove(url);
+        }
     }
 
     /**
@@ -665,6 +845,9 @@ public class BitmapLruCache {
                 mMemoryCache.evictAll();
             }
         }
+        if (null != mEncodedCache) {
+            mEncodedCache.evictAll();
+        }
     }
 
     public void purgeDiskCache() {
@@ -693,6 +876,26 @@ public class BitmapLruCache {
         mRecyclePolicy = memoryCache.getRecyclePolicy();
     }
 
+    void setEncodedCache(EncodedMemoryCache encodedCache) {
+        mEncodedCache = encodedCache;
+    }
+
+    /**
+     * @return the contents of the disk cache entry for {@code key}, or null if there is none.
+     */
+    private byte[] readFromDiskCache(String key) throws IOException {
+        final DiskLruCache.Snapshot snapshot = mDiskCache.get(key);
+        if (null == snapshot) {
+            return null;
+        }
+        final long length = snapshot.getLength(0);
+        if (length <= 0 || length > Integer.MAX_VALUE) {
+            snapshot.close();
+            return null;
+        }
+        return IoUtils.readFully(snapshot.getInputStream(0), (int) length);
+    }
+
     private ReentrantLock getLockForDiskCacheEdit(String url) {
         synchronized (mDiskCacheEditLocks) {
             ReentrantLock lock = mDiskCacheEditLocks.get(url);
@@ -835,6 +1038,8 @@ public class BitmapLruCache {
 
         static final int DEFAULT_MEM_CACHE_MAX_SIZE_MB = 3;
 
+        static final int DEFAULT_ENCODED_CACHE_MAX_SIZE_MB = 8;
+
         static final RecyclePolicy DEFAULT_RECYCLE_POLICY = RecyclePolicy.PRE_HONEYCOMB_ONLY;
 
         // Only used for Javadoc
@@ -859,6 +1064,10 @@ public class BitmapLruCache {
 
         private int mMemoryCacheMaxSize;
 
+        private boolean mEncodedCacheEnabled;
+
+        private int mEncodedCacheMaxSize;
+
         private RecyclePolicy mRecyclePolicy;
 
         /**
@@ -878,6 +1087,9 @@ public class BitmapLruCache {
             // Memory Cache is enabled by default, with a small maximum size
             mMemoryCacheEnabled = true;
             mMemoryCacheMaxSize = DEFAULT_MEM_CACHE_MAX_SIZE_MB * MEGABYTE;
+
+            // Encoded Cache is disabled by default, but it's default size is set
+            mEncodedCacheMaxSize = DEFAULT_ENCODED_CACHE_MAX_SIZE_MB * MEGABYTE;
             mRecyclePolicy = DEFAULT_RECYCLE_POLICY;
         }
 
@@ -895,6 +1107,13 @@ public class BitmapLruCache {
                 cache.setMemoryCache(new BitmapMemoryLruCache(mMemoryCacheMaxSize, mRecyclePolicy));
             }
 
+            if (isValidOptionsForEncodedCache()) {
+                if (Constants.DEBUG) {
+                    Log.d("BitmapLruCache.Builder", "Creating Encoded Cache");
+                }
+                cache.setEncodedCache(new EncodedMemoryCache(mEncodedCacheMaxSize));
+            }
+
             if (isValidOptionsForDiskCache()) {
                 new AsyncTask<Void, Void, DiskLruCache>() {
 
@@ -971,6 +1190,29 @@ public class BitmapLruCache {
             return this;
         }
 
+        /**
+         * Set whether the Encoded Cache should be enabled. It keeps the original compressed
+         * contents of recently used images in memory outside of the Java heap, so they can be
+         * decoded again without going to disk. Defaults to {@code false}.
+         *
+         * @return This Builder object to allow for chaining of calls to set methods.
+         */
+        public Builder setEncodedCacheEnabled(boolean enabled) {
+            mEncodedCacheEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of bytes the Encoded Cache should use to store values. Defaults
+         * to {@value #DEFAULT_ENCODED_CACHE_MAX_SIZE_MB}MB.
+         *
+         * @return This Builder object to allow for chaining of calls to set methods.
+         */
+        public Builder setEncodedCacheMaxSize(int size) {
+            mEncodedCacheMaxSize = size;
+            return this;
+        }
+
         /**
          * Sets the Memory Cache maximum size to be the default value of {@value
          * #DEFAULT_MEMORY_CACHE_HEAP_PERCENTAGE}% of heap size.
@@ -1032,6 +1274,10 @@ public class BitmapLruCache {
         private boolean isValidOptionsForMemoryCache() {
             return mMemoryCacheEnabled && mMemoryCacheMaxSize > 0;
         }
+
+        private boolean isValidOptionsForEncodedCache() {
+            return mEncodedCacheEnabled && mEncodedCacheMaxSize >= EncodedMemoryCache.PAGE_SIZE;
+        }
     }
 
     static final class DiskCacheFlushRunnable implements Runnable {
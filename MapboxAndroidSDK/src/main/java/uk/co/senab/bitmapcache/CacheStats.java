@@ -0,0 +1,73 @@
+package uk.co.senab.bitmapcache;
+
+/**
+ * A snapshot of the counters of one tier of a {@link BitmapLruCache}.
+ */
+public final class CacheStats {
+
+    private final int mHitCount;
+    private final int mMissCount;
+    private final int mEvictionCount;
+    private final long mSize;
+    private final long mMaxSize;
+    private final int mEntryCount;
+
+    public CacheStats(final int hitCount, final int missCount, final int evictionCount,
+            final long size, final long maxSize, final int entryCount) {
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mEvictionCount = evictionCount;
+        mSize = size;
+        mMaxSize = maxSize;
+        mEntryCount = entryCount;
+    }
+
+    /**
+     * @return the number of lookups that found an entry
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of lookups that found nothing
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of entries dropped to make room for new ones
+     */
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return the number of bytes in use, or -1 if the tier does not track it
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the maximum number of bytes this tier may use
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return the number of entries, or -1 if the tier does not track it
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + mHitCount + ", misses=" + mMissCount + ", evictions="
+                + mEvictionCount + ", size=" + mSize + "/" + mMaxSize + ", entries="
+                + mEntryCount + "}";
+    }
+}
@@ -0,0 +1,157 @@
+package uk.co.senab.bitmapcache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps encoded (PNG/JPEG) images in a direct {@link ByteBuffer}, between the decoded bitmaps of
+ * {@link BitmapMemoryLruCache} and the files of the disk cache. Encoded images are several
+ * times smaller than their decoded bitmaps, so far more of them fit in the same budget, and a
+ * hit only costs a decode instead of a file open and read.
+ * <p/>
+ * The buffer is cut into fixed-size pages handed out from a free list, so entries of any size
+ * can be stored without fragmentation. When the pages run out, the least recently used entries
+ * are evicted.
+ */
+final class EncodedMemoryCache {
+
+    static final int PAGE_SIZE = 4 * 1024;
+
+    private final int mPageCount;
+    private final int mMaxEntrySize;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    // Allocated on first use
+    private ByteBuffer mBuffer;
+    private int[] mFreePages;
+    private int mFreeCount;
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxSize the number of bytes to reserve, rounded down to whole pages
+     */
+    EncodedMemoryCache(final int maxSize) {
+        mPageCount = maxSize / PAGE_SIZE;
+        if (mPageCount <= 0) {
+            throw new IllegalArgumentException("maxSize < " + PAGE_SIZE + ": " + maxSize);
+        }
+        // A single image may not take more than a quarter of the cache
+        mMaxEntrySize = Math.max(PAGE_SIZE, mPageCount / 4 * PAGE_SIZE);
+    }
+
+    /**
+     * @return a copy of the encoded image for {@code url}, or null if it is not cached
+     */
+    synchronized byte[] get(final String url) {
+        final Entry entry = mEntries.get(url);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+
+        final byte[] data = new byte[entry.mLength];
+        int offset = 0;
+        for (final int page : entry.mPages) {
+            final int count = Math.min(PAGE_SIZE, entry.mLength - offset);
+            mBuffer.position(page * PAGE_SIZE);
+            mBuffer.get(data, offset, count);
+            offset += count;
+        }
+        return data;
+    }
+
+    synchronized boolean contains(final String url) {
+        return mEntries.containsKey(url);
+    }
+
+    /**
+     * Store a copy of {@code data}, evicting least recently used entries as needed.
+     *
+     * @return false if the image is too large for this cache
+     */
+    synchronized boolean put(final String url, final byte[] data) {
+        if (data == null || data.length == 0 || data.length > mMaxEntrySize) {
+            return false;
+        }
+        if (mBuffer == null) {
+            allocate();
+        }
+        remove(url);
+
+        final int needed = (data.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        final Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mFreeCount < needed && eldest.hasNext()) {
+            final Entry entry = eldest.next();
+            eldest.remove();
+            release(entry);
+            mEvictionCount++;
+        }
+
+        final Entry entry = new Entry(new int[needed], data.length);
+        int offset = 0;
+        for (int i = 0; i < needed; i++) {
+            final int page = mFreePages[--mFreeCount];
+            final int count = Math.min(PAGE_SIZE, data.length - offset);
+            mBuffer.position(page * PAGE_SIZE);
+            mBuffer.put(data, offset, count);
+            entry.mPages[i] = page;
+            offset += count;
+        }
+        mEntries.put(url, entry);
+        mSize += data.length;
+        return true;
+    }
+
+    synchronized void remove(final String url) {
+        final Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    synchronized void evictAll() {
+        for (final Entry entry : mEntries.values()) {
+            release(entry);
+        }
+        mEntries.clear();
+    }
+
+    synchronized CacheStats getStats() {
+        return new CacheStats(mHitCount, mMissCount, mEvictionCount, mSize,
+                mPageCount * PAGE_SIZE, mEntries.size());
+    }
+
+    private void allocate() {
+        mBuffer = ByteBuffer.allocateDirect(mPageCount * PAGE_SIZE);
+        mFreePages = new int[mPageCount];
+        for (int i = 0; i < mPageCount; i++) {
+            // Hand out the low pages first
+            mFreePages[i] = mPageCount - 1 - i;
+        }
+        mFreeCount = mPageCount;
+    }
+
+    private void release(final Entry entry) {
+        for (final int page : entry.mPages) {
+            mFreePages[mFreeCount++] = page;
+        }
+        mSize -= entry.mLength;
+    }
+
+    private static final class Entry {
+        final int[] mPages;
+        final int mLength;
+
+        Entry(final int[] pages, final int length) {
+            mPages = pages;
+            mLength = length;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package uk.co.senab.bitmapcache;
 
 import android.util.Log;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -54,6 +55,26 @@ class IoUtils {
         return copy(in, new FileOutputStream(out));
     }
 
+    /**
+     * Read {@code length} bytes from the given InputStream and close it.
+     */
+    static byte[] readFully(InputStream in, int length) throws IOException {
+        try {
+            final byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                final int n = in.read(data, offset, length - offset);
+                if (n == -1) {
+                    throw new EOFException("Expected " + length + " bytes, got " + offset);
+                }
+                offset += n;
+            }
+            return data;
+        } finally {
+            IoUtils.closeStream(in);
+        }
+    }
+
     /**
      * Pipe an InputStream to the given OutputStream <p /> Taken from Apache Commons IOUtils.
      */
@@ -0,0 +1,27 @@
+package com.mapbox.mapboxsdk.offline;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OfflineMapDownloaderTest {
+
+    @Test
+    public void retryDelayDoublesWithinJitter() {
+        for (int retry = 0; retry < 40; retry++) {
+            final long expected = Math.min(OfflineMapDownloader.RETRY_MAXIMUM_DELAY_MS,
+                    OfflineMapDownloader.RETRY_INITIAL_DELAY_MS << Math.min(retry, 16));
+            for (int i = 0; i < 20; i++) {
+                final long delay = OfflineMapDownloader.getRetryDelay(retry);
+                assertTrue("retry " + retry + ": " + delay, delay >= expected / 2);
+                assertTrue("retry " + retry + ": " + delay, delay <= expected);
+            }
+        }
+    }
+
+    @Test
+    public void retryDelayIsCapped() {
+        assertTrue(OfflineMapDownloader.getRetryDelay(Integer.MAX_VALUE)
+                <= OfflineMapDownloader.RETRY_MAXIMUM_DELAY_MS);
+    }
+}
@@ -0,0 +1,101 @@
+package com.mapbox.mapboxsdk.offline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.mapbox.mapboxsdk.util.HttpClientRegistry;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OfflineMapUpdaterTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 05 Jan 2015 10:00:00 GMT";
+
+    private MockWebServer mServer;
+    private OfflineMapUpdater mUpdater;
+    private OfflineMapUpdater.Counters mCounters;
+    // Never started, so whatever the updater hands it stays queued and is counted below
+    private OfflineDownloadWriter mWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        HttpClientRegistry.reset();
+        mServer = new MockWebServer();
+        mServer.start();
+        mUpdater = new OfflineMapUpdater(null, null);
+        mCounters = new OfflineMapUpdater.Counters();
+        mWriter = new OfflineDownloadWriter(null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        HttpClientRegistry.reset();
+    }
+
+    @Test
+    public void notModifiedKeepsStoredCopyAndValidators() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        mUpdater.checkResource(storedResource(ETAG, LAST_MODIFIED, 1234), mWriter, mCounters);
+
+        final RecordedRequest request = mServer.takeRequest();
+        assertEquals(ETAG, request.getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+        assertEquals(1, mCounters.unchanged.get());
+        assertEquals(1234, mCounters.savedBytes.get());
+        // Nothing is handed to the writer, so the stored data, ETag and date stay as they are
+        assertEquals(0, mCounters.changed.get());
+        assertEquals(0, mWriter.getQueuedCount());
+    }
+
+    @Test
+    public void changedResourceIsReplacedWithNewValidators() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("new tile").setHeader("ETag", "\"v2\""));
+
+        mUpdater.checkResource(storedResource(ETAG, null, 1234), mWriter, mCounters);
+
+        assertEquals(ETAG, mServer.takeRequest().getHeader("If-None-Match"));
+        assertEquals(1, mCounters.changed.get());
+        assertEquals("new tile".length(), mCounters.downloadedBytes.get());
+        assertEquals(1, mWriter.getQueuedCount());
+    }
+
+    @Test
+    public void failedCheckKeepsStoredCopy() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+
+        mUpdater.checkResource(storedResource(ETAG, LAST_MODIFIED, 1234), mWriter, mCounters);
+
+        assertEquals(1, mCounters.failed.get());
+        assertEquals(0, mWriter.getQueuedCount());
+    }
+
+    @Test
+    public void notModifiedWithoutValidatorsIsAnError() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+        try {
+            OfflineResourceResponse.fetch(url(), null, null);
+        } catch (OfflineMapDownloader.HttpStatusException e) {
+            assertEquals(304, e.getStatus());
+            assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+            return;
+        }
+        throw new AssertionError("Expected an HttpStatusException");
+    }
+
+    private OfflineMapUpdater.StoredResource storedResource(final String etag,
+            final String lastModified, final long length) {
+        return new OfflineMapUpdater.StoredResource(url(), 1, etag, lastModified, length);
+    }
+
+    private String url() {
+        return mServer.getUrl("/v4/mapbox.streets/1/0/0.png").toString();
+    }
+}
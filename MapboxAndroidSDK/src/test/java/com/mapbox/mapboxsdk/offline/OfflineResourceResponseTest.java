@@ -0,0 +1,100 @@
+package com.mapbox.mapboxsdk.offline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.mapbox.mapboxsdk.util.HttpClientRegistry;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OfflineResourceResponseTest {
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        HttpClientRegistry.reset();
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        HttpClientRegistry.reset();
+    }
+
+    @Test
+    public void okResponseKeepsBodyAndValidators() throws IOException {
+        mServer.enqueue(new MockResponse().setBody("tile")
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Last-Modified", "Mon, 05 Jan 2015 10:00:00 GMT"));
+
+        final OfflineResourceResponse response = OfflineResourceResponse.fetch(url());
+        assertArrayEquals("tile".getBytes("UTF-8"), response.data);
+        assertEquals("\"v1\"", response.etag);
+        assertEquals("Mon, 05 Jan 2015 10:00:00 GMT", response.lastModified);
+    }
+
+    @Test
+    public void serverErrorIsTransient() throws IOException {
+        final OfflineMapDownloader.HttpStatusException e = fetchStatus(503);
+        assertEquals(503, e.getStatus());
+        assertTrue(e.isTransient());
+    }
+
+    @Test
+    public void rateLimitingIsTransient() throws IOException {
+        assertTrue(fetchStatus(429).isTransient());
+        assertTrue(fetchStatus(408).isTransient());
+    }
+
+    @Test
+    public void missingResourceIsPermanent() throws IOException {
+        final OfflineMapDownloader.HttpStatusException e = fetchStatus(404);
+        assertEquals(404, e.getStatus());
+        assertFalse(e.isTransient());
+    }
+
+    @Test
+    public void flakyServerSucceedsWithinTheRetries() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        mServer.enqueue(new MockResponse().setBody("tile"));
+
+        // The same policy as OfflineMapDownloader.fetchResource, without the delays
+        OfflineResourceResponse response = null;
+        for (int attempt = 0; attempt < 5 && response == null; attempt++) {
+            try {
+                response = OfflineResourceResponse.fetch(url());
+            } catch (OfflineMapDownloader.HttpStatusException e) {
+                assertTrue(e.isTransient());
+            }
+        }
+        assertArrayEquals("tile".getBytes("UTF-8"), response.data);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    private OfflineMapDownloader.HttpStatusException fetchStatus(final int status)
+            throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(status));
+        try {
+            OfflineResourceResponse.fetch(url());
+        } catch (OfflineMapDownloader.HttpStatusException e) {
+            return e;
+        }
+        fail("Expected an HttpStatusException for " + status);
+        return null;
+    }
+
+    private String url() {
+        return mServer.getUrl("/v4/mapbox.streets/1/0/0.png").toString();
+    }
+}
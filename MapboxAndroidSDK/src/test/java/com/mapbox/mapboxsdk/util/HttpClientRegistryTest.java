@@ -0,0 +1,110 @@
+package com.mapbox.mapboxsdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HttpClientRegistryTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        HttpClientRegistry.reset();
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        HttpClientRegistry.reset();
+    }
+
+    @Test
+    public void sharedClientIsReused() {
+        assertSame(HttpClientRegistry.getClient(), HttpClientRegistry.getClient());
+    }
+
+    @Test
+    public void sequentialRequestsShareOneSocket() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody("tile " + i));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("tile " + i, fetch(HttpClientRegistry.getClient(), "/" + i));
+        }
+
+        // The sequence number counts the requests made on the same connection
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void clientWithCacheSharesConnectionPool() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("a"));
+        mServer.enqueue(new MockResponse().setBody("b"));
+
+        final OkHttpClient shared = HttpClientRegistry.getClient();
+        final OkHttpClient cached = HttpClientRegistry.getClient(
+                new Cache(mTemporaryFolder.newFolder(), 1024 * 1024), null);
+        assertNotSame(shared, cached);
+        assertSame(shared.getConnectionPool(), cached.getConnectionPool());
+        assertSame(shared.getDispatcher(), cached.getDispatcher());
+
+        assertEquals("a", fetch(shared, "/a"));
+        assertEquals("b", fetch(cached, "/b"));
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void configurationChangeRebuildsClient() {
+        final OkHttpClient before = HttpClientRegistry.getClient();
+        HttpClientRegistry.setMaxIdleConnections(2);
+        final OkHttpClient after = HttpClientRegistry.getClient();
+        assertNotSame(before, after);
+        assertNotSame(before.getConnectionPool(), after.getConnectionPool());
+    }
+
+    @Test
+    public void perHostLimitAppliesToSharedClient() {
+        HttpClientRegistry.setMaxRequestsPerHost(3);
+        assertEquals(3, HttpClientRegistry.getClient().getDispatcher().getMaxRequestsPerHost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeIdleConnectionsAreRejected() {
+        HttpClientRegistry.setMaxIdleConnections(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroRequestsPerHostIsRejected() {
+        HttpClientRegistry.setMaxRequestsPerHost(0);
+    }
+
+    private String fetch(final OkHttpClient client, final String path) throws IOException {
+        final Request request = new Request.Builder().url(mServer.getUrl(path)).build();
+        final Response response = client.newCall(request).execute();
+        // Reading the whole body releases the connection to the pool
+        return response.body().string();
+    }
+}
@@ -0,0 +1,62 @@
+package com.mapbox.mapboxsdk.benchmarks;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import java.util.Locale;
+
+/**
+ * Base class of the benchmarks. JMH doesn't run on Dalvik or ART, so operations are timed with
+ * {@link System#nanoTime()} after a warm-up, and their allocations counted with
+ * {@link Debug#getThreadAllocCount()}, which only sees the calling thread.
+ */
+public abstract class BenchmarkCase extends AndroidTestCase {
+
+    private static final String TAG = "Benchmark";
+
+    /**
+     * The cost of one operation, averaged over a run.
+     */
+    public static final class Result {
+        public final double mNanosPerOperation;
+        public final double mAllocationsPerOperation;
+
+        Result(final double nanosPerOperation, final double allocationsPerOperation) {
+            mNanosPerOperation = nanosPerOperation;
+            mAllocationsPerOperation = allocationsPerOperation;
+        }
+    }
+
+    /**
+     * Run an operation {@code iterations} times after a warm-up of a tenth of that, and log
+     * the average time and allocations of one run.
+     *
+     * @param name the name the result is logged under
+     * @param iterations the number of measured runs
+     * @param operation the operation
+     * @return the average cost of one run
+     */
+    @SuppressWarnings("deprecation")
+    protected Result measure(final String name, final int iterations, final Runnable operation) {
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            operation.run();
+        }
+        System.gc();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+        final int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        final Result result = new Result((double) elapsed / iterations,
+                (double) allocations / iterations);
+        Log.i(TAG, String.format(Locale.US, "%s: %.2f us/op, %.2f allocations/op", name,
+                result.mNanosPerOperation / 1000, result.mAllocationsPerOperation));
+        return result;
+    }
+}
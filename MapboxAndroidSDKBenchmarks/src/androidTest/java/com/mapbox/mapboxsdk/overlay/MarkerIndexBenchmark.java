@@ -0,0 +1,116 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import android.util.Log;
+import com.mapbox.mapboxsdk.benchmarks.BenchmarkCase;
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Viewport queries of the marker index against a scan of every marker, the way ItemizedOverlay
+ * drew before the index, at 1k, 10k and 100k markers spread over a city.
+ */
+public class MarkerIndexBenchmark extends BenchmarkCase {
+
+    private static final int QUERIES = 2000;
+    // A phone screen at zoom 15 is about a thousandth of the world wide
+    private static final double VIEWPORT_WIDTH = 0.001;
+    private static final double VIEWPORT_HEIGHT = 0.0018;
+
+    private final ArrayList<MarkerIndex.Entry> mResults = new ArrayList<MarkerIndex.Entry>();
+    private double[] mXs;
+    private double[] mYs;
+    private int mNextQuery;
+    private int mFound;
+
+    public void testQuery1k() {
+        benchmark(1000);
+    }
+
+    public void testQuery10k() {
+        benchmark(10000);
+    }
+
+    public void testQuery100k() {
+        benchmark(100000);
+    }
+
+    private void benchmark(final int markerCount) {
+        final Random random = new Random(42);
+        final Marker[] markers = new Marker[markerCount];
+        mXs = new double[markerCount];
+        mYs = new double[markerCount];
+        for (int i = 0; i < markerCount; i++) {
+            markers[i] = new Marker(null, null, new LatLng(38.85 + random.nextDouble() * 0.1,
+                    -77.05 + random.nextDouble() * 0.1));
+            mXs[i] = MarkerIndex.projectX(markers[i].getPoint().getLongitude());
+            mYs[i] = MarkerIndex.projectY(markers[i].getPoint().getLatitude());
+        }
+
+        final MarkerIndex index = new MarkerIndex();
+        final long start = System.nanoTime();
+        for (int i = 0; i < markerCount; i++) {
+            index.add(markers[i], i);
+        }
+        Log.i("Benchmark", "MarkerIndex build " + markerCount + ": "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+
+        final double[] viewports = new double[2 * QUERIES];
+        final double minX = MarkerIndex.projectX(-77.05);
+        final double minY = MarkerIndex.projectY(38.95);
+        final double spanX = MarkerIndex.projectX(-76.95) - minX - VIEWPORT_WIDTH;
+        final double spanY = MarkerIndex.projectY(38.85) - minY - VIEWPORT_HEIGHT;
+        for (int i = 0; i < QUERIES; i++) {
+            viewports[2 * i] = minX + random.nextDouble() * spanX;
+            viewports[2 * i + 1] = minY + random.nextDouble() * spanY;
+        }
+
+        // Both ways find the same markers
+        for (int i = 0; i < 100; i++) {
+            mResults.clear();
+            index.query(viewports[2 * i], viewports[2 * i + 1],
+                    viewports[2 * i] + VIEWPORT_WIDTH, viewports[2 * i + 1] + VIEWPORT_HEIGHT,
+                    mResults);
+            assertEquals(scan(viewports[2 * i], viewports[2 * i + 1]), mResults.size());
+        }
+
+        mNextQuery = 0;
+        final Result indexed = measure("MarkerIndex query " + markerCount, QUERIES,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final int i = 2 * (mNextQuery++ % QUERIES);
+                        mResults.clear();
+                        index.query(viewports[i], viewports[i + 1],
+                                viewports[i] + VIEWPORT_WIDTH, viewports[i + 1] + VIEWPORT_HEIGHT,
+                                mResults);
+                        mFound += mResults.size();
+                    }
+                });
+        mNextQuery = 0;
+        final Result scanned = measure("Marker scan " + markerCount, QUERIES, new Runnable() {
+            @Override
+            public void run() {
+                final int i = 2 * (mNextQuery++ % QUERIES);
+                mFound += scan(viewports[i], viewports[i + 1]);
+            }
+        });
+
+        assertTrue("allocations per query: " + indexed.mAllocationsPerOperation,
+                indexed.mAllocationsPerOperation < 1);
+        if (markerCount >= 10000) {
+            assertTrue(indexed.mNanosPerOperation < scanned.mNanosPerOperation);
+        }
+    }
+
+    private int scan(final double minX, final double minY) {
+        int count = 0;
+        for (int i = 0; i < mXs.length; i++) {
+            if (mXs[i] >= minX && mXs[i] <= minX + VIEWPORT_WIDTH
+                    && mYs[i] >= minY && mYs[i] <= minY + VIEWPORT_HEIGHT) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
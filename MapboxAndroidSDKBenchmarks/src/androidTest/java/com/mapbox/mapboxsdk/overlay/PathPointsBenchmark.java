@@ -0,0 +1,60 @@
+package com.mapbox.mapboxsdk.overlay;
+
+import android.graphics.PointF;
+import com.mapbox.mapboxsdk.benchmarks.BenchmarkCase;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Batches of points of a live track added to a path and projected, in the primitive arrays of
+ * PathPoints against the PointF per point PathOverlay kept before.
+ */
+public class PathPointsBenchmark extends BenchmarkCase {
+
+    private static final int BATCHES = 500;
+    private static final int BATCH_SIZE = 1000;
+
+    private final double[] mLatitudes = new double[BATCH_SIZE];
+    private final double[] mLongitudes = new double[BATCH_SIZE];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final Random random = new Random(42);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mLatitudes[i] = 38.85 + random.nextDouble() * 0.1;
+            mLongitudes[i] = -77.05 + random.nextDouble() * 0.1;
+        }
+    }
+
+    public void testAddAndProject() {
+        final PathPoints points = new PathPoints();
+        final Result result = measure("PathPoints add and project " + BATCH_SIZE, BATCHES,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        points.clear();
+                        points.addAll(mLatitudes, mLongitudes, 0, BATCH_SIZE);
+                        points.project();
+                    }
+                });
+        assertEquals(BATCH_SIZE, points.getProjectedCount());
+        // The arrays are kept across batches, so once grown a batch allocates nothing
+        assertTrue("allocations per batch: " + result.mAllocationsPerOperation,
+                result.mAllocationsPerOperation < 1);
+    }
+
+    public void testPointPerObject() {
+        final ArrayList<PointF> points = new ArrayList<PointF>(BATCH_SIZE);
+        measure("PointF add " + BATCH_SIZE, BATCHES, new Runnable() {
+            @Override
+            public void run() {
+                points.clear();
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    points.add(new PointF((float) mLatitudes[i], (float) mLongitudes[i]));
+                }
+            }
+        });
+        assertEquals(BATCH_SIZE, points.size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import com.mapbox.mapboxsdk.benchmarks.BenchmarkCase;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+
+/**
+ * The per-frame walk over the tiles of the viewport done by TilesOverlay, without the drawing.
+ */
+public class TileLooperBenchmark extends BenchmarkCase {
+
+    private static final int FRAMES = 2000;
+    private static final int ZOOM = 12;
+    private static final int TILE_SIZE = 256;
+    private static final String CACHE_KEY = "benchmark";
+
+    private final Rect mViewport = new Rect();
+    private int mTileCount;
+
+    private final TileLooper mLooper = new TileLooper() {
+        @Override
+        public void initializeLoop(final float pZoomLevel, final int pTileSizePx) {
+        }
+
+        @Override
+        public void handleTile(final Canvas pCanvas, final String pCacheKey,
+                final int pTileSizePx, final MapTile pTile, final int pX, final int pY,
+                final Rect pClipRect) {
+            mTileCount++;
+        }
+    };
+
+    public void testSteadyViewport() {
+        mViewport.set(500000, 500000, 501080, 501920);
+        final Result result = measure("TileLooper steady 1080x1920", FRAMES, new Runnable() {
+            @Override
+            public void run() {
+                mLooper.loop(null, CACHE_KEY, ZOOM, TILE_SIZE, mViewport, mViewport);
+            }
+        });
+        assertTrue(mTileCount > 0);
+        // Tiles are reused across frames, so a steady view allocates nothing
+        assertTrue("allocations per frame: " + result.mAllocationsPerOperation,
+                result.mAllocationsPerOperation < 1);
+    }
+
+    public void testPanningViewport() {
+        mViewport.set(500000, 500000, 501080, 501920);
+        measure("TileLooper panning 1080x1920", FRAMES, new Runnable() {
+            @Override
+            public void run() {
+                mViewport.offset(7, 3);
+                mLooper.loop(null, CACHE_KEY, ZOOM, TILE_SIZE, mViewport, mViewport);
+            }
+        });
+        assertTrue(mTileCount > 0);
+    }
+}